@@ -22,7 +22,16 @@ import React from "react";
 import {AdHocVariableFilter} from "@grafana/data";
 import {ajax} from "rxjs/internal/ajax/ajax";
 import {firstValueFrom} from "rxjs";
-import {formatFilters, formatJsonFilters} from "../../utils/filters.ts";
+import {formatFilters} from "../../utils/filters.ts";
+
+// The filters backed by the normalized metadata facets of the mods, by the facet they filter on
+const FACETS: Map<string, string> = new Map([
+  ['Mod ID', 'mod_id'],
+  ['Authors', 'author'],
+  ['License', 'license'],
+  ['Language loader', 'language_loader'],
+  ['Any contained artifact', 'artifact'],
+])
 
 export function modsScene() {
   const versionVariable = new QueryVariable({
@@ -39,7 +48,7 @@ export function modsScene() {
     label: 'Filters',
     allowCustomValue: true,
     getTagKeysProvider: (variable, currentKey) => {
-      return Promise.resolve({ replace: true, values: ['Any class name', 'Mod ID', 'Maven Coordinates', 'Authors', 'License', 'Any contained artifact', 'In pack']
+      return Promise.resolve({ replace: true, values: ['Any class name', 'References method', 'References field', 'Mixin target', 'Subscribes to event', 'Mod ID', 'Maven Coordinates', 'Authors', 'License', 'Language loader', 'Any contained artifact', 'In pack']
             .map(v => {
                 return {
                   text: v
@@ -48,14 +57,9 @@ export function modsScene() {
     },
     getTagValuesProvider: (variable, filter) => {
       let query: string | undefined;
-      if (filter.key === 'Mod ID' && filter.operator.endsWith('=')) {
-        query = 'select distinct unnest(mods.mod_ids) from mods'
-      } else if (filter.key === 'Any contained artifact' && filter.operator.endsWith('=')) {
-        query = 'select distinct jsonb_path_query(mods.nested_tree, \'$.**.id\') from mods'
-      } else if (filter.key === 'Authors' && filter.operator.endsWith('=')) {
-        query = 'select distinct mods.authors from mods where mods.authors is not null'
-      } else if (filter.key === 'License' && filter.operator.endsWith('=')) {
-        query = 'select distinct mods.license from mods where mods.license is not null'
+      const facet = FACETS.get(filter.key)
+      if (facet && filter.operator.endsWith('=')) {
+        query = `select value from mod_facet_values where facet = '${facet}' order by mods desc`
       } else if (filter.key === 'Maven Coordinates' && filter.operator.endsWith('=')) {
         query = 'select distinct mods.maven_coordinates from mods where mods.maven_coordinates is not null'
       }
@@ -119,7 +123,7 @@ from
       if (byName.get('Any class name')) {
         const filtered = formatFilters('cls.name', byName.get('Any class name')!)
         baseQuery += `
-join class_defs cd on cd.mod = mods.id
+join current_class_defs cd on cd.mod = mods.id
 join classes cls on cd.type = cls.id and ${filtered}`
         // TODO - the fact that we have to manually group by each used column is a bit cursed
         group = 'group by mods.name, mods.version, mods.mod_ids, mods.license, mods.authors, mods.mod_metadata_json, mods.maven_coordinates, mods.curseforge_project_id, mods.modrinth_project_id'
@@ -127,16 +131,46 @@ join classes cls on cd.type = cls.id and ${filtered}`
 
       baseQuery += ` where loader is false`;
       if (byName.get('Mod ID')) {
-        baseQuery += ` and ${formatFilters('mods.mod_ids[1]', byName.get('Mod ID')!)}`
+        baseQuery += ` and ${formatFacetFilters('mod_id', byName.get('Mod ID')!, 'facet.depth = 0')}`
       }
       if (byName.get('Maven Coordinates')) {
         baseQuery += ` and ${formatFilters('mods.maven_coordinates', byName.get('Maven Coordinates')!)}`
       }
       if (byName.get('Authors')) {
-        baseQuery += ` and ${formatFilters('mods.authors', byName.get('Authors')!)}`
+        baseQuery += ` and ${formatFacetFilters('author', byName.get('Authors')!)}`
       }
       if (byName.get('License')) {
-        baseQuery += ` and ${formatFilters('mods.license', byName.get('License')!)}`
+        baseQuery += ` and ${formatFacetFilters('license', byName.get('License')!)}`
+      }
+      if (byName.get('Language loader')) {
+        baseQuery += ` and ${formatFacetFilters('language_loader', byName.get('Language loader')!)}`
+      }
+
+      // The usage views cover both the per class and the per mod reference granularity
+      if (byName.get('References method')) {
+        baseQuery += ` and mods.id in (select mu.mod from current_method_usages mu
+  join methods m on mu.reference = m.id
+  join classes mcls on m.cls = mcls.id
+  join constants mname on m.name = mname.id
+  where ${formatFilters(`mcls.name || '#' || mname.constant`, byName.get('References method')!)})`
+      }
+      if (byName.get('References field')) {
+        baseQuery += ` and mods.id in (select fu.mod from current_field_usages fu
+  join fields f on fu.reference = f.id
+  join classes fcls on f.cls = fcls.id
+  join constants fname on f.name = fname.id
+  where ${formatFilters(`fcls.name || '#' || fname.constant`, byName.get('References field')!)})`
+      }
+
+      if (byName.get('Mixin target')) {
+        baseQuery += ` and mods.id in (select mt.mod from current_mixin_targets mt
+  join classes tcls on mt.target = tcls.id
+  where ${formatFilters('tcls.name', byName.get('Mixin target')!)})`
+      }
+      if (byName.get('Subscribes to event')) {
+        baseQuery += ` and mods.id in (select es.mod from current_event_subscribers es
+  join classes ecls on es.event = ecls.id
+  where ${formatFilters('ecls.name', byName.get('Subscribes to event')!)})`
       }
 
       if (byName.get('In pack')) {
@@ -153,7 +187,7 @@ join classes cls on cd.type = cls.id and ${filtered}`
       }
 
       if (byName.get('Any contained artifact')) {
-        baseQuery += ` and jsonb_path_exists(nested_tree, '$.**.id ? (${formatJsonFilters(byName.get('Any contained artifact')!)})')`
+        baseQuery += ` and ${formatFacetFilters('artifact', byName.get('Any contained artifact')!)}`
       }
 
       return baseQuery + ` ${group} order by "Mod Name"`
@@ -206,6 +240,17 @@ join classes cls on cd.type = cls.id and ${filtered}`
   });
 }
 
+function formatFacetFilters(facet: string, filters: AdHocVariableFilter[], condition = 'true'): string {
+  return '(' + filters
+      .map(fil => {
+        // A mod matches a negated filter when none of its values match the filter, not when any of its values doesn't
+        const negated = fil.operator === '!=' || fil.operator === '!~'
+        const filter = negated ? {...fil, operator: fil.operator === '!=' ? '=' : '=~'} : fil
+        return `mods.id ${negated ? 'not in' : 'in'} (select facet.mod from mod_facets facet where facet.facet = '${facet}' and ${formatFilters('facet.value', [filter])} and ${condition})`
+      })
+      .join(' or ') + ')'
+}
+
 function createSql(query: string): string {
   return `
 set
@@ -363,7 +408,7 @@ export function createDrilldown(routeMatch: SceneRouteMatch<any>): SceneAppPage
 set
   session search_path to "${version}";
 select classes.name as "Class Name" from class_defs
-join mods on class_defs.mod = mods.id and ${(id as string).match(/^\d+$/) ? `curseforge_project_id = ${id}` : `modrinth_project_id = '${id}'`}
+join mods on class_defs.mod = mods.id and class_defs.generation = mods.current_generation and ${(id as string).match(/^\d+$/) ? `curseforge_project_id = ${id}` : `modrinth_project_id = '${id}'`}
 join classes on class_defs.type = classes.id
 order by classes.name
 `
@@ -376,6 +421,20 @@ order by classes.name
                       reducer: ['count']
                     })
                     .build()
+              }),
+              new SceneGridItem({
+                x: 0,
+                y: 26,
+                width: 12,
+                height: 12,
+                body: dependencyPanel('Dependencies', version, id, 'mod', 'dependency')
+              }),
+              new SceneGridItem({
+                x: 12,
+                y: 26,
+                width: 12,
+                height: 12,
+                body: dependencyPanel('Dependents', version, id, 'dependency', 'mod')
               })
             ]
           })
@@ -385,6 +444,38 @@ order by classes.name
   })
 }
 
+// Lists the mods on the other side of the dependency edges of the mod, with the amount of their classes and members used
+function dependencyPanel(title: string, version: string, id: string, own: string, other: string) {
+  return PanelBuilders.table()
+      .setTitle(title)
+      .setHeaderActions([new VizPanelExploreButton()])
+      .setFilterable(true)
+      .setData(new SceneQueryRunner({
+        datasource: getWaifuDatasource(),
+        queries: [
+          {
+            refId: 'A',
+            format: 'table',
+            rawSql: `
+set
+  session search_path to "${version}";
+select others.name as "Mod Name", deps.classes as "Classes", deps.method_references as "Method references", deps.field_references as "Field references"
+from mod_dependencies deps
+join mods on deps.${own} = mods.id and ${id.match(/^\d+$/) ? `mods.curseforge_project_id = ${id}` : `mods.modrinth_project_id = '${id}'`}
+join mods others on deps.${other} = others.id
+order by deps.method_references + deps.field_references desc
+`
+          },
+        ],
+      }))
+      .setOption('footer', {
+        countRows: true,
+        show: true,
+        reducer: ['count']
+      })
+      .build()
+}
+
 function el(element: any): SceneFlexItem {
   return new SceneFlexItem({body: new DirectElement(element)})
 }
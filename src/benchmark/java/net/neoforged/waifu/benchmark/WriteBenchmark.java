@@ -0,0 +1,313 @@
+package net.neoforged.waifu.benchmark;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import net.neoforged.waifu.db.ClassData;
+import net.neoforged.waifu.db.DataSanitizer;
+import net.neoforged.waifu.db.EnumExtension;
+import net.neoforged.waifu.db.IndexDatabase;
+import net.neoforged.waifu.db.SQLDatabase;
+import net.neoforged.waifu.db.TagFile;
+import net.neoforged.waifu.index.EnumExtensionCollector;
+import net.neoforged.waifu.index.IndexingClassVisitor;
+import net.neoforged.waifu.index.Remapper;
+import net.neoforged.waifu.index.TagCollector;
+import net.neoforged.waifu.meta.ModFilePath;
+import net.neoforged.waifu.meta.ModFileReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of {@link SQLDatabase#trackMod} by storing a corpus of mods in an empty schema of an embedded (or local) Postgres.
+ * <p>
+ * The corpus is either read from a directory of mod jars ({@code --corpus}) or generated, with references following a skewed distribution
+ * over a shared pool of game members, like real mods do.
+ * <p>
+ * Options:
+ * <ul>
+ *     <li>{@code --url <host:port/db>}, {@code --username}, {@code --password}: benchmark against a local Postgres instead of starting an embedded one</li>
+ *     <li>{@code --corpus <dir>}: a directory of mod jars to replay</li>
+ *     <li>{@code --mods <n>}, {@code --classes <n>}, {@code --seed <n>}: the size of the generated corpus, defaulting to 500 mods of 150 classes</li>
+ *     <li>{@code --concurrency <n>}: the amount of mods stored at once, defaulting to 10</li>
+ *     <li>{@code --granularity <class|mod|packed>}: the reference granularity to store with</li>
+ *     <li>{@code --bulk-load}: store the mods in bulk load mode, like the initial index of a version</li>
+ * </ul>
+ */
+public class WriteBenchmark {
+    public static void main(String[] args) throws Exception {
+        var options = parseOptions(args);
+
+        var corpus = options.containsKey("corpus") ? readCorpus(Path.of(options.get("corpus"))) :
+                generateCorpus(Integer.parseInt(options.getOrDefault("mods", "500")), Integer.parseInt(options.getOrDefault("classes", "150")), Long.parseLong(options.getOrDefault("seed", "42")));
+        var concurrency = Integer.parseInt(options.getOrDefault("concurrency", "10"));
+        var granularity = IndexDatabase.ReferenceGranularity.valueOf(options.getOrDefault("granularity", "class").toUpperCase(Locale.ROOT));
+
+        EmbeddedPostgres embedded = null;
+        String url, username, password;
+        if (options.containsKey("url")) {
+            url = "jdbc:postgresql://" + options.get("url");
+            username = options.get("username");
+            password = options.get("password");
+        } else {
+            embedded = EmbeddedPostgres.builder()
+                    .setServerConfig("max_connections", "300")
+                    .start();
+            url = "jdbc:postgresql://localhost:" + embedded.getPort() + "/postgres";
+            username = password = "postgres";
+        }
+
+        var schema = "benchmark-" + System.currentTimeMillis();
+        try (var db = new SQLDatabase(url + "?currentSchema=" + schema, username, password, null);
+             var con = DriverManager.getConnection(url + "?currentSchema=" + schema, username, password)) {
+            db.runFlyway();
+            db.setReferenceGranularity(granularity);
+
+            System.out.printf("Storing %s mods (%s classes) in schema %s with %s reference granularity and a concurrency of %s%n",
+                    corpus.size(), corpus.stream().mapToInt(m -> m.classes().size()).sum(), schema, granularity.name().toLowerCase(Locale.ROOT), concurrency);
+
+            var mods = new ArrayList<SQLDatabase.SqlMod>(corpus.size());
+            for (var mod : corpus) {
+                mods.add(createMod(con, db, mod.name()));
+            }
+
+            var walStart = queryString(con, "select pg_current_wal_lsn()");
+            var latencies = new long[corpus.size()];
+            var failures = new AtomicInteger();
+
+            var start = System.nanoTime();
+            try (var bulkLoad = options.containsKey("bulk-load") ? db.beginBulkLoad() : null;
+                 ExecutorService executor = Executors.newFixedThreadPool(concurrency, Thread.ofVirtual().name("benchmark-", 0).factory())) {
+                var futures = new ArrayList<Future<?>>(corpus.size());
+                for (int i = 0; i < corpus.size(); i++) {
+                    var index = i;
+                    futures.add(executor.submit(() -> {
+                        var mod = corpus.get(index);
+                        var storeStart = System.nanoTime();
+                        try {
+                            db.trackMod(mods.get(index), tracker -> {
+                                tracker.deleteCurrent();
+
+                                tracker.insertClasses(mod.classes());
+                                tracker.insertTags(mod.tags());
+                                tracker.insertEnumExtensions(mod.enumExtensions());
+
+                                tracker.setIndexDate(Instant.now());
+                            });
+                        } catch (Exception exception) {
+                            failures.incrementAndGet();
+                            exception.printStackTrace();
+                        }
+                        latencies[index] = System.nanoTime() - storeStart;
+                    }));
+                }
+                for (var future : futures) {
+                    future.get();
+                }
+            }
+            var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            var walBytes = Long.parseLong(queryString(con, "select pg_wal_lsn_diff(pg_current_wal_lsn(), '" + walStart + "')::bigint::text"));
+            var rows = countRows(con, schema);
+
+            Arrays.sort(latencies);
+            var seconds = elapsed.toNanos() / 1_000_000_000d;
+
+            System.out.printf("Stored %s mods in %.2fs (%s failed)%n", corpus.size(), seconds, failures.get());
+            System.out.printf("  mods/s:      %.1f%n", corpus.size() / seconds);
+            System.out.printf("  rows:        %s (%.0f rows/s)%n", rows.values().stream().mapToLong(Long::longValue).sum(), rows.values().stream().mapToLong(Long::longValue).sum() / seconds);
+            System.out.printf("  p50 latency: %.1fms%n", percentile(latencies, 0.5) / 1_000_000d);
+            System.out.printf("  p99 latency: %.1fms%n", percentile(latencies, 0.99) / 1_000_000d);
+            System.out.printf("  WAL:         %.1f MiB (%.0f bytes/mod)%n", walBytes / (1024d * 1024d), walBytes / (double) corpus.size());
+            System.out.println("Rows per table:");
+            rows.forEach((table, count) -> {
+                if (count > 0) System.out.printf("  %-32s %s%n", table, count);
+            });
+
+            try (var stmt = con.createStatement()) {
+                stmt.execute("drop schema \"" + schema + "\" cascade");
+            }
+        } finally {
+            if (embedded != null) {
+                embedded.close();
+            }
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            var name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    private static SQLDatabase.SqlMod createMod(Connection con, SQLDatabase db, String name) throws SQLException {
+        var stmt = con.prepareStatement("insert into mods(version, name, mod_ids) values ('1.0.0', ?, ?)");
+        stmt.setString(1, name);
+        stmt.setArray(2, con.createArrayOf("text", new String[] {name.toLowerCase(Locale.ROOT)}));
+        stmt.execute();
+        return db.getModsByName(name).getFirst();
+    }
+
+    private static String queryString(Connection con, String query) throws SQLException {
+        try (var stmt = con.createStatement()) {
+            var rs = stmt.executeQuery(query);
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private static Map<String, Long> countRows(Connection con, String schema) throws SQLException {
+        var tables = new ArrayList<String>();
+        try (var stmt = con.prepareStatement("select table_name from information_schema.tables where table_schema = ? and table_type = 'BASE TABLE' order by table_name")) {
+            stmt.setString(1, schema);
+            var rs = stmt.executeQuery();
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+        }
+
+        var rows = new LinkedHashMap<String, Long>();
+        for (var table : tables) {
+            if (table.startsWith("flyway")) continue;
+            rows.put(table, Long.parseLong(queryString(con, "select count(*)::text from \"" + table + "\"")));
+        }
+        return rows;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static List<CorpusMod> readCorpus(Path directory) throws IOException {
+        var sanitizer = DataSanitizer.of(DataSanitizer.REMOVE_OWN_DIRECT_REFERENCES, DataSanitizer.REMOVE_PRIVATE_MEMBERS);
+
+        List<Path> jars;
+        try (var files = Files.list(directory)) {
+            jars = files.filter(p -> p.getFileName().toString().endsWith(".jar")).sorted().toList();
+        }
+
+        var mods = new ArrayList<CorpusMod>(jars.size());
+        for (var jar : jars) {
+            var path = ModFilePath.create(jar);
+            var file = ModFileReader.NEOFORGE.read(path, null, "1.0.0");
+            if (file == null) {
+                file = ModFileReader.LIBRARY.read(path, null, "1.0.0");
+            }
+            try {
+                mods.add(new CorpusMod(
+                        jar.getFileName().toString(),
+                        sanitizer.sanitize(IndexingClassVisitor.collect(file.getRootDirectory(), true, true, Remapper.NOOP)),
+                        TagCollector.collect(file.getPath("data")),
+                        EnumExtensionCollector.collect(file)
+                ));
+            } finally {
+                file.close();
+            }
+        }
+        return mods;
+    }
+
+    /**
+     * Generate mods whose classes reference members of a shared pool of game classes (with a skewed distribution, as a few members like
+     * {@code ResourceLocation#fromNamespaceAndPath} are referenced far more than others) and members of other classes of the same mod.
+     */
+    private static List<CorpusMod> generateCorpus(int modCount, int classesPerMod, long seed) {
+        var random = new Random(seed);
+
+        var gameMembers = new ArrayList<ClassData.Reference>();
+        for (int cls = 0; cls < 2000; cls++) {
+            for (int member = 0; member < 20; member++) {
+                gameMembers.add(new ClassData.Reference("net/minecraft/world/Game" + cls, "m_" + member, "(I)V"));
+            }
+        }
+        var gameFields = new ArrayList<ClassData.Reference>();
+        for (int cls = 0; cls < 500; cls++) {
+            for (int member = 0; member < 10; member++) {
+                gameFields.add(new ClassData.Reference("net/minecraft/world/Game" + cls, "f_" + member, "I"));
+            }
+        }
+
+        var mods = new ArrayList<CorpusMod>(modCount);
+        for (int m = 0; m < modCount; m++) {
+            var pkg = "com/example/mod" + m + "/";
+            var classCount = Math.max(1, (int) (classesPerMod * (0.25 + random.nextDouble() * 1.5)));
+            var classes = new ArrayList<ClassData>(classCount);
+            for (int c = 0; c < classCount; c++) {
+                var name = pkg + "Class" + c;
+                var data = new ClassData(
+                        name, c == 0 ? "java/lang/Object" : "net/minecraft/world/Game" + skewed(random, 2000), new String[0],
+                        new ArrayList<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>()
+                );
+
+                for (int i = random.nextInt(15); i >= 0; i--) {
+                    data.methods().put("method" + i + "()V", new ClassData.MethodInfo("method" + i, "()V", Opcodes.ACC_PUBLIC, new ArrayList<>(0)));
+                }
+                for (int i = random.nextInt(8); i >= 0; i--) {
+                    data.fields().put("field" + i, new ClassData.FieldInfo("field" + i, Type.INT_TYPE, Opcodes.ACC_PUBLIC, new ArrayList<>(0)));
+                }
+
+                for (int i = random.nextInt(60); i >= 0; i--) {
+                    var ref = random.nextInt(5) == 0 ?
+                            new ClassData.Reference(pkg + "Class" + random.nextInt(classCount), "method" + random.nextInt(15), "()V") :
+                            gameMembers.get(skewed(random, gameMembers.size()));
+                    data.methodRefs().merge(ref, 1 + random.nextInt(3), Integer::sum);
+                }
+                for (int i = random.nextInt(20); i >= 0; i--) {
+                    data.fieldRefs().merge(gameFields.get(skewed(random, gameFields.size())), 1 + random.nextInt(3), Integer::sum);
+                }
+
+                classes.add(data);
+            }
+
+            var tags = new ArrayList<TagFile>();
+            for (int t = random.nextInt(10); t > 0; t--) {
+                var entries = new ArrayList<String>();
+                for (int e = 1 + random.nextInt(10); e > 0; e--) {
+                    entries.add("mod" + m + ":entry" + e);
+                }
+                tags.add(new TagFile("minecraft:items/tag" + skewed(random, 200), false, entries));
+            }
+
+            mods.add(new CorpusMod("Mod " + m, classes, tags, List.of()));
+        }
+        return mods;
+    }
+
+    private static int skewed(Random random, int bound) {
+        // Squaring a uniform value favours the lower indices
+        var value = random.nextDouble();
+        return (int) (value * value * bound);
+    }
+
+    private record CorpusMod(String name, List<ClassData> classes, List<TagFile> tags, List<EnumExtension> enumExtensions) {}
+}
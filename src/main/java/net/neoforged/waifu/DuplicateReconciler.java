@@ -0,0 +1,122 @@
+package net.neoforged.waifu;
+
+import net.neoforged.waifu.db.IndexDatabase;
+import net.neoforged.waifu.platform.ModLoader;
+import net.neoforged.waifu.platform.PlatformMod;
+import net.neoforged.waifu.platform.PlatformModFile;
+import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * A job merging the mods that were indexed separately from CurseForge and Modrinth but are the same mod.
+ * <p>
+ * The mods sharing a name are streamed from the database one group at a time. A batch of groups is resolved in parallel, and the merges
+ * found in the batch are applied in a single transaction before the next batch is read, so memory stays bounded whatever the amount of mods.
+ * Two mods are the same if they have files with the same contents, or if their projects have a file in common for the game version.
+ */
+public class DuplicateReconciler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateReconciler.class);
+
+    private static final int BATCH_SIZE = 100;
+    /**
+     * How many groups of mods to resolve at once, bounding the amount of concurrent platform requests.
+     */
+    private static final int CONCURRENCY = 10;
+
+    private final String gameVersion;
+    private final ModLoader loader;
+
+    public DuplicateReconciler(String gameVersion, ModLoader loader) {
+        this.gameVersion = gameVersion;
+        this.loader = loader;
+    }
+
+    /**
+     * {@return the amount of merged mods}
+     */
+    public <T extends IndexDatabase.DatabaseMod<T>> int reconcile(IndexDatabase<T> db) {
+        int merged = 0;
+        try (var groups = db.streamModsByNameAtLeast2();
+             var executor = Executors.newFixedThreadPool(CONCURRENCY, Thread.ofVirtual().name("duplicate-reconciler-" + gameVersion + "-", 0).factory())) {
+            var batch = new ArrayList<List<T>>(BATCH_SIZE);
+            var itr = groups.iterator();
+            while (itr.hasNext()) {
+                batch.add(itr.next());
+                if (batch.size() == BATCH_SIZE || !itr.hasNext()) {
+                    var resolutions = batch.stream()
+                            .map(group -> CompletableFuture.supplyAsync(() -> resolve(db, group), executor))
+                            .toList();
+
+                    var duplicates = new ArrayList<IndexDatabase.Duplicate<T>>();
+                    for (var resolution : resolutions) {
+                        try {
+                            duplicates.addAll(resolution.join());
+                        } catch (Exception exception) {
+                            LOGGER.error("Failed to resolve duplicate mods for game version {} and loader {}: ", gameVersion, loader, exception);
+                        }
+                    }
+
+                    db.mergeDuplicates(duplicates);
+                    merged += duplicates.size();
+                    batch.clear();
+                }
+            }
+        }
+        return merged;
+    }
+
+    private <T extends IndexDatabase.DatabaseMod<T>> List<IndexDatabase.Duplicate<T>> resolve(IndexDatabase<T> db, List<T> group) {
+        // Only mods known from a single, different, platform can be duplicates of each other
+        var curseForge = group.stream().filter(mod -> !mod.isLoader() && mod.getCurseForgeProjectId() != null && mod.getModrinthProjectId() == null).toList();
+        var modrinth = group.stream().filter(mod -> !mod.isLoader() && mod.getModrinthProjectId() != null && mod.getCurseForgeProjectId() == null).toList();
+        if (curseForge.isEmpty() || modrinth.isEmpty()) return List.of();
+
+        var duplicates = new ArrayList<IndexDatabase.Duplicate<T>>();
+        var merged = new ArrayList<T>();
+        for (T cfMod : curseForge) {
+            Set<String> cfHashes = null;
+            for (T mrMod : modrinth) {
+                if (merged.contains(mrMod)) continue;
+
+                var same = db.haveSameContents(cfMod, mrMod);
+                if (!same) {
+                    if (cfHashes == null) {
+                        cfHashes = fileHashes(Main.CURSE_FORGE_PLATFORM.getModById(cfMod.getCurseForgeProjectId()));
+                    }
+                    var mrHashes = fileHashes(Main.MODRINTH_PLATFORM.getModById(mrMod.getModrinthProjectId()));
+                    same = mrHashes.stream().anyMatch(cfHashes::contains);
+                }
+
+                if (same) {
+                    // We prefer keeping the newest version of the mod
+                    if (new DefaultArtifactVersion(cfMod.getVersion()).compareTo(new DefaultArtifactVersion(mrMod.getVersion())) >= 0) {
+                        duplicates.add(new IndexDatabase.Duplicate<>(mrMod, cfMod));
+                    } else {
+                        duplicates.add(new IndexDatabase.Duplicate<>(cfMod, mrMod));
+                    }
+                    merged.add(mrMod);
+                    break;
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    private Set<String> fileHashes(PlatformMod mod) {
+        if (mod == null) return Set.of();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(mod.getFilesForVersion(gameVersion, loader), Spliterator.ORDERED), false)
+                .map(PlatformModFile::getHash)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,34 @@
+package net.neoforged.waifu;
+
+import net.neoforged.waifu.db.IndexDatabase;
+import net.neoforged.waifu.platform.ModLoader;
+import net.neoforged.waifu.util.ArrowDatasetWriter;
+
+import java.io.BufferedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code export <game version> <loader> <dataset> <file>} command, writing a dataset of a game version to an Arrow IPC stream file.
+ *
+ * @see ArrowDatasetWriter
+ */
+public class ExportCommand {
+    public static void run(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: export <game version> <loader> <mods|class_defs|method_references|field_references> <file>");
+            System.exit(1);
+        }
+
+        var dataset = IndexDatabase.ExportDataset.valueOf(args[2].toUpperCase(Locale.ROOT));
+        var file = Path.of(args[3]);
+        try (var db = Main.createDatabase(args[0], ModLoader.valueOf(args[1].toUpperCase(Locale.ROOT)));
+             var rows = db.streamDataset(dataset)) {
+            var start = System.nanoTime();
+            var written = ArrowDatasetWriter.write(dataset, rows.iterator(), new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            Main.LOGGER.info("Exported {} rows of {} for {} {} to {} in {}s", written, args[2], args[0], args[1], file, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        }
+    }
+}
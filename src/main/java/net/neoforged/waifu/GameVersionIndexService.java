@@ -2,6 +2,7 @@ package net.neoforged.waifu;
 
 import net.neoforged.waifu.db.DataSanitizer;
 import net.neoforged.waifu.db.IndexDatabase;
+import net.neoforged.waifu.db.KnownFilesIndex;
 import net.neoforged.waifu.index.Remapper;
 import net.neoforged.waifu.meta.ModFileInfo;
 import net.neoforged.waifu.platform.ModLoader;
@@ -85,11 +86,27 @@ public class GameVersionIndexService implements Runnable {
             listenerFactory.informError("Failed to create remapper for game version " + version + ", loader " + loader + ": " + exception.getMessage());
         }
 
+        // Make sure that the writes that couldn't be stored during the last run are stored before any newer ones
+        db.replayJournal();
+
+        try (var bulkLoad = db.beginBulkLoad()) {
+            if (bulkLoad != null) {
+                LOGGER.info("Game version {} and loader {} have not been indexed yet, indexing in bulk-load mode", version, loader);
+            }
+
+            indexAll(remapper);
+        }
+    }
+
+    private void indexAll(Remapper remapper) {
+        int storedMods = 0;
+        // Load the known files once so that the scans don't need a query for every file
+        var knownFiles = KnownFilesIndex.load(db, platforms);
         for (ModPlatform platform : platforms) {
             var listener = listenerFactory.startIndexingListener(version, loader, platform);
 
             try {
-                var indexer = new ModIndexer<>(platformCache, db, version, loader, remapper);
+                var indexer = new ModIndexer<>(platformCache, db, version, loader, remapper, knownFiles);
 
                 LOGGER.info("Scanning platform {} for game version {} and loader {}", platform.getName(), version, loader);
                 var counter = listener.startPlatformScan();
@@ -104,7 +121,7 @@ public class GameVersionIndexService implements Runnable {
                     var file = next.getLatestFile(version, loader);
                     if (file == null) continue;
 
-                    var latestKnown = db.getKnownLatestProjectFileDate(file);
+                    var latestKnown = knownFiles.getKnownLatestProjectFileDate(file);
                     if (latestKnown != null) {
                         // We only stop if we found a known file that is also latest for that project since the project could be latest updated but for a different version
                         if (next.getLatestReleaseDate() != null && next.getLatestReleaseDate().getEpochSecond() == latestKnown.getEpochSecond()) { // Modrinth returns the date with big precision
@@ -181,6 +198,7 @@ public class GameVersionIndexService implements Runnable {
                 }
 
                 listener.markFinish(scanned.size());
+                storedMods += scanned.size();
 
                 LOGGER.info("Finished indexing platform {} for game version {} and loader {}", platform.getName(), version, loader);
             } catch (Exception exception) {
@@ -189,6 +207,14 @@ public class GameVersionIndexService implements Runnable {
             }
         }
 
+        try {
+            knownFiles.flush();
+        } catch (Exception exception) {
+            LOGGER.error("Failed to mark the indexed files of game version {} and loader {} as known: ", version, loader, exception);
+        }
+
+        Main.MAINTENANCE.afterIndex(db, storedMods);
+
         var loaderProvider = loader.getVersionProvider();
         if (loaderProvider != null) {
             var loaderVersion = loaderProvider.latestVersion().apply(version);
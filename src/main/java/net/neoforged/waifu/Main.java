@@ -3,6 +3,7 @@ package net.neoforged.waifu;
 import io.github.matyrobbrt.curseforgeapi.CurseForgeAPI;
 import io.javalin.Javalin;
 import net.neoforged.waifu.db.DataSanitizer;
+import net.neoforged.waifu.db.DuckDBDatabase;
 import net.neoforged.waifu.db.IndexDatabase;
 import net.neoforged.waifu.db.SQLDatabase;
 import net.neoforged.waifu.discord.DiscordBot;
@@ -19,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -35,6 +37,10 @@ public class Main {
     public static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(
             3, Thread.ofPlatform().name("indexer-", 0).uncaughtExceptionHandler(Utils.LOG_EXCEPTIONS).factory()
     );
+    public static final ScheduledExecutorService MAINTENANCE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("maintenance").priority(Thread.MIN_PRIORITY).uncaughtExceptionHandler(Utils.LOG_EXCEPTIONS).factory()
+    );
+    public static final MaintenanceService MAINTENANCE = new MaintenanceService();
     public static final DataSanitizer SANITIZER = DataSanitizer.of(
             DataSanitizer.REMOVE_OWN_DIRECT_REFERENCES, DataSanitizer.REMOVE_PRIVATE_MEMBERS
     );
@@ -46,6 +52,7 @@ public class Main {
     public static final List<ModPlatform> PLATFORMS;
 
     private static final Map<String, Map<ModLoader, Future<?>>> SERVICES = new ConcurrentHashMap<>();
+    private static final Map<String, IndexDatabase<?>> DATABASES = new ConcurrentHashMap<>();
 
     static {
         try {
@@ -61,6 +68,15 @@ public class Main {
     }
 
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("snapshot")) {
+            SnapshotCommand.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("export")) {
+            ExportCommand.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         var db = new MainDatabase(Path.of("data.db"));
         db.runFlyway();
 
@@ -73,6 +89,9 @@ public class Main {
             initialDelay += 60 * 10;
         }
 
+        MAINTENANCE_EXECUTOR.scheduleWithFixedDelay(MAINTENANCE, 5, 5, TimeUnit.MINUTES);
+        MAINTENANCE_EXECUTOR.scheduleWithFixedDelay(MAINTENANCE::reconcileDuplicates, 1, 24, TimeUnit.HOURS);
+
         WebService web = new WebService(Javalin.create(cfg -> cfg.useVirtualThreads = true));
         web.start();
     }
@@ -88,6 +107,8 @@ public class Main {
 
         SERVICES.computeIfAbsent(version, k -> new ConcurrentHashMap<>())
                 .put(loader, future);
+
+        MAINTENANCE.register(version, loader, indexDb);
     }
 
     @Nullable
@@ -95,10 +116,21 @@ public class Main {
         return SERVICES.getOrDefault(version, Map.of()).get(loader);
     }
 
+    /**
+     * {@return the database of the game version and loader}
+     * A single database is created per schema, so that its journal and caches are shared by the indexer, the bot and the web service.
+     */
     public static IndexDatabase<?> createDatabase(String version, ModLoader loader) {
-        var indexDb = new SQLDatabase("jdbc:postgresql://" + System.getenv("POSTGRES_DB_URL") + "?currentSchema=" + version + "-" + loader.name().toLowerCase(Locale.ROOT),
-                System.getenv("POSTGRES_DB_USERNAME"), System.getenv("POSTGRES_DB_PASSWORD"));
-        indexDb.runFlyway();
-        return indexDb;
+        var schema = version + "-" + loader.name().toLowerCase(Locale.ROOT);
+        return DATABASES.computeIfAbsent(schema, k -> {
+            if ("duckdb".equals(System.getenv("INDEX_DATABASE"))) {
+                return new DuckDBDatabase(Path.of(System.getenv().getOrDefault("DUCKDB_DIRECTORY", "index")).resolve(schema + ".duckdb"));
+            }
+
+            var indexDb = new SQLDatabase("jdbc:postgresql://" + System.getenv("POSTGRES_DB_URL") + "?currentSchema=" + schema,
+                    System.getenv("POSTGRES_DB_USERNAME"), System.getenv("POSTGRES_DB_PASSWORD"), CACHE.resolve("journal").resolve(schema));
+            indexDb.runFlyway();
+            return indexDb;
+        });
     }
 }
@@ -0,0 +1,141 @@
+package net.neoforged.waifu;
+
+import net.neoforged.waifu.db.IndexDatabase;
+import net.neoforged.waifu.platform.ModLoader;
+import net.neoforged.waifu.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A throttled background service that keeps the storage of the tracked versions proportional to the live data:
+ * it refreshes the data derived from the stored mods, deletes superseded mod generations, reclaims orphaned dictionary entries, merges the usage sketches and vacuums the tables after large index runs.
+ */
+public class MaintenanceService implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MaintenanceService.class);
+
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * How long to pause between two batches, to leave the database to the indexers.
+     */
+    private static final long PAUSE_MILLIS = 250;
+    /**
+     * How long a single run may spend on each database.
+     */
+    private static final long BUDGET_MILLIS = 2 * 60 * 1000;
+    /**
+     * The amount of mods an index run needs to store for the tables to be vacuumed afterwards.
+     */
+    private static final int VACUUM_THRESHOLD = 250;
+
+    private final Map<String, Target> targets = new ConcurrentHashMap<>();
+
+    public void register(String version, ModLoader loader, IndexDatabase<?> db) {
+        targets.put(key(version, loader), new Target(version, loader, db));
+    }
+
+    public void unregister(String version, ModLoader loader) {
+        targets.remove(key(version, loader));
+    }
+
+    public void afterIndex(IndexDatabase<?> db, int storedMods) {
+        try {
+            db.refreshDerivedData();
+        } catch (Exception exception) {
+            // The refresh is attempted again by the next maintenance run
+            LOGGER.error("Failed to refresh derived data after index run: ", exception);
+        }
+
+        if (storedMods < VACUUM_THRESHOLD) return;
+        for (var target : targets.values()) {
+            if (target.db == db) {
+                target.vacuumRequested = true;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        for (var target : targets.values()) {
+            try {
+                maintain(target);
+            } catch (Exception exception) {
+                LOGGER.error("Failed to run maintenance for game version {} and loader {}: ", target.version, target.loader, exception);
+            }
+        }
+    }
+
+    /**
+     * Merge the mods of every tracked version that were indexed separately from each platform but are the same mod.
+     */
+    public void reconcileDuplicates() {
+        for (var target : targets.values()) {
+            try {
+                var merged = new DuplicateReconciler(target.version, target.loader).reconcile(target.db);
+                if (merged > 0) {
+                    LOGGER.info("Merged {} duplicate mods of game version {} and loader {}", merged, target.version, target.loader);
+                }
+            } catch (Exception exception) {
+                LOGGER.error("Failed to reconcile duplicate mods of game version {} and loader {}: ", target.version, target.loader, exception);
+            }
+        }
+    }
+
+    private void maintain(Target target) {
+        var deadline = System.currentTimeMillis() + BUDGET_MILLIS;
+
+        target.db.replayJournal();
+        // Pick up the writes which were replayed or stored after the end of the last index run
+        target.db.refreshDerivedData();
+
+        int reaped, totalReaped = 0;
+        while (System.currentTimeMillis() < deadline && (reaped = target.db.reapStaleGenerations(BATCH_SIZE)) > 0) {
+            totalReaped += reaped;
+            Utils.sleep(PAUSE_MILLIS);
+        }
+        if (totalReaped > 0) {
+            LOGGER.info("Deleted {} rows of stale mod generations for game version {} and loader {}", totalReaped, target.version, target.loader);
+        }
+
+        while (System.currentTimeMillis() < deadline && target.db.reclaimOrphanedSymbols(BATCH_SIZE)) {
+            Utils.sleep(PAUSE_MILLIS);
+        }
+
+        target.db.refreshFacetValues();
+        target.db.mergeSketches();
+
+        if (target.vacuumRequested) {
+            target.vacuumRequested = false;
+            LOGGER.info("Vacuuming tables of game version {} and loader {}", target.version, target.loader);
+            target.db.vacuumAnalyze();
+
+            for (var stats : target.db.getTableStats()) {
+                if (stats.deadRows() > 0) {
+                    LOGGER.info("Table {} of game version {} and loader {}: {} live rows, {} dead rows, {} MiB",
+                            stats.table(), target.version, target.loader, stats.liveRows(), stats.deadRows(), stats.totalBytes() / (1024 * 1024));
+                }
+            }
+        }
+    }
+
+    private static String key(String version, ModLoader loader) {
+        return version + "-" + loader.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Target {
+        private final String version;
+        private final ModLoader loader;
+        private final IndexDatabase<?> db;
+
+        private volatile boolean vacuumRequested;
+
+        private Target(String version, ModLoader loader, IndexDatabase<?> db) {
+            this.version = version;
+            this.loader = loader;
+            this.db = db;
+        }
+    }
+}
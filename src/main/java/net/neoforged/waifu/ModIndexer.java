@@ -4,6 +4,7 @@ import io.github.matyrobbrt.curseforgeapi.util.Pair;
 import net.neoforged.waifu.db.ClassData;
 import net.neoforged.waifu.db.DataSanitizer;
 import net.neoforged.waifu.db.IndexDatabase;
+import net.neoforged.waifu.db.KnownFilesIndex;
 import net.neoforged.waifu.index.EnumExtensionCollector;
 import net.neoforged.waifu.index.IndexingClassVisitor;
 import net.neoforged.waifu.index.Remapper;
@@ -12,12 +13,10 @@ import net.neoforged.waifu.meta.ModFileInfo;
 import net.neoforged.waifu.meta.ModFilePath;
 import net.neoforged.waifu.platform.ModLoader;
 import net.neoforged.waifu.platform.ModPlatform;
-import net.neoforged.waifu.platform.PlatformMod;
 import net.neoforged.waifu.platform.PlatformModFile;
 import net.neoforged.waifu.util.Counter;
 import net.neoforged.waifu.util.ProgressMonitor;
 import net.neoforged.waifu.util.Utils;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.jetbrains.annotations.Nullable;
 
@@ -27,7 +26,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -49,6 +47,7 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
     private final ModLoader loader;
 
     private final Remapper remapper;
+    private final KnownFilesIndex knownFiles;
 
     private final List<IndexCandidate> candidateMods = new ArrayList<>();
 
@@ -57,11 +56,16 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
     }
 
     public ModIndexer(Path baseCacheFolder, IndexDatabase<T> db, String gameVersion, ModLoader loader, Remapper remapper) {
+        this(baseCacheFolder, db, gameVersion, loader, remapper, KnownFilesIndex.direct(db));
+    }
+
+    public ModIndexer(Path baseCacheFolder, IndexDatabase<T> db, String gameVersion, ModLoader loader, Remapper remapper, KnownFilesIndex knownFiles) {
         this.baseCacheFolder = baseCacheFolder;
         this.db = db;
         this.gameVersion = gameVersion;
         this.loader = loader;
         this.remapper = remapper;
+        this.knownFiles = knownFiles;
     }
 
     public void indexLoaderMod(ModFileInfo info) throws IOException {
@@ -70,7 +74,7 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
             mod = db.createLoaderMod(info);
         }
 
-        indexAndPrepareUpload(null, info, mod, false, DataSanitizer.of(
+        indexAndPrepareUpload(null, info, null, mod, false, DataSanitizer.of(
                 DataSanitizer.REMOVE_ANONYMOUS_CLASSES, DataSanitizer.REMOVE_LAMBDAS
         )).run();
     }
@@ -155,12 +159,12 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
     }
 
     private @Nullable Runnable run(IndexCandidate file, DataSanitizer sanitizer, ProgressMonitor<IndexCandidate> monitor) throws IOException {
-        var knownByHash = db.getModByFileHash(file.file.getFileHash());
+        var knownByHash = knownFiles.mayBeKnown(file.file.getFileHash()) ? db.getModByFileHash(file.file.getFileHash()) : null;
         if (knownByHash != null) {
             // This file was indexed already so we'll skip up, but we'll just make sure that it's linked
             if (file.platformFile != null) {
                 merge(db, knownByHash, file.platformFile);
-                db.markKnownById(file.platformFile, Objects.requireNonNullElse(file.platformFile.getMod().getLatestReleaseDate(), Instant.EPOCH));
+                knownFiles.markKnownById(file.platformFile, Objects.requireNonNullElse(file.platformFile.getMod().getLatestReleaseDate(), Instant.EPOCH));
             } else if (file.file().getMavenCoordinates() != null && knownByHash.getMavenCoordinate() == null) {
                 knownByHash.link(file.file().getMavenCoordinates());
             }
@@ -168,55 +172,24 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
         }
 
         T mod = null;
+        String fingerprint = null;
         if (file.platformFile != null) {
             mod = db.getMod(file.platformFile);
             if (mod == null) {
                 // Now we're going to try some more aggressive checks to see if we can merge this mod with an existing one just this time.
-                var sameName = db.getModsByName(file.file().getDisplayName());
-                if (!sameName.isEmpty()) {
-                    var isCurseForge = file.platformFile.getPlatform() == Main.CURSE_FORGE_PLATFORM;
-
-                    var ownHashes = StreamSupport.stream(Spliterators.spliteratorUnknownSize(file.platformFile.getMod().getFilesForVersion(gameVersion, loader), Spliterator.ORDERED), false)
-                            .map(PlatformModFile::getHash)
-                            .collect(Collectors.toSet());
-
-                    for (T candidateMod : sameName) {
-                        PlatformMod otherMod = null;
-                        if (candidateMod.getCurseForgeProjectId() == null && isCurseForge && candidateMod.getModrinthProjectId() != null) {
-                            otherMod = Main.MODRINTH_PLATFORM.getModById(candidateMod.getModrinthProjectId());
-                        } else if (candidateMod.getModrinthProjectId() == null && !isCurseForge && candidateMod.getCurseForgeProjectId() != null) {
-                            otherMod = Main.CURSE_FORGE_PLATFORM.getModById(candidateMod.getCurseForgeProjectId());
-                        }
-
-                        if (otherMod == null) continue;
-
-                        var otherFile = otherMod.getLatestFile(gameVersion, loader);
-                        if (otherFile != null) {
-                            try (var otherIn = Files.newInputStream(download(otherFile));
-                                 var thisIn = file.file().openStream()) {
-                                // If we find that this mod matches the other's mod jar (when we strip dates in zip entries or in the manifest) we're confident to link them
-                                if (Arrays.equals(
-                                        Utils.createCleanZip(otherIn),
-                                        Utils.createCleanZip(thisIn)
-                                )) {
-                                    mod = candidateMod;
-                                    mod.link(file.platformFile);
-                                    break;
-                                }
-                            }
-                        }
-
-                        var candidateHashes = StreamSupport.stream(Spliterators.spliteratorUnknownSize(otherMod.getFilesForVersion(gameVersion, loader), Spliterator.ORDERED), false)
-                                .map(PlatformModFile::getHash)
-                                .collect(Collectors.toSet());
-
-                        // If the two mods have at least one file in common for the same game version merge them
-                        var common = CollectionUtils.intersection(ownHashes, candidateHashes);
-                        if (!common.isEmpty()) {
-                            mod = candidateMod;
-                            mod.link(file.platformFile);
-                            break;
-                        }
+                var isCurseForge = file.platformFile.getPlatform() == Main.CURSE_FORGE_PLATFORM;
+
+                // Only link to mods that are only known from the other platform
+                var candidates = db.getModsByName(file.file().getDisplayName()).stream()
+                        .filter(candidateMod -> isCurseForge ?
+                                candidateMod.getCurseForgeProjectId() == null && candidateMod.getModrinthProjectId() != null :
+                                candidateMod.getModrinthProjectId() == null && candidateMod.getCurseForgeProjectId() != null)
+                        .toList();
+                if (!candidates.isEmpty()) {
+                    fingerprint = file.file().computeContentFingerprint();
+                    mod = findSameMod(file.platformFile, fingerprint, candidates);
+                    if (mod != null) {
+                        mod.link(file.platformFile);
                     }
                 }
 
@@ -244,10 +217,51 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
             return null;
         }
 
-        return indexAndPrepareUpload(file.platformFile(), file.file(), mod, true, sanitizer);
+        return indexAndPrepareUpload(file.platformFile(), file.file(), fingerprint, mod, true, sanitizer);
     }
 
-    private Runnable indexAndPrepareUpload(@Nullable PlatformModFile platform, ModFileInfo file, T mod, boolean refs, DataSanitizer sanitizer) throws IOException {
+    /**
+     * {@return the mod known from the other platform which the platform file with the given content fingerprint is also a file of, if any}
+     */
+    private @Nullable T findSameMod(PlatformModFile platformFile, String fingerprint, List<T> candidates) throws IOException {
+        // If this file matches a file of the other mod (when we ignore dates in zip entries or in the manifest) we're confident to link them
+        var sameContents = db.getModsByContentFingerprint(fingerprint);
+        for (var candidateMod : candidates) {
+            if (sameContents.contains(candidateMod)) return candidateMod;
+        }
+
+        // The files stored before fingerprints were computed don't have one, so compare with the latest file of the other project instead
+        // and backfill its fingerprint, so that the next files of this project are matched without downloading it again
+        for (var candidateMod : candidates) {
+            if (candidateMod.hasContentFingerprints()) continue;
+
+            var otherMod = candidateMod.getCurseForgeProjectId() != null ?
+                    Main.CURSE_FORGE_PLATFORM.getModById(candidateMod.getCurseForgeProjectId()) :
+                    Main.MODRINTH_PLATFORM.getModById(candidateMod.getModrinthProjectId());
+            var otherFile = otherMod.getLatestFile(gameVersion, loader);
+            if (otherFile == null) continue;
+
+            String otherFingerprint;
+            try (var in = Files.newInputStream(download(otherFile))) {
+                otherFingerprint = Utils.computeContentFingerprint(in);
+            }
+            db.backfillContentFingerprint(otherFile.getHash(), otherFingerprint);
+            if (otherFingerprint.equals(fingerprint)) return candidateMod;
+        }
+
+        // The other mod may have been indexed from an older file than this one, which still links them if it was uploaded to both platforms.
+        // Listing the files of the project costs requests to the platform, which is why it's only done when the contents didn't match
+        var ownHashes = StreamSupport.stream(Spliterators.spliteratorUnknownSize(platformFile.getMod().getFilesForVersion(gameVersion, loader), Spliterator.ORDERED), false)
+                .map(PlatformModFile::getHash)
+                .collect(Collectors.toSet());
+        var commonFiles = db.getModsByFileHashes(ownHashes);
+        for (var candidateMod : candidates) {
+            if (commonFiles.contains(candidateMod)) return candidateMod;
+        }
+        return null;
+    }
+
+    private Runnable indexAndPrepareUpload(@Nullable PlatformModFile platform, ModFileInfo file, @Nullable String fingerprint, T mod, boolean refs, DataSanitizer sanitizer) throws IOException {
         List<ClassData> classes = IndexingClassVisitor.collect(file.getRootDirectory(), refs, refs, remapper); // TODO - do we want a separate parameter?
 
         var tags = TagCollector.collect(file.getPath("data"));
@@ -256,6 +270,9 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
 
         var sanitized = sanitizer.sanitize(classes);
 
+        // The fingerprint is only needed to link other files to this mod, which never happens for loader mods
+        var contentFingerprint = fingerprint == null && !mod.isLoader() ? file.computeContentFingerprint() : fingerprint;
+
         return () -> {
             db.trackMod(mod, tracker -> {
                 tracker.deleteCurrent();
@@ -265,16 +282,20 @@ public class ModIndexer<T extends IndexDatabase.DatabaseMod<T>> {
                 tracker.insertEnumExtensions(extensions);
 
                 tracker.setIndexDate(Instant.now());
+                // The metadata is stored with the data so that the file is only known once both are stored, even if the write is journaled
+                tracker.setMetadata(file);
 
                 if (!mod.isLoader()) {
-                    tracker.markAsKnown(file.getFileHash());
+                    tracker.markAsKnown(file.getFileHash(), contentFingerprint);
                 }
             });
 
-            mod.updateMetadata(file);
+            if (!mod.isLoader()) {
+                knownFiles.markKnown(file.getFileHash());
+            }
 
             if (platform != null) {
-                db.markKnownById(platform, Objects.requireNonNullElse(platform.getMod().getLatestReleaseDate(), Instant.EPOCH));
+                knownFiles.markKnownById(platform, Objects.requireNonNullElse(platform.getMod().getLatestReleaseDate(), Instant.EPOCH));
             }
         };
     }
@@ -0,0 +1,33 @@
+package net.neoforged.waifu;
+
+import net.neoforged.waifu.platform.ModLoader;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code snapshot export|import <game version> <loader> <file>} command, writing the schema of a game version to a snapshot file
+ * or restoring it from one.
+ *
+ * @see net.neoforged.waifu.db.IndexDatabase#exportSnapshot(Path)
+ */
+public class SnapshotCommand {
+    public static void run(String[] args) throws Exception {
+        if (args.length != 4 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Usage: snapshot export|import <game version> <loader> <file>");
+            System.exit(1);
+        }
+
+        var file = Path.of(args[3]);
+        try (var db = Main.createDatabase(args[1], ModLoader.valueOf(args[2].toUpperCase(Locale.ROOT)))) {
+            var start = System.nanoTime();
+            if (args[0].equals("export")) {
+                db.exportSnapshot(file);
+            } else {
+                db.importSnapshot(file);
+            }
+            Main.LOGGER.info("Finished {} of snapshot {} for {} {} in {}s", args[0], file, args[1], args[2], TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        }
+    }
+}
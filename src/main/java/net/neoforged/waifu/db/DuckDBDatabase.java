@@ -0,0 +1,810 @@
+package net.neoforged.waifu.db;
+
+import net.neoforged.waifu.meta.ModFileInfo;
+import net.neoforged.waifu.meta.ModInfo;
+import net.neoforged.waifu.platform.ModPlatform;
+import net.neoforged.waifu.platform.PlatformMod;
+import net.neoforged.waifu.platform.PlatformModFile;
+import net.neoforged.waifu.util.GroupingIterator;
+import net.neoforged.waifu.util.ThrowingConsumer;
+import net.neoforged.waifu.util.Utils;
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An index database embedded in the process, storing a game version in a single DuckDB file, for deployments without a Postgres server.
+ * <p>
+ * DuckDB is a columnar database: the rows of a stored mod are appended in bulk through appenders, and usages are aggregated on the fly by scanning
+ * the compressed columns, so there are neither dictionaries, indexes nor precomputed totals to maintain while indexing.
+ * Like {@link SQLDatabase}, data is written to a new generation when a mod is replaced and the superseded generations are deleted in the background.
+ */
+public class DuckDBDatabase implements IndexDatabase<DuckDBDatabase.DuckMod> {
+    /**
+     * The tables holding the data of the generations of the mods.
+     */
+    private static final List<String> DATA_TABLES = List.of(
+            "class_defs", "class_interfaces", "method_defs", "field_defs", "annotations", "method_references", "field_references", "tags", "enum_extensions"
+    );
+
+    private final DuckDBConnection connection;
+    private final Jdbi jdbi;
+
+    public DuckDBDatabase(Path file) {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+
+            var properties = new Properties();
+            // Stream the results of big queries (like exports) instead of materializing them
+            properties.setProperty("jdbc_stream_results", "true");
+            this.connection = DriverManager.getConnection("jdbc:duckdb:" + file.toAbsolutePath(), properties).unwrap(DuckDBConnection.class);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+
+        // Each handle gets its own connection to the database so that mods can be stored concurrently
+        this.jdbi = Jdbi.create(connection::duplicate);
+
+        String schema;
+        try (var in = DuckDBDatabase.class.getResourceAsStream("/duckdb/schema.sql")) {
+            schema = new String(Objects.requireNonNull(in, "Missing DuckDB schema").readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        jdbi.useHandle(handle -> {
+            for (var statement : schema.split(";")) {
+                if (!statement.isBlank()) {
+                    handle.execute(statement);
+                }
+            }
+        });
+    }
+
+    @Override
+    public @Nullable DuckMod getMod(PlatformModFile file) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where " + file.getPlatform().getName() + "_project_id = ?")
+                .bind(0, file.getModId())
+                .map((rs, ctx) -> new DuckMod(rs))
+                .findFirst()
+                .orElse(null));
+    }
+
+    @Override
+    public @Nullable DuckMod getMod(PlatformMod mod) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where " + mod.getPlatform().getName() + "_project_id = ?")
+                .bind(0, mod.getId())
+                .map((rs, ctx) -> new DuckMod(rs))
+                .findFirst()
+                .orElse(null));
+    }
+
+    @Override
+    public List<DuckMod> getMods(ModPlatform platform, List<Object> projectIds) {
+        if (projectIds.isEmpty()) return List.of();
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where " + platform.getName() + "_project_id in (<ids>)")
+                .bindList("ids", projectIds)
+                .map((rs, ctx) -> new DuckMod(rs))
+                .list());
+    }
+
+    @Override
+    public @Nullable DuckMod getModByCoordinates(String coords) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where maven_coordinates = ?")
+                .bind(0, coords)
+                .map((rs, ctx) -> new DuckMod(rs))
+                .findFirst()
+                .orElse(null));
+    }
+
+    @Override
+    public List<DuckMod> getModsByName(String name) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where name = ?")
+                .bind(0, name)
+                .map((rs, ctx) -> new DuckMod(rs))
+                .list());
+    }
+
+    @Override
+    public Stream<List<DuckMod>> streamModsByNameAtLeast2() {
+        // The mods table is small enough to be read at once, unlike the tables holding their data
+        var mods = jdbi.withHandle(handle -> handle.createQuery("""
+select * from mods
+where name in (select name from mods group by name having count(*) >= 2)
+order by name, id""")
+                .map((rs, ctx) -> new DuckMod(rs))
+                .list());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new GroupingIterator<>(mods.iterator(), DuckMod::getName), Spliterator.ORDERED), false);
+    }
+
+    @Override
+    public boolean haveSameContents(DuckMod mod, DuckMod other) {
+        return jdbi.withHandle(handle -> handle.createQuery("""
+select exists(select 1 from known_files own
+              join known_files others on others.content_fingerprint = own.content_fingerprint
+              where own.mod = ? and others.mod = ?)""")
+                .bind(0, mod.id)
+                .bind(1, other.id)
+                .mapTo(Boolean.class)
+                .one());
+    }
+
+    @Override
+    public void mergeDuplicates(List<Duplicate<DuckMod>> duplicates) {
+        if (duplicates.isEmpty()) return;
+
+        jdbi.useTransaction(handle -> {
+            for (var duplicate : duplicates) {
+                duplicate.duplicate().transferTo(handle, duplicate.kept());
+                duplicate.duplicate().delete(handle);
+
+                handle.createUpdate("""
+update mods set curseforge_project_id = coalesce(curseforge_project_id, ?),
+                modrinth_project_id = coalesce(modrinth_project_id, ?),
+                maven_coordinates = coalesce(maven_coordinates, ?)
+where id = ?""")
+                        .bind(0, duplicate.duplicate().getCurseForgeProjectId())
+                        .bind(1, duplicate.duplicate().getModrinthProjectId())
+                        .bind(2, duplicate.duplicate().getMavenCoordinate())
+                        .bind(3, duplicate.kept().id)
+                        .execute();
+            }
+        });
+    }
+
+    @Override
+    public DuckMod createMod(ModFileInfo modInfo) {
+        return createMod(modInfo, false);
+    }
+
+    @Override
+    public @Nullable DuckMod getModByFileHash(String fileSha1) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where id = (select mod from known_files where sha1 = ? limit 1)")
+                .bind(0, fileSha1)
+                .map((rs, ctx) -> new DuckMod(rs))
+                .findFirst()
+                .orElse(null));
+    }
+
+    @Override
+    public List<DuckMod> getModsByContentFingerprint(String contentFingerprint) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where id in (select mod from known_files where content_fingerprint = ?)")
+                .bind(0, contentFingerprint)
+                .map((rs, ctx) -> new DuckMod(rs))
+                .list());
+    }
+
+    @Override
+    public void backfillContentFingerprint(String fileSha1, String contentFingerprint) {
+        jdbi.useHandle(handle -> handle.createUpdate("update known_files set content_fingerprint = ? where sha1 = ? and content_fingerprint is null")
+                .bind(0, contentFingerprint)
+                .bind(1, fileSha1)
+                .execute());
+    }
+
+    @Override
+    public List<DuckMod> getModsByFileHashes(Collection<String> fileSha1s) {
+        if (fileSha1s.isEmpty()) return List.of();
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where id in (select mod from known_files where sha1 in (<hashes>))")
+                .bindList("hashes", List.copyOf(fileSha1s))
+                .map((rs, ctx) -> new DuckMod(rs))
+                .list());
+    }
+
+    @Override
+    public @Nullable DuckMod getLoaderMod(String coords) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where maven_coordinates = ? and loader")
+                .bind(0, coords)
+                .map((rs, ctx) -> new DuckMod(rs))
+                .findFirst()
+                .orElse(null));
+    }
+
+    @Override
+    public DuckMod createLoaderMod(ModFileInfo modInfo) {
+        return createMod(modInfo, true);
+    }
+
+    private DuckMod createMod(ModFileInfo modInfo, boolean loader) {
+        var mod = jdbi.withHandle(handle -> handle.createQuery("insert into mods(version, name, mod_ids, loader) values (?, ?, " + MOD_IDS + ", ?) returning *")
+                .bind(0, modInfo.getVersion().toString())
+                .bind(1, modInfo.getDisplayName())
+                .bind(2, modIds(modInfo))
+                .bind(3, loader)
+                .map((rs, ctx) -> new DuckMod(rs))
+                .one());
+        mod.updateMetadata(modInfo);
+        return mod;
+    }
+
+    @Override
+    public @Nullable Instant getKnownLatestProjectFileDate(PlatformModFile file) {
+        return jdbi.withHandle(handle -> handle.createQuery("select latest_date from known_" + file.getPlatform().getName() + "_file_ids where id = ? limit 1")
+                .bind(0, file.getId())
+                .map((rs, ctx) -> rs.getTimestamp(1).toInstant())
+                .findFirst()
+                .orElse(null));
+    }
+
+    @Override
+    public void markKnownById(PlatformModFile file, Instant latestProjectFileDate) {
+        markKnownByIds(Map.of(file, latestProjectFileDate));
+    }
+
+    @Override
+    public void markKnownByIds(Map<PlatformModFile, Instant> latestProjectFileDates) {
+        var byPlatform = latestProjectFileDates.keySet().stream().collect(Collectors.groupingBy(PlatformModFile::getPlatform));
+        jdbi.useTransaction(handle -> {
+            for (var entry : byPlatform.entrySet()) {
+                var table = "known_" + entry.getKey().getName() + "_file_ids";
+                var batch = handle.prepareBatch("insert into " + table + "(id, latest_date) values (?, ?) on conflict do nothing");
+                for (var file : entry.getValue()) {
+                    batch.bind(0, file.getId())
+                            .bind(1, Timestamp.from(latestProjectFileDates.get(file)))
+                            .add();
+                }
+                batch.execute();
+            }
+        });
+    }
+
+    @Override
+    public boolean forEachKnownFile(Consumer<String> consumer) {
+        jdbi.useHandle(handle -> handle.createQuery("select sha1 from known_files")
+                .mapTo(String.class)
+                .forEach(consumer));
+        return true;
+    }
+
+    @Override
+    public boolean forEachKnownFileId(ModPlatform platform, Consumer<Object> consumer) {
+        jdbi.useHandle(handle -> handle.createQuery("select id from known_" + platform.getName() + "_file_ids")
+                .map((rs, ctx) -> rs.getObject(1))
+                .forEach(consumer));
+        return true;
+    }
+
+    @Override
+    public <E extends Exception> void trackMod(DuckMod mod, ThrowingConsumer<ModTracker, E> consumer) throws E {
+        var tracker = new AppendingModTracker();
+        consumer.accept(tracker);
+        try {
+            store(mod.id, tracker);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+        if (tracker.metadata != null) {
+            mod.updateMetadata(tracker.metadata);
+        }
+    }
+
+    private void store(int modId, AppendingModTracker tracker) throws SQLException {
+        try (var con = connection.duplicate()) {
+            con.setAutoCommit(false);
+            try {
+                // Like in the Postgres database, replaced data is written to a new generation which becomes visible once all rows are written
+                int generation = tracker.replace ? nextGeneration(con) : getCurrentGeneration(con, modId);
+                appendRows(con.unwrap(DuckDBConnection.class), modId, generation, tracker);
+
+                if (!tracker.knownFiles.isEmpty()) {
+                    try (var stmt = con.prepareStatement("insert into known_files(mod, sha1, content_fingerprint) values (?, ?, ?) on conflict (sha1) do update set content_fingerprint = coalesce(known_files.content_fingerprint, excluded.content_fingerprint)")) {
+                        for (var knownFile : tracker.knownFiles.entrySet()) {
+                            stmt.setInt(1, modId);
+                            stmt.setString(2, knownFile.getKey());
+                            stmt.setString(3, knownFile.getValue());
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                }
+                if (tracker.indexDate != null) {
+                    try (var stmt = con.prepareStatement("update mods set index_date = ? where id = ?")) {
+                        stmt.setTimestamp(1, Timestamp.from(tracker.indexDate));
+                        stmt.setInt(2, modId);
+                        stmt.execute();
+                    }
+                }
+                if (tracker.replace) {
+                    try (var stmt = con.prepareStatement("update mods set current_generation = ? where id = ?")) {
+                        stmt.setInt(1, generation);
+                        stmt.setInt(2, modId);
+                        stmt.execute();
+                    }
+                }
+                con.commit();
+            } catch (SQLException | RuntimeException exception) {
+                con.rollback();
+                throw exception;
+            }
+        }
+    }
+
+    private static void appendRows(DuckDBConnection con, int modId, int generation, AppendingModTracker tracker) throws SQLException {
+        var classes = tracker.classes;
+        append(con, "class_defs", modId, generation, appender -> {
+            for (var cls : classes) {
+                appender.append(cls.name());
+                appender.append(cls.superClass());
+                appender.endRow();
+            }
+        });
+        append(con, "class_interfaces", modId, generation, appender -> {
+            for (var cls : classes) {
+                for (var itf : cls.interfaces()) {
+                    appender.append(cls.name());
+                    appender.append(itf);
+                    appender.endRow();
+                }
+            }
+        });
+        append(con, "method_defs", modId, generation, appender -> {
+            for (var cls : classes) {
+                for (var method : cls.methods().values()) {
+                    appender.append(cls.name());
+                    appender.append(method.name());
+                    appender.append(method.desc());
+                    appender.append(method.accessLevel());
+                    appender.endRow();
+                }
+            }
+        });
+        append(con, "field_defs", modId, generation, appender -> {
+            for (var cls : classes) {
+                for (var field : cls.fields().values()) {
+                    appender.append(cls.name());
+                    appender.append(field.name());
+                    appender.append(field.desc().getInternalName());
+                    appender.append(field.accessLevel());
+                    appender.endRow();
+                }
+            }
+        });
+        append(con, "annotations", modId, generation, appender -> {
+            for (var cls : classes) {
+                appendAnnotations(appender, cls.name(), null, cls.annotations());
+                for (var method : cls.methods().values()) {
+                    appendAnnotations(appender, cls.name(), method.name() + method.desc(), method.annotations());
+                }
+                for (var field : cls.fields().values()) {
+                    appendAnnotations(appender, cls.name(), field.name(), field.annotations());
+                }
+            }
+        });
+        append(con, "method_references", modId, generation, appender -> {
+            for (var cls : classes) {
+                appendReferences(appender, cls.name(), cls.methodRefs());
+            }
+        });
+        append(con, "field_references", modId, generation, appender -> {
+            for (var cls : classes) {
+                appendReferences(appender, cls.name(), cls.fieldRefs());
+            }
+        });
+        append(con, "tags", modId, generation, appender -> {
+            for (var tag : tracker.tags) {
+                for (var entry : tag.entries()) {
+                    appender.append(tag.name());
+                    appender.append(entry);
+                    appender.append(tag.replace());
+                    appender.endRow();
+                }
+            }
+        });
+        append(con, "enum_extensions", modId, generation, appender -> {
+            for (var extension : tracker.extensions) {
+                appender.append(extension.enumName());
+                appender.append(extension.name());
+                appender.append(extension.constructor());
+                appender.append(Utils.GSON.toJson(extension.parameters()));
+                appender.endRow();
+            }
+        });
+    }
+
+    /**
+     * Append rows to the table in the transaction of the connection. Rows are started with the mod and the generation, and the consumer appends the other columns.
+     */
+    private static void append(DuckDBConnection con, String table, int modId, int generation, ThrowingConsumer<RowAppender, SQLException> rows) throws SQLException {
+        try (var appender = con.createAppender(DuckDBConnection.DEFAULT_SCHEMA, table)) {
+            rows.accept(new RowAppender(appender, modId, generation));
+        }
+    }
+
+    private static void appendAnnotations(RowAppender appender, String cls, @Nullable String member, List<ClassData.AnnotationInfo> annotations) throws SQLException {
+        for (var annotation : annotations) {
+            appender.append(cls);
+            appender.append(member);
+            appender.append(annotation.type().getInternalName());
+            appender.endRow();
+        }
+    }
+
+    private static void appendReferences(RowAppender appender, String cls, Map<ClassData.Reference, Integer> references) throws SQLException {
+        for (var reference : references.entrySet()) {
+            appender.append(cls);
+            appender.append(reference.getKey().owner());
+            appender.append(reference.getKey().name());
+            appender.append(reference.getKey().desc());
+            appender.append(reference.getValue());
+            appender.endRow();
+        }
+    }
+
+    private static int nextGeneration(Connection con) throws SQLException {
+        try (var stmt = con.createStatement(); var rs = stmt.executeQuery("select nextval('mod_generations')")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static int getCurrentGeneration(Connection con, int modId) throws SQLException {
+        try (var stmt = con.prepareStatement("select current_generation from mods where id = ?")) {
+            stmt.setInt(1, modId);
+            try (var rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Override
+    public int reapStaleGenerations(int batchSize) {
+        // Deleting is cheap in a columnar database, so all stale rows are deleted at once
+        return jdbi.withHandle(handle -> {
+            int deleted = 0;
+            for (var table : DATA_TABLES) {
+                deleted += handle.execute("delete from " + table + " using mods where mods.id = " + table + ".mod and " + table + ".generation < mods.current_generation");
+            }
+            return deleted;
+        });
+    }
+
+    @Override
+    public void vacuumAnalyze() {
+        // Deleted rows are only reclaimed when the database is checkpointed
+        jdbi.useHandle(handle -> handle.execute("checkpoint"));
+    }
+
+    @Override
+    public List<SymbolUsage> getTopUsages(SymbolKind kind, int limit) {
+        var query = switch (kind) {
+            case METHOD -> """
+select refs.owner || '.' || refs.name || refs.descriptor, count(distinct refs.mod), sum(refs.count) from method_references refs
+join mods on mods.id = refs.mod and mods.current_generation = refs.generation
+where not mods.loader
+group by refs.owner, refs.name, refs.descriptor
+order by 2 desc limit ?""";
+            case FIELD -> """
+select refs.owner || '.' || refs.name || ':' || refs.descriptor, count(distinct refs.mod), sum(refs.count) from field_references refs
+join mods on mods.id = refs.mod and mods.current_generation = refs.generation
+where not mods.loader
+group by refs.owner, refs.name, refs.descriptor
+order by 2 desc limit ?""";
+            case ANNOTATION -> """
+select annotations.annotation, count(distinct annotations.mod), count(*) from annotations
+join mods on mods.id = annotations.mod and mods.current_generation = annotations.generation
+where not mods.loader
+group by annotations.annotation
+order by 2 desc limit ?""";
+            case TAG -> """
+select tags.tag, count(distinct tags.mod), count(*) from tags
+join mods on mods.id = tags.mod and mods.current_generation = tags.generation
+where not mods.loader
+group by tags.tag
+order by 2 desc limit ?""";
+        };
+        return jdbi.withHandle(handle -> handle.createQuery(query)
+                .bind(0, limit)
+                .map((rs, ctx) -> new SymbolUsage(rs.getString(1), rs.getInt(2), rs.getLong(3)))
+                .list());
+    }
+
+    @Override
+    public Stream<Object[]> streamDataset(ExportDataset dataset) {
+        var columns = dataset.getColumns();
+        var sql = switch (dataset) {
+            case MODS -> "select id, name, version, loader, license, authors, maven_coordinates, curseforge_project_id, modrinth_project_id, index_date from mods";
+            case CLASS_DEFS -> "select cd.mod, cd.name from class_defs cd join mods on mods.id = cd.mod and mods.current_generation = cd.generation";
+            case METHOD_REFERENCES -> """
+select refs.mod, refs.owner, refs.name, refs.descriptor, sum(refs.count)::integer, count(*)::integer from method_references refs
+join mods on mods.id = refs.mod and mods.current_generation = refs.generation
+group by refs.mod, refs.owner, refs.name, refs.descriptor""";
+            case FIELD_REFERENCES -> """
+select refs.mod, refs.owner, refs.name, refs.descriptor, sum(refs.count)::integer, count(*)::integer from field_references refs
+join mods on mods.id = refs.mod and mods.current_generation = refs.generation
+group by refs.mod, refs.owner, refs.name, refs.descriptor""";
+        };
+
+        var handle = jdbi.open();
+        try {
+            return handle.createQuery(sql)
+                    .map((rs, ctx) -> {
+                        var row = new Object[columns.size()];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = columns.get(i).type() == ExportColumn.Type.TIMESTAMP ? rs.getTimestamp(i + 1) : rs.getObject(i + 1);
+                        }
+                        return row;
+                    })
+                    .stream()
+                    .onClose(handle::close);
+        } catch (RuntimeException exception) {
+            handle.close();
+            throw exception;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        connection.close();
+    }
+
+    /**
+     * The expression splitting the comma-separated mod IDs of a mod into a list.
+     */
+    private static final String MOD_IDS = "list_filter(string_split(?, ','), modid -> modid <> '')";
+
+    private static String modIds(ModFileInfo info) {
+        return info.getMods().stream().map(ModInfo::modId).collect(Collectors.joining(","));
+    }
+
+    private static class AppendingModTracker implements ModTracker {
+        private final List<ClassData> classes = new ArrayList<>();
+        private final List<TagFile> tags = new ArrayList<>();
+        private final List<EnumExtension> extensions = new ArrayList<>();
+        private final Map<String, String> knownFiles = new LinkedHashMap<>(1);
+
+        private boolean replace;
+        @Nullable
+        private Instant indexDate;
+        @Nullable
+        private ModFileInfo metadata;
+
+        @Override
+        public void insertClasses(List<ClassData> classes) {
+            this.classes.addAll(classes);
+        }
+
+        @Override
+        public void insertTags(List<TagFile> tags) {
+            this.tags.addAll(tags);
+        }
+
+        @Override
+        public void insertEnumExtensions(List<EnumExtension> extensions) {
+            this.extensions.addAll(extensions);
+        }
+
+        @Override
+        public void deleteCurrent() {
+            replace = true;
+        }
+
+        @Override
+        public void markAsKnown(String fileSha1, @Nullable String contentFingerprint) {
+            knownFiles.put(fileSha1, contentFingerprint);
+        }
+
+        @Override
+        public void setIndexDate(Instant date) {
+            this.indexDate = date;
+        }
+
+        @Override
+        public void setMetadata(ModFileInfo info) {
+            this.metadata = info;
+        }
+    }
+
+    /**
+     * An appender starting each row with the mod and generation the rows belong to.
+     */
+    private static final class RowAppender {
+        private final DuckDBAppender appender;
+        private final int modId, generation;
+        private boolean started;
+
+        private RowAppender(DuckDBAppender appender, int modId, int generation) {
+            this.appender = appender;
+            this.modId = modId;
+            this.generation = generation;
+        }
+
+        void append(@Nullable String value) throws SQLException {
+            start();
+            appender.append(value);
+        }
+
+        void append(int value) throws SQLException {
+            start();
+            appender.append(value);
+        }
+
+        void append(boolean value) throws SQLException {
+            start();
+            appender.append(value);
+        }
+
+        void endRow() throws SQLException {
+            appender.endRow();
+            started = false;
+        }
+
+        private void start() throws SQLException {
+            if (!started) {
+                appender.beginRow();
+                appender.append(modId);
+                appender.append(generation);
+                started = true;
+            }
+        }
+    }
+
+    public class DuckMod implements DatabaseMod<DuckMod> {
+        private final int id;
+        @Nullable
+        private final String mavenCoordinates;
+        private final String version, name;
+        private final boolean loader;
+
+        @Nullable
+        private final Integer cfProjectId;
+        @Nullable
+        private final String modrinthProjectId;
+
+        private DuckMod(ResultSet rs) throws SQLException {
+            this.id = rs.getInt("id");
+            this.mavenCoordinates = rs.getString("maven_coordinates");
+            this.version = rs.getString("version");
+            this.name = rs.getString("name");
+            this.loader = rs.getBoolean("loader");
+
+            var cfProjectId = rs.getInt("curseforge_project_id");
+            this.cfProjectId = rs.wasNull() ? null : cfProjectId;
+            this.modrinthProjectId = rs.getString("modrinth_project_id");
+        }
+
+        @Override
+        public String getVersion() {
+            return version;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public @Nullable String getMavenCoordinate() {
+            return mavenCoordinates;
+        }
+
+        @Override
+        public @Nullable Integer getCurseForgeProjectId() {
+            return cfProjectId;
+        }
+
+        @Override
+        public @Nullable String getModrinthProjectId() {
+            return modrinthProjectId;
+        }
+
+        @Override
+        public Map<String, Object> getPlatformIds() {
+            var map = new HashMap<String, Object>();
+            if (cfProjectId != null) map.put(ModPlatform.CURSEFORGE, cfProjectId);
+            if (modrinthProjectId != null) map.put(ModPlatform.MODRINTH, modrinthProjectId);
+            return map;
+        }
+
+        @Override
+        public boolean isLoader() {
+            return loader;
+        }
+
+        @Override
+        public boolean hasContentFingerprints() {
+            return jdbi.withHandle(handle -> handle.createQuery("select exists (select 1 from known_files where mod = ? and content_fingerprint is not null)")
+                    .bind(0, id)
+                    .mapTo(Boolean.class)
+                    .one());
+        }
+
+        @Override
+        public void updateMetadata(ModFileInfo info) {
+            var meta = info.getMetadata();
+            var authors = info.getMods().stream().map(ModInfo::authors)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.joining("; "));
+
+            jdbi.useHandle(handle -> handle.createUpdate("update mods set version = ?, name = ?, mod_ids = " + MOD_IDS + ", authors = ?, maven_coordinates = ?, license = ? where id = ?")
+                    .bind(0, info.getVersion().toString())
+                    .bind(1, info.getDisplayName())
+                    .bind(2, modIds(info))
+                    .bind(3, authors.isEmpty() ? null : authors)
+                    .bind(4, info.getMavenCoordinates() == null ? mavenCoordinates : info.getMavenCoordinates())
+                    .bind(5, meta == null ? null : meta.license())
+                    .bind(6, id)
+                    .execute());
+        }
+
+        @Override
+        public void link(PlatformModFile platformFile) {
+            jdbi.useHandle(handle -> handle.createUpdate("update mods set " + platformFile.getPlatform().getName() + "_project_id = ? where id = ?")
+                    .bind(0, platformFile.getModId())
+                    .bind(1, id)
+                    .execute());
+        }
+
+        @Override
+        public void link(String mavenCoords) {
+            jdbi.useHandle(handle -> handle.createUpdate("update mods set maven_coordinates = ? where id = ?")
+                    .bind(0, mavenCoords)
+                    .bind(1, id)
+                    .execute());
+        }
+
+        @Override
+        public void transferTo(DuckMod other) {
+            jdbi.useHandle(handle -> transferTo(handle, other));
+        }
+
+        private void transferTo(Handle handle, DuckMod other) {
+            handle.createUpdate("update known_files set mod = ? where mod = ?")
+                    .bind(0, other.id)
+                    .bind(1, id)
+                    .execute();
+        }
+
+        @Override
+        public void delete() {
+            jdbi.useTransaction(this::delete);
+        }
+
+        private void delete(Handle handle) {
+            for (var table : DATA_TABLES) {
+                handle.createUpdate("delete from " + table + " where mod = ?").bind(0, id).execute();
+            }
+            handle.createUpdate("delete from known_files where mod = ?").bind(0, id).execute();
+            handle.createUpdate("delete from mods where id = ?").bind(0, id).execute();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof DuckMod other && other.id == this.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+}
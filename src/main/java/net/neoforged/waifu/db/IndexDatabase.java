@@ -1,6 +1,5 @@
 package net.neoforged.waifu.db;
 
-import com.google.common.collect.Multimap;
 import net.neoforged.waifu.Main;
 import net.neoforged.waifu.meta.ModFileInfo;
 import net.neoforged.waifu.platform.ModPlatform;
@@ -9,9 +8,15 @@ import net.neoforged.waifu.platform.PlatformModFile;
 import net.neoforged.waifu.util.ThrowingConsumer;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface IndexDatabase<T extends IndexDatabase.DatabaseMod<T>> extends AutoCloseable {
     @Nullable
@@ -27,11 +32,45 @@ public interface IndexDatabase<T extends IndexDatabase.DatabaseMod<T>> extends A
 
     List<T> getModsByName(String name);
 
-    Multimap<String, T> getModsByNameAtLeast2();
+    /**
+     * Stream the groups of at least 2 mods with the same name, ordered by name. Only one group is held in memory at a time,
+     * and the stream holds a database connection until it is closed.
+     */
+    Stream<List<T>> streamModsByNameAtLeast2();
+
+    /**
+     * {@return whether the two mods have known files whose contents have the same fingerprint}
+     */
+    boolean haveSameContents(T mod, T other);
+
+    /**
+     * Merge each duplicate into the mod it duplicates at once: the known files and the platform projects of the duplicate
+     * are transferred to the kept mod and the duplicate is deleted.
+     *
+     * @see DatabaseMod#transferTo(DatabaseMod)
+     */
+    void mergeDuplicates(List<Duplicate<T>> duplicates);
 
     @Nullable
     T getModByFileHash(String fileSha1);
 
+    /**
+     * {@return the mods with a known file whose contents have the given fingerprint}
+     *
+     * @see net.neoforged.waifu.util.Utils#computeContentFingerprint(java.io.InputStream)
+     */
+    List<T> getModsByContentFingerprint(String contentFingerprint);
+
+    /**
+     * Store the content fingerprint of the known file if it has none, which is the case of the files stored before fingerprints were computed.
+     */
+    void backfillContentFingerprint(String fileSha1, String contentFingerprint);
+
+    /**
+     * {@return the mods with any of the given files}
+     */
+    List<T> getModsByFileHashes(Collection<String> fileSha1s);
+
     T createMod(ModFileInfo modInfo);
 
     @Nullable
@@ -44,8 +83,296 @@ public interface IndexDatabase<T extends IndexDatabase.DatabaseMod<T>> extends A
 
     void markKnownById(PlatformModFile file, Instant latestProjectFileDate);
 
+    /**
+     * Mark all the given platform files as known at once.
+     *
+     * @see #markKnownById(PlatformModFile, Instant)
+     */
+    default void markKnownByIds(Map<PlatformModFile, Instant> latestProjectFileDates) {
+        latestProjectFileDates.forEach(this::markKnownById);
+    }
+
+    /**
+     * Pass the SHA1 of every known file to the consumer.
+     *
+     * @return {@code false} if this database cannot enumerate its known files
+     * @see KnownFilesIndex
+     */
+    default boolean forEachKnownFile(Consumer<String> consumer) {
+        return false;
+    }
+
+    /**
+     * Pass the ID of every known file of the platform to the consumer.
+     *
+     * @return {@code false} if this database cannot enumerate its known platform files
+     * @see KnownFilesIndex
+     */
+    default boolean forEachKnownFileId(ModPlatform platform, Consumer<Object> consumer) {
+        return false;
+    }
+
     <E extends Exception> void trackMod(T mod, ThrowingConsumer<ModTracker, E> consumer) throws E;
 
+    /**
+     * {@return the granularity member references are stored with}
+     */
+    default ReferenceGranularity getReferenceGranularity() {
+        return ReferenceGranularity.CLASS;
+    }
+
+    /**
+     * {@return whether member references can be stored with the given granularity}
+     */
+    default boolean supportsReferenceGranularity(ReferenceGranularity granularity) {
+        return granularity == ReferenceGranularity.CLASS;
+    }
+
+    /**
+     * Change the granularity member references of newly stored mods are stored with. Mods that are already stored keep their granularity until they're stored again.
+     *
+     * @throws UnsupportedOperationException if the granularity is not {@link #supportsReferenceGranularity(ReferenceGranularity) supported}
+     */
+    default void setReferenceGranularity(ReferenceGranularity granularity) {
+        if (!supportsReferenceGranularity(granularity)) {
+            throw new UnsupportedOperationException("This database does not support storing references with the " + granularity.name().toLowerCase(Locale.ROOT) + " granularity");
+        }
+    }
+
+    /**
+     * Replay the writes that were journaled while the database was unavailable, if it is available again.
+     */
+    default void replayJournal() {}
+
+    /**
+     * Start loading data in bulk if the database is empty, deferring the maintenance of secondary indexes until the returned handle is closed.
+     *
+     * @return a handle finishing the bulk load when closed, or {@code null} if the database is not empty
+     */
+    @Nullable
+    default BulkLoad beginBulkLoad() {
+        return null;
+    }
+
+    /**
+     * Write a snapshot of the data of this database to the file, which another (empty) database can be restored from much faster than by indexing the mods again.
+     */
+    default void exportSnapshot(Path file) throws IOException {
+        throw new UnsupportedOperationException("This database does not support snapshots");
+    }
+
+    /**
+     * Restore the snapshot written by {@link #exportSnapshot(Path)} into this database, which must not have any mod.
+     */
+    default void importSnapshot(Path file) throws IOException {
+        throw new UnsupportedOperationException("This database does not support snapshots");
+    }
+
+    /**
+     * Delete at most {@code batchSize} rows of each kind belonging to generations of mods that have been superseded.
+     *
+     * @return the amount of deleted rows
+     */
+    default int reapStaleGenerations(int batchSize) {
+        return 0;
+    }
+
+    /**
+     * Delete dictionary entries (classes, constants, members...) which are no longer referenced, looking at a window of at most {@code batchSize} entries at a time.
+     *
+     * @return {@code true} if the current sweep over the dictionaries is not finished yet
+     */
+    default boolean reclaimOrphanedSymbols(int batchSize) {
+        return false;
+    }
+
+    /**
+     * Vacuum and analyze the tables that have accumulated enough changes since they were last vacuumed.
+     */
+    default void vacuumAnalyze() {}
+
+    /**
+     * Recompute the distinct metadata facet values (mod IDs, authors, licenses...) suggested by the dashboard filters, if the metadata of any mod changed.
+     */
+    default void refreshFacetValues() {}
+
+    /**
+     * Refresh the data derived from the mods stored since the last refresh (like the ancestors and overrides of the classes descending from re-stored classes, the resolved tags and the dependency graph), which stores only queue so that they don't contend on it.
+     */
+    default void refreshDerivedData() {}
+
+    default List<TableStats> getTableStats() {
+        return List.of();
+    }
+
+    /**
+     * {@return at most {@code limit} changes of the mods following the change with the given offset, in the order they were committed in}
+     */
+    default List<IndexChange> getChanges(long after, int limit) {
+        return List.of();
+    }
+
+    /**
+     * {@return the {@code limit} symbols of the given kind used by the most (non-loader) mods}
+     */
+    default List<SymbolUsage> getTopUsages(SymbolKind kind, int limit) {
+        return List.of();
+    }
+
+    /**
+     * {@return the usage of the symbol by the (non-loader) mods, or {@code null} if no mod uses it}
+     *
+     * @param symbol the name of the symbol, in the format of {@link SymbolUsage#symbol()}
+     */
+    @Nullable
+    default SymbolUsage getUsage(SymbolKind kind, String symbol) {
+        return null;
+    }
+
+    /**
+     * Like {@link #getTopUsages(SymbolKind, int)}, but estimated from the sketches merged by {@link #mergeSketches()}, which is much cheaper
+     * but lags behind the stores. Databases without sketches compute the usages exactly.
+     */
+    default List<SymbolUsage> estimateTopUsages(SymbolKind kind, int limit) {
+        return getTopUsages(kind, limit);
+    }
+
+    /**
+     * Like {@link #getUsage(SymbolKind, String)}, but estimated from the sketches merged by {@link #mergeSketches()}.
+     * Databases without sketches compute the usage exactly.
+     */
+    @Nullable
+    default SymbolUsage estimateUsage(SymbolKind kind, String symbol) {
+        return getUsage(kind, symbol);
+    }
+
+    /**
+     * Merge the usage sketches of the mods stored since the last merge into the sketches of the whole version, which {@link #estimateTopUsages(SymbolKind, int)}
+     * and {@link #estimateUsage(SymbolKind, String)} are answered from.
+     */
+    default void mergeSketches() {}
+
+    /**
+     * Stream the rows of the current data of the dataset, with their values in the order of the columns of the dataset.
+     * The rows are fetched in batches, and the stream holds a database connection until it is closed.
+     */
+    default Stream<Object[]> streamDataset(ExportDataset dataset) {
+        throw new UnsupportedOperationException("This database does not support exporting datasets");
+    }
+
+    interface BulkLoad extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    enum ReferenceGranularity {
+        /**
+         * Store the references of each class of a mod.
+         */
+        CLASS,
+        /**
+         * Roll up the references of all the classes of a mod, storing only the total amount of references and of referencing classes.
+         */
+        MOD,
+        /**
+         * Store the references of each class of a mod as packed arrays of member ids on the class itself.
+         */
+        PACKED
+    }
+
+    record TableStats(String table, long liveRows, long deadRows, long totalBytes) {}
+
+    record Duplicate<T extends DatabaseMod<T>>(T duplicate, T kept) {}
+
+    enum ChangeKind {
+        /**
+         * Data was added to the visible generation of the mod.
+         */
+        STORE,
+        /**
+         * A new generation of the mod replaced the visible one.
+         */
+        REPLACE,
+        /**
+         * The mod was linked to a platform project or maven coordinates.
+         */
+        LINK,
+        /**
+         * The known files of the mod were transferred to another mod.
+         */
+        TRANSFER,
+        METADATA,
+        DELETE
+    }
+
+    /**
+     * @param offset  the offset of the change in the feed, which the next changes can be requested from
+     * @param symbols the names of the classes defined by the changed generations of the mod, or {@code null} if they're unknown
+     * @param target  the mod the known files were transferred to
+     */
+    record IndexChange(long offset, int mod, @Nullable Integer generation, ChangeKind kind, @Nullable List<String> symbols, @Nullable Integer target, Instant date) {}
+
+    /**
+     * The datasets of a database which can be exported for offline analysis, with symbols resolved to their names.
+     */
+    enum ExportDataset {
+        MODS(
+                new ExportColumn("id", ExportColumn.Type.INT), new ExportColumn("name", ExportColumn.Type.STRING), new ExportColumn("version", ExportColumn.Type.STRING),
+                new ExportColumn("is_loader", ExportColumn.Type.BOOLEAN), new ExportColumn("license", ExportColumn.Type.STRING), new ExportColumn("authors", ExportColumn.Type.STRING),
+                new ExportColumn("maven_coordinates", ExportColumn.Type.STRING), new ExportColumn("curseforge_project_id", ExportColumn.Type.INT),
+                new ExportColumn("modrinth_project_id", ExportColumn.Type.STRING), new ExportColumn("index_date", ExportColumn.Type.TIMESTAMP)
+        ),
+        CLASS_DEFS(
+                new ExportColumn("mod", ExportColumn.Type.INT), new ExportColumn("class", ExportColumn.Type.SYMBOL)
+        ),
+        METHOD_REFERENCES(
+                new ExportColumn("mod", ExportColumn.Type.INT), new ExportColumn("owner", ExportColumn.Type.SYMBOL), new ExportColumn("name", ExportColumn.Type.SYMBOL),
+                new ExportColumn("descriptor", ExportColumn.Type.SYMBOL), new ExportColumn("count", ExportColumn.Type.INT), new ExportColumn("classes", ExportColumn.Type.INT)
+        ),
+        FIELD_REFERENCES(
+                new ExportColumn("mod", ExportColumn.Type.INT), new ExportColumn("owner", ExportColumn.Type.SYMBOL), new ExportColumn("name", ExportColumn.Type.SYMBOL),
+                new ExportColumn("descriptor", ExportColumn.Type.SYMBOL), new ExportColumn("count", ExportColumn.Type.INT), new ExportColumn("classes", ExportColumn.Type.INT)
+        );
+
+        private final List<ExportColumn> columns;
+
+        ExportDataset(ExportColumn... columns) {
+            this.columns = List.of(columns);
+        }
+
+        public List<ExportColumn> getColumns() {
+            return columns;
+        }
+    }
+
+    record ExportColumn(String name, Type type) {
+        enum Type {
+            INT,
+            LONG,
+            BOOLEAN,
+            STRING,
+            /**
+             * A string repeated across many rows, such as a class or member name.
+             */
+            SYMBOL,
+            TIMESTAMP
+        }
+    }
+
+    enum SymbolKind {
+        METHOD,
+        FIELD,
+        ANNOTATION,
+        TAG
+    }
+
+    /**
+     * @param symbol the name of the symbol: {@code owner.name(descriptor)} for methods, {@code owner.name:descriptor} for fields,
+     *               the internal name of the type for annotations and the name of the tag for tags
+     * @param count  the amount of references for members, of annotated elements for annotations and of entries for tags
+     */
+    record SymbolUsage(String symbol, int mods, long count) {}
+
     interface ModTracker {
         void insertClasses(List<ClassData> classes);
 
@@ -53,11 +380,25 @@ public interface IndexDatabase<T extends IndexDatabase.DatabaseMod<T>> extends A
 
         void insertEnumExtensions(List<EnumExtension> extensions);
 
+        /**
+         * Replace the currently stored data of the mod with the data inserted afterwards.
+         * The old data stays visible until the tracker finishes and is then deleted in the background.
+         */
         void deleteCurrent();
 
-        void markAsKnown(String fileSha1);
+        /**
+         * Mark the file as known, so that it isn't indexed again.
+         *
+         * @param contentFingerprint the fingerprint of the contents of the file, if it was computed
+         */
+        void markAsKnown(String fileSha1, @Nullable String contentFingerprint);
 
         void setIndexDate(Instant date);
+
+        /**
+         * Update the metadata of the mod from the file, together with its data.
+         */
+        void setMetadata(ModFileInfo info);
     }
 
     interface DatabaseMod<T extends DatabaseMod<T>> {
@@ -83,6 +424,11 @@ public interface IndexDatabase<T extends IndexDatabase.DatabaseMod<T>> extends A
 
         boolean isLoader();
 
+        /**
+         * {@return whether any known file of the mod has a content fingerprint}
+         */
+        boolean hasContentFingerprints();
+
         void updateMetadata(ModFileInfo info);
 
         void link(PlatformModFile platformFile);
@@ -0,0 +1,170 @@
+package net.neoforged.waifu.db;
+
+import com.google.common.hash.Hashing;
+import net.neoforged.waifu.platform.ModPlatform;
+import net.neoforged.waifu.platform.PlatformModFile;
+import net.neoforged.waifu.util.LongHashSet;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of the files and platform files known to a database, loaded at the start of an index run so that
+ * deciding which files are new doesn't cost a query per file.
+ * <p>
+ * Files are indexed by a 64-bit hash of their SHA1 or of their platform file ID. A miss is therefore definitive, while a hit
+ * is confirmed against the database. Platform files marked as known are written back in batches.
+ */
+public final class KnownFilesIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KnownFilesIndex.class);
+
+    private static final int FLUSH_SIZE = 500;
+
+    private final IndexDatabase<?> db;
+    @Nullable
+    private final LongHashSet files, fileIds;
+
+    private Map<Long, PendingFile> pending = new HashMap<>();
+
+    private KnownFilesIndex(IndexDatabase<?> db, @Nullable LongHashSet files, @Nullable LongHashSet fileIds) {
+        this.db = db;
+        this.files = files;
+        this.fileIds = fileIds;
+    }
+
+    /**
+     * Load the files and the platform files of the given platforms known to the database.
+     * If the database cannot enumerate them the returned index delegates every lookup to the database.
+     */
+    public static KnownFilesIndex load(IndexDatabase<?> db, List<ModPlatform> platforms) {
+        try {
+            var files = new LongHashSet(1024);
+            if (!db.forEachKnownFile(sha1 -> files.add(fileKey(sha1)))) {
+                return direct(db);
+            }
+
+            var fileIds = new LongHashSet(1024);
+            for (var platform : platforms) {
+                if (!db.forEachKnownFileId(platform, id -> fileIds.add(fileIdKey(platform, id)))) {
+                    return new KnownFilesIndex(db, files, null);
+                }
+            }
+
+            return new KnownFilesIndex(db, files, fileIds);
+        } catch (RuntimeException exception) {
+            LOGGER.warn("Failed to load the known files, falling back to looking them up one by one: ", exception);
+            return direct(db);
+        }
+    }
+
+    /**
+     * {@return an index delegating every lookup and write to the database}
+     */
+    public static KnownFilesIndex direct(IndexDatabase<?> db) {
+        return new KnownFilesIndex(db, null, null);
+    }
+
+    /**
+     * {@return {@code false} if the file with the given SHA1 is definitely not known, {@code true} if it may be}
+     */
+    public synchronized boolean mayBeKnown(String fileSha1) {
+        return files == null || files.contains(fileKey(fileSha1));
+    }
+
+    /**
+     * Remember that the file with the given SHA1 was stored in this run.
+     */
+    public synchronized void markKnown(String fileSha1) {
+        if (files != null) {
+            files.add(fileKey(fileSha1));
+        }
+    }
+
+    /**
+     * @see IndexDatabase#getKnownLatestProjectFileDate(PlatformModFile)
+     */
+    @Nullable
+    public Instant getKnownLatestProjectFileDate(PlatformModFile file) {
+        if (fileIds != null) {
+            var key = fileIdKey(file.getPlatform(), file.getId());
+            synchronized (this) {
+                var pendingFile = pending.get(key);
+                if (pendingFile != null && isSameFile(pendingFile.file(), file)) {
+                    return pendingFile.latestProjectFileDate();
+                }
+                if (!fileIds.contains(key)) {
+                    return null;
+                }
+            }
+        }
+
+        return db.getKnownLatestProjectFileDate(file);
+    }
+
+    /**
+     * Mark the platform file as known, writing it to the database with the next batch.
+     *
+     * @see IndexDatabase#markKnownById(PlatformModFile, Instant)
+     */
+    public void markKnownById(PlatformModFile file, Instant latestProjectFileDate) {
+        if (fileIds == null) {
+            db.markKnownById(file, latestProjectFileDate);
+            return;
+        }
+
+        synchronized (this) {
+            var key = fileIdKey(file.getPlatform(), file.getId());
+            // Like the database, keep the first date a file is marked with
+            if (!fileIds.add(key) && !pending.containsKey(key)) return;
+            pending.putIfAbsent(key, new PendingFile(file, latestProjectFileDate));
+            if (pending.size() < FLUSH_SIZE) return;
+        }
+
+        flush();
+    }
+
+    /**
+     * Write the platform files marked as known since the last flush to the database.
+     */
+    public void flush() {
+        Map<Long, PendingFile> toWrite;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            toWrite = pending;
+            pending = new HashMap<>();
+        }
+
+        var dates = new LinkedHashMap<PlatformModFile, Instant>(toWrite.size());
+        toWrite.values().forEach(file -> dates.put(file.file(), file.latestProjectFileDate()));
+        try {
+            db.markKnownByIds(dates);
+        } catch (RuntimeException exception) {
+            // Keep the files so that they're written with the next batch
+            synchronized (this) {
+                toWrite.forEach(pending::putIfAbsent);
+            }
+            throw exception;
+        }
+    }
+
+    private static boolean isSameFile(PlatformModFile a, PlatformModFile b) {
+        return a.getPlatform() == b.getPlatform() && a.getId().equals(b.getId());
+    }
+
+    private static long fileKey(String sha1) {
+        return Hashing.murmur3_128().hashString(sha1, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static long fileIdKey(ModPlatform platform, Object id) {
+        return Hashing.murmur3_128().hashString(platform.getName() + "/" + id, StandardCharsets.UTF_8).asLong();
+    }
+
+    private record PendingFile(PlatformModFile file, Instant latestProjectFileDate) {}
+}
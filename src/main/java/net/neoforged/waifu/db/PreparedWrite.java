@@ -0,0 +1,182 @@
+package net.neoforged.waifu.db;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All the rows of a mod store, already serialized in the form the insert functions expect, so that they can be written to the {@link WriteJournal}
+ * if the database is not available.
+ * <p>
+ * The content fingerprints of the known files are stored at the same positions as their SHA1.
+ * The metadata of the mod is written with its data so that a journaled write never marks a file as known without its metadata.
+ * The usage counts are the serialized {@link net.neoforged.waifu.util.CountMinSketch} of the usages of the symbols by the written data.
+ */
+record PreparedWrite(
+        int modId, boolean replace,
+        List<ClassRow> classes, boolean packedReferences, @Nullable String modReferences, List<TagFile> tags, List<EnumExtensionRow> enumExtensions,
+        List<String> knownFiles, @Nullable Instant indexDate, List<@Nullable String> knownFileFingerprints,
+        @Nullable MetadataRow metadata, byte[] usageCounts
+) {
+    record ClassRow(String name, @Nullable String superClass, String[] interfaces, String annotations, String fields, String methods, String refs) {}
+
+    record EnumExtensionRow(String enumName, String name, String constructor, String parameters) {}
+
+    record MetadataRow(
+            String version, String name, List<String> modIds, @Nullable String authors, @Nullable String nestedTree, @Nullable String mavenCoordinates,
+            @Nullable String license, @Nullable String modsToml, @Nullable String modsTomlJson, String manifest
+    ) {}
+
+    byte[] encode() {
+        var bos = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bos)) {
+            out.writeInt(modId);
+            out.writeBoolean(replace);
+
+            out.writeInt(classes.size());
+            for (var cls : classes) {
+                writeString(out, cls.name());
+                writeString(out, cls.superClass());
+                writeStrings(out, List.of(cls.interfaces()));
+                writeString(out, cls.annotations());
+                writeString(out, cls.fields());
+                writeString(out, cls.methods());
+                writeString(out, cls.refs());
+            }
+            out.writeBoolean(packedReferences);
+            writeString(out, modReferences);
+
+            out.writeInt(tags.size());
+            for (var tag : tags) {
+                writeString(out, tag.name());
+                out.writeBoolean(tag.replace());
+                writeStrings(out, tag.entries());
+            }
+
+            out.writeInt(enumExtensions.size());
+            for (var ext : enumExtensions) {
+                writeString(out, ext.enumName());
+                writeString(out, ext.name());
+                writeString(out, ext.constructor());
+                writeString(out, ext.parameters());
+            }
+
+            writeStrings(out, knownFiles);
+            out.writeLong(indexDate == null ? Long.MIN_VALUE : indexDate.toEpochMilli());
+
+            writeStrings(out, knownFileFingerprints);
+
+            out.writeBoolean(metadata != null);
+            if (metadata != null) {
+                writeString(out, metadata.version());
+                writeString(out, metadata.name());
+                writeStrings(out, metadata.modIds());
+                writeString(out, metadata.authors());
+                writeString(out, metadata.nestedTree());
+                writeString(out, metadata.mavenCoordinates());
+                writeString(out, metadata.license());
+                writeString(out, metadata.modsToml());
+                writeString(out, metadata.modsTomlJson());
+                writeString(out, metadata.manifest());
+            }
+
+            out.writeInt(usageCounts.length);
+            out.write(usageCounts);
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+        return bos.toByteArray();
+    }
+
+    static PreparedWrite decode(byte[] bytes) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(bytes));
+        var modId = in.readInt();
+        var replace = in.readBoolean();
+
+        int size = in.readInt();
+        var classes = new ArrayList<ClassRow>(size);
+        for (int i = 0; i < size; i++) {
+            classes.add(new ClassRow(
+                    readString(in), readString(in), readStrings(in).toArray(String[]::new),
+                    readString(in), readString(in), readString(in), readString(in)
+            ));
+        }
+        var packedReferences = in.readBoolean();
+        var modReferences = readString(in);
+
+        size = in.readInt();
+        var tags = new ArrayList<TagFile>(size);
+        for (int i = 0; i < size; i++) {
+            tags.add(new TagFile(readString(in), in.readBoolean(), readStrings(in)));
+        }
+
+        size = in.readInt();
+        var extensions = new ArrayList<EnumExtensionRow>(size);
+        for (int i = 0; i < size; i++) {
+            extensions.add(new EnumExtensionRow(readString(in), readString(in), readString(in), readString(in)));
+        }
+
+        var knownFiles = readStrings(in);
+        var indexDate = in.readLong();
+        var knownFileFingerprints = readStrings(in);
+
+        MetadataRow metadata = null;
+        if (in.readBoolean()) {
+            metadata = new MetadataRow(
+                    readString(in), readString(in), readStrings(in), readString(in), readString(in), readString(in),
+                    readString(in), readString(in), readString(in), readString(in)
+            );
+        }
+
+        var usageCounts = new byte[in.readInt()];
+        in.readFully(usageCounts);
+
+        return new PreparedWrite(modId, replace, classes, packedReferences, modReferences, tags, extensions, knownFiles, indexDate == Long.MIN_VALUE ? null : Instant.ofEpochMilli(indexDate), knownFileFingerprints, metadata, usageCounts);
+    }
+
+    // DataOutput#writeUTF is limited to 64KiB which is not enough for the JSON of big classes
+    private static void writeString(DataOutput out, @Nullable String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            var bytes = str.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @Nullable
+    private static String readString(DataInput in) throws IOException {
+        var length = in.readInt();
+        if (length < 0) return null;
+        var bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutput out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (var str : strings) {
+            writeString(out, str);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        var size = in.readInt();
+        var list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(readString(in));
+        }
+        return list;
+    }
+}
@@ -1,10 +1,12 @@
 package net.neoforged.waifu.db;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.HashingOutputStream;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 import net.neoforged.waifu.Main;
 import net.neoforged.waifu.meta.ModFileInfo;
@@ -12,6 +14,9 @@ import net.neoforged.waifu.meta.ModInfo;
 import net.neoforged.waifu.platform.ModPlatform;
 import net.neoforged.waifu.platform.PlatformMod;
 import net.neoforged.waifu.platform.PlatformModFile;
+import net.neoforged.waifu.util.CountMinSketch;
+import net.neoforged.waifu.util.GroupingIterator;
+import net.neoforged.waifu.util.HyperLogLog;
 import net.neoforged.waifu.util.ThrowingConsumer;
 import net.neoforged.waifu.util.Utils;
 import org.flywaydb.core.Flyway;
@@ -19,37 +24,159 @@ import org.flywaydb.core.api.callback.Callback;
 import org.flywaydb.core.api.callback.Context;
 import org.flywaydb.core.api.callback.Event;
 import org.jdbi.v3.core.ConnectionFactory;
+import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.result.ResultProducer;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
 import org.jdbi.v3.postgres.PostgresPlugin;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Array;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.Function;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class SQLDatabase implements IndexDatabase<SQLDatabase.SqlMod> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SQLDatabase.class);
+
+    /**
+     * The symbol dictionaries, in the order they should be reclaimed in, together with all the columns referencing them.
+     * Columns suffixed with {@code []} are arrays of ids.
+     */
+    private static final List<Dictionary> DICTIONARIES = List.of(
+            new Dictionary("methods", List.of("method_defs.type", "method_overrides.overridden", "method_usage_totals.reference", "method_references.reference", "mod_method_references.reference", "class_defs.method_refs[]")),
+            new Dictionary("fields", List.of("field_defs.type", "field_usage_totals.reference", "field_references.reference", "mod_field_references.reference", "class_defs.field_refs[]")),
+            new Dictionary("classes", List.of(
+                    "methods.cls", "fields.cls", "fields.descriptor", "class_defs.type", "class_parents.parent", "class_ancestors.ancestor", "class_references.reference",
+                    "class_annotations.annotation", "method_annotations.annotation", "field_annotations.annotation", "enum_extensions.enum",
+                    "mixin_targets.target", "mixin_injections.injector", "event_subscribers.event", "annotation_usage_totals.annotation"
+            )),
+            new Dictionary("constants", List.of(
+                    "methods.name", "methods.descriptor", "fields.name", "tags.tag", "tags.entry", "enum_extensions.name", "enum_extensions.constructor",
+                    "mixin_injections.target", "mixin_injections.at_target", "resolved_tags.tag", "resolved_tags.entry", "resolved_tags.via",
+                    "tag_usage_totals.tag"
+            )),
+            new Dictionary("json_constants", List.of("class_annotations.value", "method_annotations.value", "field_annotations.value"))
+    );
+
+    /**
+     * Tables whose indexes are kept while bulk loading as they're small and used to look up mods.
+     */
+    private static final List<String> BULK_LOAD_KEPT_TABLES = List.of("mods", "mod_facets", "known_files", "known_curseforge_file_ids", "known_modrinth_file_ids");
+    /**
+     * Indexes which are kept while bulk loading as deleting a mod (when merging duplicates) looks up and cascades over the rows of the mod through them.
+     * The tables derived from the others are not maintained while bulk loading, so the cascades into them don't need their indexes.
+     */
+    private static final List<String> BULK_LOAD_KEPT_INDEXES = List.of(
+            "idx_class_defs", "idx_tags_by_mod", "idx_enum_extensions_by_mod", "idx_mod_method_references_by_mod", "idx_mod_field_references_by_mod",
+            "idx_method_defs_by_owner", "idx_field_defs_by_owner", "idx_method_references_by_owner", "idx_field_references_by_owner",
+            "idx_class_annotations_by_owner", "idx_method_annotations_by_owner", "idx_field_annotations_by_owner"
+    );
+    private static final int BULK_LOAD_PARALLELISM = 4;
+    /**
+     * Tables which are not part of snapshots: the tables derived from the others, which are rebuilt after restoring a snapshot, and the bookkeeping of the schema itself.
+     */
+    private static final List<String> SNAPSHOT_EXCLUDED_TABLES = List.of(
+            "class_ancestors", "class_descendants_pending", "method_overrides", "mixin_targets", "mixin_injections", "event_subscribers", "resolved_tags", "resolved_tags_pending", "mod_dependencies", "mod_dependencies_pending",
+            "method_usage_totals", "field_usage_totals", "annotation_usage_totals", "tag_usage_totals", "symbol_sketches", "usage_counts_sketch",
+            "flyway_schema_history", "bulk_load_pending", "waifu_versions"
+    );
+    /**
+     * How many times a write which lost a deadlock or a serialization conflict against a concurrent write is attempted before it is journaled.
+     */
+    private static final int MAX_CONFLICT_ATTEMPTS = 5;
+    /**
+     * The minimum delay between two attempts to replay the journal triggered by writes, while the database is unavailable.
+     */
+    private static final long REPLAY_ATTEMPT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    /**
+     * The amount of rows fetched at a time when enumerating big tables.
+     */
+    private static final int FETCH_SIZE = 10_000;
+    /**
+     * The maximum amount of member ids cached per kind of member, see {@link SymbolCache}.
+     */
+    private static final int SYMBOL_CACHE_SIZE = 100_000;
+    /**
+     * The servers whose shared schema was migrated by this process, see {@link #migrateSharedSchema()}.
+     */
+    private static final Set<String> MIGRATED_SHARED_SCHEMAS = new HashSet<>();
+    /**
+     * The precision of the HyperLogLog sketches of the mods using each symbol, for a standard error of about 3%.
+     */
+    private static final int SKETCH_PRECISION = 10;
+    /**
+     * The dimensions of the count-min sketches of the usages, overestimating a count by at most 0.15% of the total usages with a probability of 98%.
+     */
+    private static final int SKETCH_DEPTH = 4, SKETCH_WIDTH = 2048;
+
     private final Jdbi jdbi;
     private final String url, username, password;
     private final ConnectionFactory connectionFactory;
+    @Nullable
+    private final WriteJournal journal;
+
+    private final Map<String, Integer> dictionaryCursors = new ConcurrentHashMap<>();
+    private final ModCache modCache = new ModCache();
+    private final SymbolCache symbolCache = new SymbolCache();
 
-    public SQLDatabase(String url, String username, String password) {
+    private volatile boolean bulkLoading;
+    private volatile long nextReplayAttempt = System.nanoTime();
+    private volatile ReferenceGranularity referenceGranularity = ReferenceGranularity.CLASS;
+    // Start dirty so that the facet values are refreshed after facets were changed by a previous run
+    private volatile boolean facetsChanged = true;
+    // Start dirty so that the sketches are merged after mods were stored by a previous run
+    private volatile boolean sketchesChanged = true;
+
+    public SQLDatabase(String url, String username, String password, @Nullable Path journalDirectory) {
         this.url = url;
         this.username = username;
         this.password = password;
@@ -58,9 +185,40 @@ public class SQLDatabase implements IndexDatabase<SQLDatabase.SqlMod> {
 
         jdbi.installPlugin(new SqlObjectPlugin());
         jdbi.installPlugin(new PostgresPlugin());
+
+        try {
+            this.journal = journalDirectory == null ? null : new WriteJournal(journalDirectory);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Migrate the schema shared by the version schemas of the server ({@code waifu_shared}), which has its own migrations and history table
+     * so that it's created once instead of by the migration of every version schema, which would race when several schemas are migrated at once.
+     */
+    private void migrateSharedSchema() {
+        var server = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+        synchronized (MIGRATED_SHARED_SCHEMAS) {
+            if (MIGRATED_SHARED_SCHEMAS.contains(server)) return;
+
+            Flyway.configure()
+                    .locations("classpath:shareddb/migration")
+                    .dataSource(url, username, password)
+                    .schemas("waifu_shared")
+                    .createSchemas(true)
+                    // The shared schema may have been created by an older migration of the version schemas
+                    .baselineOnMigrate(true)
+                    .baselineVersion("0")
+                    .load()
+                    .migrate();
+            MIGRATED_SHARED_SCHEMAS.add(server);
+        }
     }
 
     public void runFlyway() {
+        migrateSharedSchema();
+
         Flyway.configure()
                 .locations("classpath:indexdb/migration")
                 .dataSource(url, username, password)
@@ -104,7 +262,7 @@ public class SQLDatabase implements IndexDatabase<SQLDatabase.SqlMod> {
                                     batch.executeBatch();
                                 }
 
-                                Main.LOGGER.info("Migrated {} mods from text mods.toml to json mods.toml", byId.size());
+                                LOGGER.info("Migrated {} mods from text mods.toml to json mods.toml", byId.size());
                             } catch (Exception e) {
                                 throw new RuntimeException(e);
                             }
@@ -119,6 +277,23 @@ public class SQLDatabase implements IndexDatabase<SQLDatabase.SqlMod> {
                 .load()
                 .migrate();
 
+        var pendingBulkLoad = jdbi.withHandle(handle -> handle.createQuery("select exists (select 1 from bulk_load_pending)")
+                .mapTo(Boolean.class)
+                .one());
+        if (pendingBulkLoad) {
+            LOGGER.warn("Found indexes dropped by an interrupted bulk load, rebuilding them");
+            finishBulkLoad();
+        }
+
+        getReferenceGranularity();
+
+        // The consolidated views only exist for convenience, so failing to refresh them must not prevent indexing
+        try {
+            jdbi.useHandle(handle -> handle.execute("select waifu_shared.refresh_consolidated_views()"));
+        } catch (Exception exception) {
+            LOGGER.warn("Failed to refresh the consolidated cross-version views: ", exception);
+        }
+
         if (Utils.VERSION != null) {
             jdbi.useHandle(handle -> handle.createUpdate("insert into waifu_versions(version, date_installed) values (?, ?) on conflict do nothing")
                     .bind(0, Utils.VERSION)
@@ -131,18 +306,18 @@ public class SQLDatabase implements IndexDatabase<SQLDatabase.SqlMod> {
 
     @Override
     public @Nullable SQLDatabase.SqlMod getMod(PlatformModFile file) {
-        return jdbi.withHandle(handle ->
+        return modCache.lookupOne(file.getPlatform().getName() + ":" + file.getModId(), () -> jdbi.withHandle(handle ->
                 handle.createQuery("select * from mods where " + file.getPlatform().getName() + "_project_id = ?")
                         .bind(0, file.getModId())
-                        .execute(returning(SqlMod::new)));
+                        .execute(returningListOf(SqlMod::new))));
     }
 
     @Override
     public @Nullable SQLDatabase.SqlMod getMod(PlatformMod mod) {
-        return jdbi.withHandle(handle ->
+        return modCache.lookupOne(mod.getPlatform().getName() + ":" + mod.getId(), () -> jdbi.withHandle(handle ->
                 handle.createQuery("select * from mods where " + mod.getPlatform().getName() + "_project_id = ?")
                         .bind(0, mod.getId())
-                        .execute(returning(SqlMod::new)));
+                        .execute(returningListOf(SqlMod::new))));
     }
 
     @Override
@@ -156,34 +331,73 @@ public class SQLDatabase implements IndexDatabase<SQLDatabase.SqlMod> {
 
     @Override
     public @Nullable SQLDatabase.SqlMod getModByCoordinates(String coords) {
-        return jdbi.withHandle(handle ->
+        return modCache.lookupOne("maven:" + coords, () -> jdbi.withHandle(handle ->
                 handle.createQuery("select * from mods where maven_coordinates = ?")
                         .bind(0, coords)
-                        .execute(returning(SqlMod::new)));
+                        .execute(returningListOf(SqlMod::new))));
     }
 
     @Override
     public List<SqlMod> getModsByName(String name) {
-        return jdbi.withHandle(handle ->
+        return modCache.lookup("name:" + name, () -> jdbi.withHandle(handle ->
                 handle.createQuery("select * from mods where name = ?")
                         .bind(0, name)
-                        .execute(returningListOf(SqlMod::new)));
+                        .execute(returningListOf(SqlMod::new))));
     }
 
     @Override
-    public Multimap<String, SqlMod> getModsByNameAtLeast2() {
-        return jdbi.withHandle(handle ->
-                handle.createQuery("""
-with bycount as (select count(mods.id), mods.name from mods group by mods.name order by count desc)
-select mods.* from bycount
-join mods on mods.name = bycount.name
-where bycount.count >= 2
-order by mods.name;""")
-                        .execute(map(returningListOf(SqlMod::new), sqlMods -> {
-                            var map = Multimaps.<String, SqlMod>newListMultimap(new HashMap<>(), () -> new ArrayList<>(2));
-                            sqlMods.forEach(mod -> map.put(mod.getName(), mod));
-                            return map;
-                        })));
+    public Stream<List<SqlMod>> streamModsByNameAtLeast2() {
+        var mods = streamQuery("""
+select * from mods
+where name in (select name from mods group by name having count(id) >= 2)
+order by name, id""", SqlMod::new);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new GroupingIterator<>(mods.iterator(), SqlMod::getName), Spliterator.ORDERED), false)
+                .onClose(mods::close);
+    }
+
+    @Override
+    public boolean haveSameContents(SqlMod mod, SqlMod other) {
+        return jdbi.withHandle(handle -> handle.createQuery("""
+select exists(select 1 from known_files own
+              join known_files others on others.content_fingerprint = own.content_fingerprint
+              where own.mod = ? and others.mod = ?)""")
+                .bind(0, mod.id)
+                .bind(1, other.id)
+                .mapTo(Boolean.class)
+                .one());
+    }
+
+    @Override
+    public void mergeDuplicates(List<Duplicate<SqlMod>> duplicates) {
+        if (duplicates.isEmpty()) return;
+
+        var merged = jdbi.inTransaction(handle -> {
+            var rows = new ArrayList<SqlMod>(duplicates.size());
+            for (var duplicate : duplicates) {
+                duplicate.duplicate().transferTo(handle, duplicate.kept());
+                duplicate.duplicate().delete(handle);
+
+                // Link the kept mod to the projects of the duplicate once the duplicate doesn't have them anymore
+                var row = handle.createUpdate("""
+update mods set curseforge_project_id = coalesce(curseforge_project_id, ?),
+                modrinth_project_id = coalesce(modrinth_project_id, ?),
+                maven_coordinates = coalesce(maven_coordinates, ?)
+where id = ? returning *""")
+                        .bind(0, duplicate.duplicate().getCurseForgeProjectId())
+                        .bind(1, duplicate.duplicate().getModrinthProjectId())
+                        .bind(2, duplicate.duplicate().getMavenCoordinate())
+                        .bind(3, duplicate.kept().id)
+                        .execute(returning(SqlMod::new));
+                duplicate.kept().appendChange(handle, ChangeKind.LINK, null, null);
+                rows.add(row);
+            }
+            return rows;
+        });
+
+        for (int i = 0; i < duplicates.size(); i++) {
+            modCache.changed(duplicates.get(i).duplicate(), null);
+            modCache.changed(duplicates.get(i).kept(), merged.get(i));
+        }
     }
 
     @Override
@@ -194,6 +408,7 @@ order by mods.name;""")
                         .bind(1, modInfo.getDisplayName())
                         .bind(2, modInfo.getMods().stream().map(ModInfo::modId).toArray(String[]::new))
                         .execute(returning(SqlMod::new)));
+        modCache.changed(mod, mod);
         mod.updateMetadata(modInfo);
         return mod;
     }
@@ -205,12 +420,35 @@ order by mods.name;""")
                 .execute(returning(SqlMod::new)));
     }
 
+    @Override
+    public List<SqlMod> getModsByContentFingerprint(String contentFingerprint) {
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where id in (select mod from known_files where content_fingerprint = ?)")
+                .bind(0, contentFingerprint)
+                .execute(returningListOf(SqlMod::new)));
+    }
+
+    @Override
+    public void backfillContentFingerprint(String fileSha1, String contentFingerprint) {
+        jdbi.useHandle(handle -> handle.createUpdate("update known_files set content_fingerprint = ? where sha1 = ? and content_fingerprint is null")
+                .bind(0, contentFingerprint)
+                .bind(1, fileSha1)
+                .execute());
+    }
+
+    @Override
+    public List<SqlMod> getModsByFileHashes(Collection<String> fileSha1s) {
+        if (fileSha1s.isEmpty()) return List.of();
+        return jdbi.withHandle(handle -> handle.createQuery("select * from mods where id in (select mod from known_files where sha1 = any(?))")
+                .bindArray(0, String.class, fileSha1s)
+                .execute(returningListOf(SqlMod::new)));
+    }
+
     @Override
     public @Nullable SQLDatabase.SqlMod getLoaderMod(String coords) {
-        return jdbi.withHandle(handle ->
+        return modCache.lookupOne("loader:" + coords, () -> jdbi.withHandle(handle ->
                 handle.createQuery("select * from mods where maven_coordinates = ? and loader = true")
                         .bind(0, coords)
-                        .execute(returning(SqlMod::new)));
+                        .execute(returningListOf(SqlMod::new))));
     }
 
     @Override
@@ -221,6 +459,7 @@ order by mods.name;""")
                         .bind(1, modInfo.getDisplayName())
                         .bind(2, modInfo.getMods().stream().map(ModInfo::modId).toArray(String[]::new))
                         .execute(returning(SqlMod::new)));
+        modCache.changed(mod, mod);
         mod.updateMetadata(modInfo);
         return mod;
     }
@@ -258,130 +497,1558 @@ order by mods.name;""")
         });
     }
 
+    @Override
+    public void markKnownByIds(Map<PlatformModFile, Instant> latestProjectFileDates) {
+        var byPlatform = latestProjectFileDates.keySet().stream().collect(Collectors.groupingBy(PlatformModFile::getPlatform));
+        jdbi.useTransaction(handle -> {
+            for (var entry : byPlatform.entrySet()) {
+                var batch = handle.prepareBatch("insert into known_" + entry.getKey().getName() + "_file_ids(id, latest_date) values (?, ?) on conflict do nothing");
+                for (var file : entry.getValue()) {
+                    if (file.getId().getClass() == String.class) {
+                        batch.bind(0, (String) file.getId());
+                    } else {
+                        batch.bind(0, (Integer) file.getId());
+                    }
+                    batch.bind(1, Date.from(latestProjectFileDates.get(file)));
+                    batch.add();
+                }
+                batch.execute();
+            }
+        });
+    }
+
+    @Override
+    public boolean forEachKnownFile(Consumer<String> consumer) {
+        // Fetching in batches requires a transaction
+        jdbi.useTransaction(handle -> handle.createQuery("select sha1 from known_files")
+                .setFetchSize(FETCH_SIZE)
+                .mapTo(String.class)
+                .forEach(consumer));
+        return true;
+    }
+
+    @Override
+    public boolean forEachKnownFileId(ModPlatform platform, Consumer<Object> consumer) {
+        jdbi.useTransaction(handle -> handle.createQuery("select id from known_" + platform.getName() + "_file_ids")
+                .setFetchSize(FETCH_SIZE)
+                .map((rs, ctx) -> rs.getObject("id"))
+                .forEach(consumer));
+        return true;
+    }
+
+    @Override
+    public ReferenceGranularity getReferenceGranularity() {
+        try {
+            referenceGranularity = ReferenceGranularity.valueOf(jdbi.withHandle(handle -> handle.createQuery("select value from settings where name = 'reference_granularity'")
+                    .mapTo(String.class)
+                    .one()).toUpperCase(Locale.ROOT));
+        } catch (Exception exception) {
+            // Keep storing with the last known granularity if the database is not available, the writes will be journaled anyway
+            LOGGER.debug("Failed to query reference granularity: ", exception);
+        }
+        return referenceGranularity;
+    }
+
+    @Override
+    public boolean supportsReferenceGranularity(ReferenceGranularity granularity) {
+        return true;
+    }
+
+    @Override
+    public void setReferenceGranularity(ReferenceGranularity granularity) {
+        jdbi.useHandle(handle -> handle.createUpdate("update settings set value = ? where name = 'reference_granularity'")
+                .bind(0, granularity.name().toLowerCase(Locale.ROOT))
+                .execute());
+        referenceGranularity = granularity;
+    }
+
     @Override
     public <E extends Exception> void trackMod(SqlMod mod, ThrowingConsumer<ModTracker, E> consumer) throws E {
-        var modId = mod.id;
+        var tracker = new RecordingModTracker(mod.id, getReferenceGranularity());
+        consumer.accept(tracker);
+        store(tracker.build());
+    }
+
+    private void store(PreparedWrite write) {
+        // Keep the writes in order: as long as the journal has pending writes, new writes go to the journal too
+        if (journal != null && !journal.isEmpty()) {
+            journal.append(write.encode());
+            // Drain the journal as soon as the database is available again instead of waiting for the next maintenance run
+            if (System.nanoTime() - nextReplayAttempt >= 0) {
+                triggerReplay();
+            }
+            return;
+        }
+
+        try {
+            executeRetrying(write);
+        } catch (SQLException ex) {
+            if (journal != null && isTransient(ex)) {
+                LOGGER.warn("Failed to store mod {}, writing it to the journal to be replayed once the database is available: {}", write.modId(), ex.getMessage());
+                journal.append(write.encode());
+                return;
+            }
+            throw new RuntimeException(ex);
+        }
+
+        // A concurrent write may have been journaled while this one succeeded, so the database is available to replay it
+        if (journal != null && !journal.isEmpty()) {
+            triggerReplay();
+        }
+    }
+
+    private void triggerReplay() {
+        nextReplayAttempt = System.nanoTime() + REPLAY_ATTEMPT_INTERVAL;
+        // Only one replay runs at a time, concurrent triggers return immediately
+        Thread.ofVirtual().name("journal-replay").uncaughtExceptionHandler(Utils.LOG_EXCEPTIONS).start(this::replayJournal);
+    }
+
+    /**
+     * Execute the write, attempting it again if it lost a deadlock or a serialization conflict against a concurrent write.
+     * Such conflicts are resolved by retrying right away, unlike an unavailable database which the write is journaled for.
+     */
+    private void executeRetrying(PreparedWrite write) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                execute(write);
+                return;
+            } catch (SQLException ex) {
+                if (attempt >= MAX_CONFLICT_ATTEMPTS || !isConflict(ex)) {
+                    throw ex;
+                }
+                LOGGER.debug("Store of mod {} conflicted with a concurrent write (attempt {}), retrying: {}", write.modId(), attempt, ex.getMessage());
+                // The conflict may be a cached member which was reclaimed as an orphan, see SymbolCache
+                symbolCache.clear();
+                try {
+                    // Back off randomly so that the conflicting writes don't collide again
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(10, 50) * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private void execute(PreparedWrite write) throws SQLException {
         try (var con = connectionFactory.openConnection()) {
-            consumer.accept(new ModTracker() {
-                @Override
-                public void insertClasses(List<ClassData> classes) {
-                    if (classes.isEmpty()) return;
-
-                    try {
-                        var stmt = new BatchingStatement(con.prepareStatement("select * from insert_class(?, ?, ?, ?, ?, ?, ?, ?)"), 500);
-                        for (var aClass : classes) {
-                            stmt.setInt(1, modId);
-                            stmt.setString(2, aClass.name());
-                            stmt.setString(3, aClass.superClass());
-                            stmt.setArray(4, con.createArrayOf("text", aClass.interfaces()));
-                            stmt.setString(5, Utils.GSON.toJson(formatAnnotations(aClass.annotations())));
-                            stmt.setString(6, fields(aClass));
-                            stmt.setString(7, methods(aClass));
-                            stmt.setString(8, refs(aClass));
-                            stmt.addBatch();
-                        }
+            if (bulkLoading) {
+                try (var stmt = con.createStatement()) {
+                    // Losing the last few stored mods on a crash is fine as the bulk load will be restarted anyway
+                    stmt.execute("set synchronous_commit to off");
+                    // The insert functions skip maintaining the class hierarchy closure, which is rebuilt at once when the bulk load finishes
+                    stmt.execute("set waifu.bulk_load to on");
+                }
+            }
 
-                        stmt.executeBatch();
-                    } catch (SQLException ex) {
-                        throw new RuntimeException(ex);
-                    }
+            // Usage totals are rebuilt at once when the bulk load finishes
+            var maintainTotals = !bulkLoading;
+
+            // We don't delete anything when replacing the data of the mod, we instead write to a new generation which will replace the current one once all rows are written
+            int generation = write.replace() ? nextGeneration(con) : getCurrentGeneration(con, write.modId());
+
+            String previousUsages = null;
+            if (!write.replace() && maintainTotals) {
+                // Rows are added to the visible generation, so remember its usages to apply the difference to the totals once they're all written, in a single transaction
+                con.setAutoCommit(false);
+                previousUsages = snapshotUsages(con, write.modId(), generation);
+            }
+
+            var references = resolveReferences(con, write.classes());
+            insertClasses(con, write.modId(), generation, write.classes(), references, write.packedReferences());
+            insertModReferences(con, write.modId(), generation, write.modReferences());
+            insertTags(con, write.modId(), generation, write.tags());
+            insertEnumExtensions(con, write.modId(), generation, write.enumExtensions());
+
+            con.setAutoCommit(false);
+            insertSketch(con, write.modId(), generation, write.usageCounts());
+            for (int i = 0; i < write.knownFiles().size(); i++) {
+                var stmt = con.prepareStatement("insert into known_files(mod, sha1, content_fingerprint) values (?, ?, ?) on conflict (sha1) do update set content_fingerprint = coalesce(known_files.content_fingerprint, excluded.content_fingerprint)");
+                stmt.setInt(1, write.modId());
+                stmt.setString(2, write.knownFiles().get(i));
+                stmt.setString(3, write.knownFileFingerprints().get(i));
+                stmt.execute();
+            }
+            if (write.indexDate() != null) {
+                var stmt = con.prepareStatement("update mods set index_date = ? where id = ?");
+                stmt.setTimestamp(1, Timestamp.from(write.indexDate()));
+                stmt.setInt(2, write.modId());
+                stmt.execute();
+            }
+            int previousGeneration = generation;
+            if (write.replace()) {
+                previousGeneration = lockCurrentGeneration(con, write.modId());
+
+                // Flip the visible generation in one statement so readers either see the old or the new data, never a mix of both
+                var stmt = con.prepareStatement("update mods set current_generation = ? where id = ?");
+                stmt.setInt(1, generation);
+                stmt.setInt(2, write.modId());
+                stmt.execute();
+            }
+            SqlMod oldRow = null, updatedRow = null;
+            if (write.metadata() != null) {
+                var stmt = con.prepareStatement("select * from mods where id = ?");
+                stmt.setInt(1, write.modId());
+                var rs = stmt.executeQuery();
+                if (rs.next()) {
+                    oldRow = new SqlMod(rs);
+                    updatedRow = writeMetadata(con, write.modId(), write.metadata());
+                }
+            }
+            // Like the totals, the resolved tags and the dependency graph are rebuilt at once when the bulk load finishes
+            if (!bulkLoading) {
+                if (write.replace()) {
+                    queueClassDescendants(con, write.modId(), previousGeneration, generation);
                 }
+                queueResolvedTags(con, write.modId(), previousGeneration, generation);
+                queueModDependencies(con, write.modId());
+            }
+            if (maintainTotals) {
+                // The rows of the totals are shared by all mods, so they're updated last to keep them locked for as short as possible
+                applyUsageTotals(con, write.modId(), write.replace() ? previousGeneration : null, generation, previousUsages);
+            }
+            appendStoreChange(con, write, previousGeneration, generation);
+            con.commit();
+
+            // Members created by the write only exist once it's committed
+            symbolCache.add(references);
+            sketchesChanged = true;
+            if (oldRow != null) {
+                modCache.changed(oldRow, updatedRow);
+                facetsChanged = true;
+            }
+        }
+    }
 
-                @Override
-                public void insertTags(List<TagFile> tags) {
-                    if (tags.isEmpty()) return;
+    @Override
+    public void replayJournal() {
+        if (journal == null || journal.isEmpty()) return;
 
-                    try {
-                        var stmt = new BatchingStatement(con.prepareStatement("select * from insert_tag(?, ?, ?, ?)"), 250);
-                        for (var tag : tags) {
-                            stmt.setInt(1, modId);
-                            stmt.setString(2, tag.name());
-                            stmt.setBoolean(3, tag.replace());
-                            stmt.setArray(4, con.createArrayOf("text", tag.entries().toArray(String[]::new)));
-                            stmt.addBatch();
-                        }
+        var replayed = journal.replay(payload -> {
+            PreparedWrite write;
+            try {
+                write = PreparedWrite.decode(payload);
+            } catch (IOException exception) {
+                LOGGER.error("Discarding unreadable journal record: ", exception);
+                return true;
+            }
+
+            try {
+                executeRetrying(write);
+                return true;
+            } catch (SQLException ex) {
+                if (isTransient(ex)) {
+                    return false;
+                }
+                // The write can never succeed so there's no point in retrying it
+                LOGGER.error("Discarding journaled write of mod {} as it failed: ", write.modId(), ex);
+                return true;
+            }
+        });
 
-                        stmt.executeBatch();
-                    } catch (SQLException ex) {
-                        throw new RuntimeException(ex);
+        if (replayed > 0) {
+            LOGGER.info("Replayed {} journaled writes", replayed);
+        }
+    }
+
+    /**
+     * {@return whether the exception was caused by a deadlock or a serialization failure, which a new attempt of the transaction can succeed}
+     */
+    private static boolean isConflict(SQLException exception) {
+        for (Throwable ex = exception; ex != null; ex = ex.getCause()) {
+            if (ex instanceof SQLException sql) {
+                for (var next = sql; next != null; next = next.getNextException()) {
+                    var state = next.getSQLState();
+                    if ("40001".equals(state) || "40P01".equals(state)) {
+                        return true;
                     }
                 }
+            }
+        }
+        return false;
+    }
 
-                @Override
-                public void insertEnumExtensions(List<EnumExtension> extensions) {
-                    if (extensions.isEmpty()) return;
+    /**
+     * {@return whether the exception was caused by the database being unavailable rather than by the data}
+     */
+    private static boolean isTransient(SQLException exception) {
+        for (Throwable ex = exception; ex != null; ex = ex.getCause()) {
+            if (ex instanceof SQLException sql) {
+                for (var next = sql; next != null; next = next.getNextException()) {
+                    var state = next.getSQLState();
+                    if (next instanceof SQLTransientException || next instanceof SQLRecoverableException
+                            || (state != null && (state.startsWith("08") || state.startsWith("40") || state.startsWith("53") || state.startsWith("57P")))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
 
-                    try {
-                        var stmt = new BatchingStatement(con.prepareStatement("select * from insert_enum_extension(?, ?, ?, ?, ?)"), 100);
-                        for (var ext : extensions) {
-                            stmt.setInt(1, modId);
-                            stmt.setString(2, ext.enumName());
-                            stmt.setString(3, ext.name());
-                            stmt.setString(4, ext.constructor());
-                            stmt.setString(5, Utils.GSON.toJson(ext.parameters()));
-                            stmt.addBatch();
-                        }
+    @Override
+    public @Nullable BulkLoad beginBulkLoad() {
+        var empty = jdbi.withHandle(handle -> handle.createQuery("select not exists (select 1 from class_defs)")
+                .mapTo(Boolean.class)
+                .one());
+        if (!empty) return null;
+
+        jdbi.useTransaction(handle -> {
+            var dropped = dropForBulkLoad(handle, BULK_LOAD_KEPT_TABLES, false);
+            LOGGER.info("Dropped {} indexes and constraints for bulk loading", dropped);
+        });
+
+        bulkLoading = true;
+        return this::finishBulkLoad;
+    }
+
+    /**
+     * Drop the non-unique indexes of the tables which are not kept and the foreign keys to the dictionaries (or all foreign keys), recording them
+     * so that {@link #finishBulkLoad()} recreates them.
+     *
+     * @return the amount of dropped indexes and constraints
+     */
+    private static int dropForBulkLoad(Handle handle, List<String> keptTables, boolean allForeignKeys) {
+        handle.createUpdate("""
+insert into bulk_load_pending(name, tbl, kind, definition)
+select indexname, tablename, 'index', indexdef from pg_indexes
+where schemaname = current_schema() and indexname like 'idx\\_%' and indexdef not like 'CREATE UNIQUE INDEX%'
+and tablename <> all(?) and indexname <> all(?)""")
+                .bindArray(0, String.class, keptTables)
+                .bindArray(1, String.class, BULK_LOAD_KEPT_INDEXES)
+                .execute();
+
+        // We can't disable the foreign key triggers without superuser permissions, so we drop the constraints instead.
+        // Usually only the constraints referencing the dictionaries are dropped as they are never cascaded and the dictionaries are not cleaned up while bulk loading
+        handle.createUpdate("""
+insert into bulk_load_pending(name, tbl, kind, definition)
+select conname, conrelid::regclass::text, 'constraint', pg_get_constraintdef(oid) from pg_constraint
+where contype = 'f' and connamespace = (select oid from pg_namespace where nspname = current_schema())
+and (? or confrelid in ('classes'::regclass, 'constants'::regclass, 'methods'::regclass, 'fields'::regclass, 'json_constants'::regclass))""")
+                .bind(0, allForeignKeys)
+                .execute();
+
+        var pending = handle.createQuery("select * from bulk_load_pending")
+                .execute(returningListOf(PendingBulkLoadObject::new));
+        for (var object : pending) {
+            if (object.kind().equals("index")) {
+                handle.execute("drop index \"" + object.name() + "\"");
+            } else {
+                handle.execute("alter table " + object.table() + " drop constraint \"" + object.name() + "\"");
+            }
+        }
+        return pending.size();
+    }
 
-                        stmt.executeBatch();
-                    } catch (SQLException ex) {
-                        throw new RuntimeException(ex);
+    private void finishBulkLoad() {
+        var pending = jdbi.withHandle(handle -> handle.createQuery("select * from bulk_load_pending")
+                .execute(returningListOf(PendingBulkLoadObject::new)));
+
+        try (var exec = Executors.newFixedThreadPool(BULK_LOAD_PARALLELISM, Thread.ofVirtual().name("bulk-load-rebuild-", 0)
+                .uncaughtExceptionHandler(Utils.LOG_EXCEPTIONS).factory())) {
+            // Indexes are built in parallel on separate connections
+            CompletableFuture.allOf(pending.stream()
+                    .filter(object -> object.kind().equals("index"))
+                    .map(object -> CompletableFuture.runAsync(() -> jdbi.useHandle(handle -> {
+                        handle.execute("set maintenance_work_mem to '512MB'");
+                        handle.execute(object.definition());
+                        handle.createUpdate("delete from bulk_load_pending where name = ?").bind(0, object.name()).execute();
+                    }), exec))
+                    .toArray(CompletableFuture[]::new)).join();
+
+            // Adding the constraints as not valid is cheap but needs exclusive locks on the referenced tables so it is done sequentially,
+            // while validating the existing rows only needs a weak lock and can therefore happen in parallel
+            var constraints = pending.stream().filter(object -> object.kind().equals("constraint")).toList();
+            jdbi.useHandle(handle -> {
+                for (var constraint : constraints) {
+                    handle.execute("alter table " + constraint.table() + " add constraint \"" + constraint.name() + "\" " + constraint.definition() + " not valid");
+                }
+            });
+            CompletableFuture.allOf(constraints.stream()
+                    .map(object -> CompletableFuture.runAsync(() -> jdbi.useHandle(handle -> {
+                        handle.execute("alter table " + object.table() + " validate constraint \"" + object.name() + "\"");
+                        handle.createUpdate("delete from bulk_load_pending where name = ?").bind(0, object.name()).execute();
+                    }), exec))
+                    .toArray(CompletableFuture[]::new)).join();
+        }
+
+        jdbi.useHandle(handle -> {
+            handle.execute("set maintenance_work_mem to '512MB'");
+            handle.execute("select rebuild_class_ancestors()");
+            handle.execute("select rebuild_method_overrides()");
+            handle.execute("select rebuild_annotation_semantics()");
+            handle.execute("select rebuild_resolved_tags()");
+            handle.execute("select rebuild_mod_dependencies()");
+            handle.execute("select rebuild_usage_totals()");
+            handle.execute("analyze");
+        });
+        bulkLoading = false;
+
+        LOGGER.info("Rebuilt {} indexes and constraints after bulk loading", pending.size());
+    }
+
+    @Override
+    public void exportSnapshot(Path file) throws IOException {
+        var temp = Files.createTempDirectory(file.toAbsolutePath().getParent(), file.getFileName() + ".");
+        try {
+            // The tables are copied on separate connections which all import the snapshot of the transaction of this handle, so that they are consistent
+            var snapshot = jdbi.inTransaction(TransactionIsolationLevel.REPEATABLE_READ, handle -> {
+                var snapshotId = handle.createQuery("select pg_export_snapshot()").mapTo(String.class).one();
+                var sequences = new LinkedHashMap<String, Long>();
+                handle.createQuery("select sequencename, last_value from pg_sequences where schemaname = current_schema() and last_value is not null")
+                        .execute(returningListOf(rs -> Map.entry(rs.getString(1), rs.getLong(2))))
+                        .forEach(sequence -> sequences.put(sequence.getKey(), sequence.getValue()));
+
+                // Copy the biggest tables first so that they don't end up being copied last on their own
+                var tables = handle.createQuery("""
+select tables.table_name, array_agg(columns.column_name::text order by columns.ordinal_position) as columns
+from information_schema.tables tables
+join information_schema.columns columns on columns.table_schema = tables.table_schema and columns.table_name = tables.table_name
+where tables.table_schema = current_schema() and tables.table_type = 'BASE TABLE' and columns.is_generated = 'NEVER'
+and tables.table_name <> all(?)
+group by tables.table_name
+order by pg_total_relation_size(quote_ident(tables.table_name)::regclass) desc""")
+                        .bindArray(0, String.class, SNAPSHOT_EXCLUDED_TABLES)
+                        .execute(returningListOf(rs -> new SchemaSnapshot.Table(
+                                rs.getString(1), List.of((String[]) rs.getArray(2).getArray()), 0, 0, 0, ""
+                        )));
+
+                try (var exec = Executors.newFixedThreadPool(BULK_LOAD_PARALLELISM, Thread.ofVirtual().name("snapshot-export-", 0)
+                        .uncaughtExceptionHandler(Utils.LOG_EXCEPTIONS).factory())) {
+                    var copies = tables.stream()
+                            .map(table -> CompletableFuture.supplyAsync(() -> jdbi.inTransaction(TransactionIsolationLevel.REPEATABLE_READ, worker -> {
+                                worker.execute("set transaction snapshot '" + snapshotId + "'");
+                                return copyOut(worker, table, temp.resolve(table.name()));
+                            }), exec))
+                            .toList();
+
+                    var copied = new ArrayList<SchemaSnapshot.Table>(copies.size());
+                    long offset = 0;
+                    for (var copy : copies) {
+                        var table = copy.join();
+                        copied.add(new SchemaSnapshot.Table(table.name(), table.columns(), table.rows(), offset, table.length(), table.sha256()));
+                        offset += table.length();
                     }
+                    return new SchemaSnapshot(getSchemaVersion(handle), sequences, copied);
                 }
+            });
 
-                @Override
-                public void deleteCurrent() {
-                    try {
-                        {
-                            var stmt = con.prepareStatement("delete from class_defs where mod = ?");
-                            stmt.setInt(1, modId);
-                            stmt.execute();
-                        }
-                        {
-                            var stmt = con.prepareStatement("delete from tags where mod = ?");
-                            stmt.setInt(1, modId);
-                            stmt.execute();
-                        }
-                        {
-                            var stmt = con.prepareStatement("delete from enum_extensions where mod = ?");
-                            stmt.setInt(1, modId);
-                            stmt.execute();
+            try (var out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+                snapshot.write(out);
+                for (var table : snapshot.tables()) {
+                    Files.copy(temp.resolve(table.name()), out);
+                }
+            }
+            LOGGER.info("Exported {} rows of {} tables to snapshot {}", snapshot.tables().stream().mapToLong(SchemaSnapshot.Table::rows).sum(), snapshot.tables().size(), file);
+        } finally {
+            try (var files = Files.list(temp)) {
+                for (var tempFile : (Iterable<Path>) files::iterator) {
+                    Files.delete(tempFile);
+                }
+            }
+            Files.delete(temp);
+        }
+    }
+
+    private static SchemaSnapshot.Table copyOut(Handle handle, SchemaSnapshot.Table table, Path target) {
+        try {
+            long rows;
+            var out = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(Files.newOutputStream(target), 1 << 16));
+            try (out; var gzip = new GZIPOutputStream(out, 1 << 16)) {
+                rows = handle.getConnection().unwrap(PGConnection.class).getCopyAPI()
+                        .copyOut("copy \"" + table.name() + "\" (" + quoteColumns(table) + ") to stdout (format binary)", gzip);
+            }
+            return new SchemaSnapshot.Table(table.name(), table.columns(), rows, 0, Files.size(target), out.hash().toString());
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    @Override
+    public void importSnapshot(Path file) throws IOException {
+        var snapshot = SchemaSnapshot.read(file);
+        jdbi.useHandle(handle -> {
+            var schemaVersion = getSchemaVersion(handle);
+            if (!snapshot.schemaVersion().equals(schemaVersion)) {
+                throw new IllegalStateException("Snapshot " + file + " was exported from a schema at version " + snapshot.schemaVersion() + " but this schema is at version " + schemaVersion);
+            }
+            if (handle.createQuery("select exists (select 1 from mods)").mapTo(Boolean.class).one()) {
+                throw new IllegalStateException("Snapshots can only be imported into an empty schema");
+            }
+        });
+
+        try (var exec = Executors.newFixedThreadPool(BULK_LOAD_PARALLELISM, Thread.ofVirtual().name("snapshot-import-", 0)
+                .uncaughtExceptionHandler(Utils.LOG_EXCEPTIONS).factory())) {
+            // Verify the whole snapshot before touching the schema so that a corrupted snapshot doesn't leave it half-restored
+            CompletableFuture.allOf(snapshot.tables().stream()
+                    .map(table -> CompletableFuture.runAsync(() -> {
+                        try (var in = new HashingInputStream(Hashing.sha256(), SchemaSnapshot.open(file, table))) {
+                            in.transferTo(OutputStream.nullOutputStream());
+                            if (!in.hash().toString().equals(table.sha256())) {
+                                throw new IllegalStateException("Checksum mismatch for table " + table.name() + " in snapshot " + file);
+                            }
+                        } catch (IOException exception) {
+                            throw new UncheckedIOException(exception);
                         }
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
+                    }, exec))
+                    .toArray(CompletableFuture[]::new)).join();
+
+            // All foreign keys are dropped as the tables are loaded in parallel and in no particular order
+            jdbi.useTransaction(handle -> {
+                var dropped = dropForBulkLoad(handle, List.of(), true);
+                handle.execute("truncate " + snapshot.tables().stream().map(table -> "\"" + table.name() + "\"").collect(Collectors.joining(", ")));
+                LOGGER.info("Dropped {} indexes and constraints for importing snapshot {}", dropped, file);
+            });
+            bulkLoading = true;
+            modCache.clear();
+            symbolCache.clear();
+
+            CompletableFuture.allOf(snapshot.tables().stream()
+                    .map(table -> CompletableFuture.runAsync(() -> jdbi.useHandle(handle -> copyIn(handle, file, table)), exec))
+                    .toArray(CompletableFuture[]::new)).join();
+        }
+
+        jdbi.useHandle(handle -> {
+            snapshot.sequences().forEach((sequence, value) -> handle.createQuery("select setval(quote_ident(?)::regclass, ?)")
+                    .bind(0, sequence)
+                    .bind(1, value)
+                    .mapTo(Long.class)
+                    .one());
+
+            // The symbol ids of a schema using the shared dictionary come from the shared dictionary of the exporting database, which this database's doesn't match.
+            // The schema keeps its own ids instead, allocated past the imported ones
+            handle.execute("update settings set value = 'off' where name = 'shared_dictionary'");
+            var serials = handle.createQuery("""
+select table_name, column_name, pg_get_serial_sequence(quote_ident(table_name), column_name) from information_schema.columns
+where table_schema = current_schema() and pg_get_serial_sequence(quote_ident(table_name), column_name) is not null""")
+                    .execute(returningListOf(rs -> List.of(rs.getString(1), rs.getString(2), rs.getString(3))));
+            for (var serial : serials) {
+                handle.execute("select setval('" + serial.get(2) + "', greatest((select last_value from " + serial.get(2) + "), (select max(\"" + serial.get(1) + "\") from \"" + serial.get(0) + "\")))");
+            }
+        });
+
+        finishBulkLoad();
+        getReferenceGranularity();
+        facetsChanged = true;
+
+        LOGGER.info("Imported {} rows of {} tables from snapshot {}", snapshot.tables().stream().mapToLong(SchemaSnapshot.Table::rows).sum(), snapshot.tables().size(), file);
+    }
+
+    private static void copyIn(Handle handle, Path file, SchemaSnapshot.Table table) {
+        handle.execute("set synchronous_commit to off");
+        // Skip the triggers maintaining the derived tables, which are rebuilt once all tables are loaded
+        handle.execute("set waifu.bulk_load to on");
+        try (var in = new GZIPInputStream(SchemaSnapshot.open(file, table), 1 << 16)) {
+            handle.getConnection().unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn("copy \"" + table.name() + "\" (" + quoteColumns(table) + ") from stdin (format binary)", in);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private static String getSchemaVersion(Handle handle) {
+        return handle.createQuery("select version from flyway_schema_history where success and version is not null order by installed_rank desc limit 1")
+                .mapTo(String.class)
+                .one();
+    }
+
+    private static String quoteColumns(SchemaSnapshot.Table table) {
+        return table.columns().stream().map(column -> "\"" + column + "\"").collect(Collectors.joining(", "));
+    }
+
+    @Override
+    public int reapStaleGenerations(int batchSize) {
+        // Mods are rarely replaced during an initial index, so there is little to reap and the scans would only compete with the bulk load
+        if (bulkLoading) return 0;
+
+        // Generations are allocated from a sequence, so anything older than the current generation has been superseded.
+        // Failed stores leave behind newer (invisible) generations which become older than the current one as soon as the mod is stored again
+        return jdbi.withHandle(handle -> handle.createUpdate("""
+delete from class_defs where id in (select class_defs.id from class_defs
+join mods on mods.id = class_defs.mod
+where class_defs.generation < mods.current_generation limit ?)""")
+                .bind(0, batchSize)
+                .execute()
+                + handle.createUpdate("""
+delete from tags where ctid = any(array(select tags.ctid from tags
+join mods on mods.id = tags.mod
+where tags.generation < mods.current_generation limit ?))""")
+                .bind(0, batchSize)
+                .execute()
+                + handle.createUpdate("""
+delete from enum_extensions where ctid = any(array(select enum_extensions.ctid from enum_extensions
+join mods on mods.id = enum_extensions.mod
+where enum_extensions.generation < mods.current_generation limit ?))""")
+                .bind(0, batchSize)
+                .execute()
+                + handle.createUpdate("""
+delete from mod_method_references where ctid = any(array(select mod_method_references.ctid from mod_method_references
+join mods on mods.id = mod_method_references.mod
+where mod_method_references.generation < mods.current_generation limit ?))""")
+                .bind(0, batchSize)
+                .execute()
+                + handle.createUpdate("""
+delete from mod_field_references where ctid = any(array(select mod_field_references.ctid from mod_field_references
+join mods on mods.id = mod_field_references.mod
+where mod_field_references.generation < mods.current_generation limit ?))""")
+                .bind(0, batchSize)
+                .execute()
+                + handle.createUpdate("""
+delete from mod_sketches where (mod, generation) in (select mod_sketches.mod, mod_sketches.generation from mod_sketches
+join mods on mods.id = mod_sketches.mod
+where mod_sketches.generation < mods.current_generation limit ?)""")
+                .bind(0, batchSize)
+                .execute());
+    }
+
+    @Override
+    public boolean reclaimOrphanedSymbols(int batchSize) {
+        // The dictionary foreign keys are dropped while bulk loading so we have no guarantee that a row isn't referenced
+        if (bulkLoading) return false;
+
+        for (var dictionary : DICTIONARIES) {
+            int from = dictionaryCursors.getOrDefault(dictionary.table(), 0);
+            int maxId = jdbi.withHandle(handle -> handle.createQuery("select coalesce(max(id), 0) from " + dictionary.table())
+                    .mapTo(Integer.class)
+                    .one());
+            if (from > maxId) continue;
+
+            dictionaryCursors.put(dictionary.table(), from + batchSize);
+
+            try {
+                int deleted = jdbi.withHandle(handle -> handle.createUpdate(dictionary.deleteOrphans())
+                        .bind(0, from)
+                        .bind(1, from + batchSize)
+                        .execute());
+                if (deleted > 0) {
+                    LOGGER.debug("Reclaimed {} orphaned rows from {}", deleted, dictionary.table());
+                    symbolCache.clear();
                 }
+            } catch (Exception ex) {
+                // A symbol in this window was referenced again while we were deleting it, we'll retry it on the next sweep
+                LOGGER.debug("Failed to reclaim orphaned rows from {} in id window [{}, {}): ", dictionary.table(), from, from + batchSize, ex);
+            }
+            return true;
+        }
+
+        dictionaryCursors.clear();
+        return false;
+    }
+
+    @Override
+    public void vacuumAnalyze() {
+        jdbi.useHandle(handle -> {
+            var tables = handle.createQuery("""
+select relname from pg_stat_user_tables
+where schemaname = current_schema()
+and (n_dead_tup > n_live_tup / 10 + 1000 or n_mod_since_analyze > n_live_tup / 10 + 1000)""")
+                    .mapTo(String.class)
+                    .list();
+            for (var table : tables) {
+                handle.execute("vacuum (analyze) \"" + table + "\"");
+            }
+        });
+    }
+
+    @Override
+    public void refreshFacetValues() {
+        if (!facetsChanged) return;
+        facetsChanged = false;
+        jdbi.useHandle(handle -> handle.execute("refresh materialized view concurrently mod_facet_values"));
+    }
+
+    @Override
+    public void refreshDerivedData() {
+        // Everything is rebuilt at once when the bulk load finishes
+        if (bulkLoading) return;
+
+        var descendants = jdbi.withHandle(handle -> handle.createQuery("select refresh_pending_class_descendants()")
+                .mapTo(Integer.class)
+                .one());
+        if (descendants > 0) {
+            LOGGER.debug("Recomputed the ancestors and overrides of {} classes descending from re-stored classes", descendants);
+        }
+
+        var tags = jdbi.withHandle(handle -> handle.createQuery("select refresh_pending_resolved_tags()")
+                .mapTo(Integer.class)
+                .one());
+        if (tags > 0) {
+            LOGGER.debug("Re-resolved {} tags and the tags including them", tags);
+        }
+
+        var mods = jdbi.withHandle(handle -> handle.createQuery("select refresh_pending_mod_dependencies()")
+                .mapTo(Integer.class)
+                .one());
+        if (mods > 0) {
+            LOGGER.debug("Recomputed the dependencies of {} mods", mods);
+        }
+    }
+
+    @Override
+    public List<TableStats> getTableStats() {
+        return jdbi.withHandle(handle -> handle.createQuery("""
+select relname, n_live_tup, n_dead_tup, pg_total_relation_size(relid) as total_bytes from pg_stat_user_tables
+where schemaname = current_schema()
+order by total_bytes desc""")
+                .execute(returningListOf(rs -> new TableStats(
+                        rs.getString("relname"), rs.getLong("n_live_tup"), rs.getLong("n_dead_tup"), rs.getLong("total_bytes")
+                ))));
+    }
+
+    /**
+     * Queue the classes of the previous generation of the mod whose parents changed in the new generation (or which it no longer defines)
+     * for the ancestors of their descendants to be recomputed by {@link #refreshDerivedData()}.
+     */
+    private static void queueClassDescendants(Connection con, int modId, int previousGeneration, int generation) throws SQLException {
+        var stmt = con.prepareStatement("""
+insert into class_descendants_pending(type)
+select distinct type from (
+(select defs.type, class_parents.parent from class_defs defs join class_parents on class_parents.cls = defs.id where defs.mod = ? and defs.generation = ?
+except
+select defs.type, class_parents.parent from class_defs defs join class_parents on class_parents.cls = defs.id where defs.mod = ? and defs.generation = ?)
+union all
+(select defs.type, class_parents.parent from class_defs defs join class_parents on class_parents.cls = defs.id where defs.mod = ? and defs.generation = ?
+except
+select defs.type, class_parents.parent from class_defs defs join class_parents on class_parents.cls = defs.id where defs.mod = ? and defs.generation = ?)
+) changed
+where type in (select type from class_defs where mod = ? and generation = ?)""");
+        stmt.setInt(1, modId);
+        stmt.setInt(2, previousGeneration);
+        stmt.setInt(3, modId);
+        stmt.setInt(4, generation);
+        stmt.setInt(5, modId);
+        stmt.setInt(6, generation);
+        stmt.setInt(7, modId);
+        stmt.setInt(8, previousGeneration);
+        stmt.setInt(9, modId);
+        stmt.setInt(10, previousGeneration);
+        stmt.execute();
+    }
+
+    /**
+     * Queue the tags the given generations of the mod contribute to for being re-resolved, together with the tags that include them, by {@link #refreshDerivedData()}.
+     */
+    private static void queueResolvedTags(Connection con, int modId, int previousGeneration, int generation) throws SQLException {
+        var stmt = con.prepareStatement("insert into resolved_tags_pending(tag) select distinct tag from tags where mod = ? and generation in (?, ?)");
+        stmt.setInt(1, modId);
+        stmt.setInt(2, previousGeneration);
+        stmt.setInt(3, generation);
+        stmt.execute();
+    }
+
+    private void appendStoreChange(Connection con, PreparedWrite write, int previousGeneration, int generation) throws SQLException {
+        // The classes can't be looked up by mod while bulk loading as the indexes have been dropped
+        var stmt = con.prepareStatement(bulkLoading ? "select append_index_change(?, ?, ?, null, null)" :
+                "select append_index_change(?, ?, ?, array(select distinct type from class_defs where mod = ? and generation in (?, ?)), null)");
+        stmt.setInt(1, write.modId());
+        stmt.setInt(2, generation);
+        stmt.setString(3, changeKind(write.replace() ? ChangeKind.REPLACE : ChangeKind.STORE));
+        if (!bulkLoading) {
+            stmt.setInt(4, write.modId());
+            stmt.setInt(5, previousGeneration);
+            stmt.setInt(6, generation);
+        }
+        stmt.execute();
+    }
+
+    /**
+     * Update the metadata of the mod, refresh its facets and record the change.
+     *
+     * @return the updated row of the mod
+     */
+    private SqlMod writeMetadata(Connection con, int modId, PreparedWrite.MetadataRow metadata) throws SQLException {
+        // TODO - find a better way that retains old data in case we update from a JiJ artifact that's also linked to a project
+        var stmt = con.prepareStatement("update mods set " +
+                "version = ?, name = ?, mod_ids = ?, authors = ?," +
+                "nested_tree = (?::jsonb), maven_coordinates = coalesce(?, maven_coordinates), license = ?," +
+                "mod_metadata = ?, mod_metadata_json = (?::jsonb), manifest = (?::jsonb)" +
+                "where id = ? returning *");
+        stmt.setString(1, metadata.version());
+        stmt.setString(2, metadata.name());
+        stmt.setArray(3, con.createArrayOf("text", metadata.modIds().toArray()));
+        stmt.setString(4, metadata.authors());
+        stmt.setString(5, metadata.nestedTree());
+        stmt.setString(6, metadata.mavenCoordinates());
+        stmt.setString(7, metadata.license());
+        stmt.setString(8, metadata.modsToml());
+        stmt.setString(9, metadata.modsTomlJson());
+        stmt.setString(10, metadata.manifest());
+        stmt.setInt(11, modId);
+        var rs = stmt.executeQuery();
+        rs.next();
+        var updated = new SqlMod(rs);
+
+        var facets = con.prepareStatement("select refresh_mod_facets(?)");
+        facets.setInt(1, modId);
+        facets.execute();
+
+        var change = con.prepareStatement("select append_index_change(?, (select current_generation from mods where id = ?), ?, null, null)");
+        change.setInt(1, modId);
+        change.setInt(2, modId);
+        change.setString(3, changeKind(ChangeKind.METADATA));
+        change.execute();
+        return updated;
+    }
+
+    private static PreparedWrite.MetadataRow metadataRow(ModFileInfo info) {
+        var meta = info.getMetadata();
+
+        String modsToml = null;
+        String modsTomlJson = null;
+        try {
+            var met = info.getModMetadata();
+            if (met != null) {
+                modsToml = met.first();
+                modsTomlJson = met.second();
+            }
+        } catch (Exception ignored) {
+
+        }
+
+        return new PreparedWrite.MetadataRow(
+                info.getVersion().toString(),
+                info.getDisplayName(),
+                info.getMods().stream().map(ModInfo::modId).toList(),
+                orNull(info.getMods().stream().map(ModInfo::authors)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.joining("; "))),
+                nestedTree(info),
+                info.getMavenCoordinates(),
+                meta == null ? null : meta.license(),
+                modsToml,
+                modsTomlJson,
+                Utils.GSON.toJson(manifestToJson(info.getManifest()))
+        );
+    }
+
+    private static String changeKind(ChangeKind kind) {
+        return kind.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Queue the mod for its dependencies and dependents to be recomputed by {@link #refreshDerivedData()}.
+     */
+    private static void queueModDependencies(Connection con, int modId) throws SQLException {
+        var stmt = con.prepareStatement("insert into mod_dependencies_pending(mod) values (?)");
+        stmt.setInt(1, modId);
+        stmt.execute();
+    }
+
+    @Override
+    public List<IndexChange> getChanges(long after, int limit) {
+        return jdbi.withHandle(handle -> handle.createQuery("""
+select index_changes.*, array(select classes.name from classes where classes.id = any(index_changes.symbols)) as symbol_names
+from index_changes where id > ? order by id limit ?""")
+                .bind(0, after)
+                .bind(1, limit)
+                .execute(returningListOf(rs -> new IndexChange(
+                        rs.getLong("id"), rs.getInt("mod"), (Integer) rs.getObject("generation"),
+                        ChangeKind.valueOf(rs.getString("kind").toUpperCase(Locale.ROOT)),
+                        rs.getObject("symbols") == null ? null : List.of((String[]) rs.getArray("symbol_names").getArray()),
+                        (Integer) rs.getObject("target"), rs.getTimestamp("created").toInstant()
+                ))));
+    }
+
+    @Override
+    public List<SymbolUsage> getTopUsages(SymbolKind kind, int limit) {
+        var query = switch (kind) {
+            case METHOD -> """
+select owners.name || '.' || names.constant || descriptors.constant, totals.mods, totals.count from method_usage_totals totals
+join methods on methods.id = totals.reference
+join classes owners on owners.id = methods.cls
+join constants names on names.id = methods.name
+join constants descriptors on descriptors.id = methods.descriptor
+order by totals.mods desc limit ?""";
+            case FIELD -> """
+select owners.name || '.' || names.constant || ':' || descriptors.name, totals.mods, totals.count from field_usage_totals totals
+join fields on fields.id = totals.reference
+join classes owners on owners.id = fields.cls
+join constants names on names.id = fields.name
+join classes descriptors on descriptors.id = fields.descriptor
+order by totals.mods desc limit ?""";
+            case ANNOTATION -> """
+select classes.name, totals.mods, totals.count from annotation_usage_totals totals
+join classes on classes.id = totals.annotation
+order by totals.mods desc limit ?""";
+            case TAG -> """
+select constants.constant, totals.mods, totals.entries from tag_usage_totals totals
+join constants on constants.id = totals.tag
+order by totals.mods desc limit ?""";
+        };
+        return jdbi.withHandle(handle -> handle.createQuery(query)
+                .bind(0, limit)
+                .execute(returningListOf(rs -> new SymbolUsage(rs.getString(1), rs.getInt(2), rs.getLong(3)))));
+    }
+
+    @Override
+    public @Nullable SymbolUsage getUsage(SymbolKind kind, String symbol) {
+        return jdbi.withHandle(handle -> {
+            var id = findSymbol(handle, kind, symbol);
+            if (id == null) return null;
+
+            return handle.createQuery(switch (kind) {
+                        case METHOD -> "select mods, count from method_usage_totals where reference = ?";
+                        case FIELD -> "select mods, count from field_usage_totals where reference = ?";
+                        case ANNOTATION -> "select mods, count from annotation_usage_totals where annotation = ?";
+                        case TAG -> "select mods, entries from tag_usage_totals where tag = ?";
+                    })
+                    .bind(0, id)
+                    .map((rs, ctx) -> new SymbolUsage(symbol, rs.getInt(1), rs.getLong(2)))
+                    .findOne()
+                    .orElse(null);
+        });
+    }
+
+    @Override
+    public List<SymbolUsage> estimateTopUsages(SymbolKind kind, int limit) {
+        var counts = getUsageCountsSketch();
+        if (counts == null) return getTopUsages(kind, limit);
+
+        var query = switch (kind) {
+            case METHOD -> """
+select owners.name || '.' || names.constant || descriptors.constant, sketches.mods from symbol_sketches sketches
+join methods on methods.id = sketches.symbol
+join classes owners on owners.id = methods.cls
+join constants names on names.id = methods.name
+join constants descriptors on descriptors.id = methods.descriptor
+where sketches.kind = ? order by sketches.mods desc limit ?""";
+            case FIELD -> """
+select owners.name || '.' || names.constant || ':' || descriptors.name, sketches.mods from symbol_sketches sketches
+join fields on fields.id = sketches.symbol
+join classes owners on owners.id = fields.cls
+join constants names on names.id = fields.name
+join classes descriptors on descriptors.id = fields.descriptor
+where sketches.kind = ? order by sketches.mods desc limit ?""";
+            case ANNOTATION -> """
+select classes.name, sketches.mods from symbol_sketches sketches
+join classes on classes.id = sketches.symbol
+where sketches.kind = ? order by sketches.mods desc limit ?""";
+            case TAG -> """
+select constants.constant, sketches.mods from symbol_sketches sketches
+join constants on constants.id = sketches.symbol
+where sketches.kind = ? order by sketches.mods desc limit ?""";
+        };
+        return jdbi.withHandle(handle -> handle.createQuery(query)
+                .bind(0, kind.name().toLowerCase(Locale.ROOT))
+                .bind(1, limit)
+                .execute(returningListOf(rs -> new SymbolUsage(rs.getString(1), rs.getInt(2), counts.estimate(symbolHash(kind, rs.getString(1)))))));
+    }
+
+    @Override
+    public @Nullable SymbolUsage estimateUsage(SymbolKind kind, String symbol) {
+        var counts = getUsageCountsSketch();
+        if (counts == null) return getUsage(kind, symbol);
+
+        return jdbi.withHandle(handle -> {
+            var id = findSymbol(handle, kind, symbol);
+            if (id == null) return null;
+
+            return handle.createQuery("select mods from symbol_sketches where kind = ? and symbol = ?")
+                    .bind(0, kind.name().toLowerCase(Locale.ROOT))
+                    .bind(1, id)
+                    .mapTo(Integer.class)
+                    .findOne()
+                    .map(mods -> new SymbolUsage(symbol, mods, counts.estimate(symbolHash(kind, symbol))))
+                    .orElse(null);
+        });
+    }
+
+    /**
+     * {@return the sketch of the usage counts merged by {@link #mergeSketches()}, or {@code null} if the sketches were never merged}
+     */
+    @Nullable
+    private CountMinSketch getUsageCountsSketch() {
+        return jdbi.withHandle(handle -> handle.createQuery("select counts from usage_counts_sketch")
+                .map((rs, ctx) -> CountMinSketch.fromBytes(rs.getBytes(1)))
+                .findOne()
+                .orElse(null));
+    }
+
+    /**
+     * {@return the id of the symbol of the given kind named like in {@link SymbolUsage#symbol()}, or {@code null} if it's not known}
+     */
+    @Nullable
+    private static Integer findSymbol(Handle handle, SymbolKind kind, String symbol) {
+        return switch (kind) {
+            case METHOD -> {
+                int desc = symbol.indexOf('(');
+                int dot = desc < 0 ? -1 : symbol.lastIndexOf('.', desc);
+                if (dot < 0) yield null;
+                yield handle.createQuery("""
+select methods.id from methods
+join classes owners on owners.id = methods.cls
+join constants names on names.id = methods.name
+join constants descriptors on descriptors.id = methods.descriptor
+where owners.name = ? and names.constant = ? and descriptors.constant = ?""")
+                        .bind(0, symbol.substring(0, dot))
+                        .bind(1, symbol.substring(dot + 1, desc))
+                        .bind(2, symbol.substring(desc))
+                        .mapTo(Integer.class)
+                        .findOne()
+                        .orElse(null);
+            }
+            case FIELD -> {
+                int desc = symbol.lastIndexOf(':');
+                int dot = desc < 0 ? -1 : symbol.lastIndexOf('.', desc);
+                if (dot < 0) yield null;
+                yield handle.createQuery("""
+select fields.id from fields
+join classes owners on owners.id = fields.cls
+join constants names on names.id = fields.name
+join classes descriptors on descriptors.id = fields.descriptor
+where owners.name = ? and names.constant = ? and descriptors.name = ?""")
+                        .bind(0, symbol.substring(0, dot))
+                        .bind(1, symbol.substring(dot + 1, desc))
+                        .bind(2, symbol.substring(desc + 1))
+                        .mapTo(Integer.class)
+                        .findOne()
+                        .orElse(null);
+            }
+            case ANNOTATION -> handle.createQuery("select id from classes where name = ?")
+                    .bind(0, symbol)
+                    .mapTo(Integer.class)
+                    .findOne()
+                    .orElse(null);
+            case TAG -> handle.createQuery("select id from constants where constant = ?")
+                    .bind(0, symbol)
+                    .mapTo(Integer.class)
+                    .findOne()
+                    .orElse(null);
+        };
+    }
+
+    @Override
+    public void mergeSketches() {
+        // The mods stored by a bulk load are merged once it finishes
+        if (!sketchesChanged || bulkLoading) return;
+        sketchesChanged = false;
+
+        var counts = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        try (var sketches = streamQuery("""
+select mod_sketches.counts from mod_sketches
+join mods on mods.id = mod_sketches.mod and mods.current_generation = mod_sketches.generation and not mods.loader""", rs -> rs.getBytes(1))) {
+            sketches.forEach(sketch -> counts.merge(CountMinSketch.fromBytes(sketch)));
+        }
 
-                @Override
-                public void markAsKnown(String fileSha1) {
-                    try {
-                        var stmt = con.prepareStatement("insert into known_files(mod, sha1) values (?, ?)");
-                        stmt.setInt(1, modId);
-                        stmt.setString(2, fileSha1);
-                        stmt.execute();
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
+        // Readers keep seeing the previous sketches until the new ones are committed
+        jdbi.useTransaction(handle -> {
+            handle.execute("delete from symbol_sketches");
+            int symbols = 0;
+            for (var kind : SymbolKind.values()) {
+                symbols += mergeSymbolSketches(handle.getConnection(), kind);
+            }
+            handle.createUpdate("insert into usage_counts_sketch(counts, merged) values (?, ?) on conflict (id) do update set counts = excluded.counts, merged = excluded.merged")
+                    .bind(0, counts.toBytes())
+                    .bind(1, Timestamp.from(Instant.now()))
+                    .execute();
+            LOGGER.debug("Merged the usage sketches of {} symbols", symbols);
+        });
+    }
+
+    /**
+     * Merge the distinct-mod sketch of each symbol of the kind from the registers set by the visible generations of the (non-loader) mods using it.
+     *
+     * @return the amount of merged symbols
+     */
+    private static int mergeSymbolSketches(Connection con, SymbolKind kind) throws SQLException {
+        var usages = switch (kind) {
+            case METHOD -> "select mod, generation, reference as symbol from method_usages";
+            case FIELD -> "select mod, generation, reference as symbol from field_usages";
+            case ANNOTATION -> "select mod, generation, annotation as symbol from annotation_usages";
+            case TAG -> "select mod, generation, tag as symbol from tag_usages";
+        };
+
+        var select = con.prepareStatement("select usages.symbol, mod_sketches.hll_register, max(mod_sketches.hll_rank) from (" + usages + """
+) usages
+join mods on mods.id = usages.mod and mods.current_generation = usages.generation and not mods.loader
+join mod_sketches on mod_sketches.mod = usages.mod and mod_sketches.generation = usages.generation
+group by usages.symbol, mod_sketches.hll_register
+order by usages.symbol""");
+        select.setFetchSize(FETCH_SIZE);
+
+        int symbols = 0;
+        try (var insert = new BatchingStatement(con.prepareStatement("insert into symbol_sketches(kind, symbol, registers, mods) values (?, ?, ?, ?)"), 1000);
+             var rs = select.executeQuery()) {
+            // The registers of a symbol are consecutive, so only the sketch of one symbol is kept in memory at a time
+            int symbol = 0;
+            HyperLogLog sketch = null;
+            while (rs.next()) {
+                if (sketch == null || rs.getInt(1) != symbol) {
+                    if (sketch != null) {
+                        addSymbolSketch(insert, kind, symbol, sketch);
+                        symbols++;
                     }
+                    symbol = rs.getInt(1);
+                    sketch = new HyperLogLog(SKETCH_PRECISION);
                 }
+                sketch.set(rs.getInt(2), rs.getInt(3));
+            }
+            if (sketch != null) {
+                addSymbolSketch(insert, kind, symbol, sketch);
+                symbols++;
+            }
+            insert.executeBatch();
+        }
+        return symbols;
+    }
 
-                @Override
-                public void setIndexDate(Instant date) {
-                    try {
-                        var stmt = con.prepareStatement("update mods set index_date = ? where id = ?");
-                        stmt.setTimestamp(1, Timestamp.from(date));
-                        stmt.setInt(2, modId);
-                        stmt.execute();
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
+    private static void addSymbolSketch(BatchingStatement insert, SymbolKind kind, int symbol, HyperLogLog sketch) throws SQLException {
+        insert.setString(1, kind.name().toLowerCase(Locale.ROOT));
+        insert.setInt(2, symbol);
+        insert.setBytes(3, sketch.toBytes());
+        insert.setInt(4, (int) sketch.estimate());
+        insert.addBatch();
+    }
+
+    /**
+     * Store the sketch of the usages of the mod generation, adding the counts to those of the generation when the write adds to it.
+     */
+    private static void insertSketch(Connection con, int modId, int generation, byte[] usageCounts) throws SQLException {
+        var select = con.prepareStatement("select counts from mod_sketches where mod = ? and generation = ? for update");
+        select.setInt(1, modId);
+        select.setInt(2, generation);
+        var rs = select.executeQuery();
+        if (rs.next()) {
+            var counts = CountMinSketch.fromBytes(rs.getBytes(1));
+            counts.merge(CountMinSketch.fromBytes(usageCounts));
+            usageCounts = counts.toBytes();
+        }
+
+        // The mod is the single element it adds to the distinct-mod sketches of the symbols it uses
+        var hash = Hashing.murmur3_128().hashInt(modId).asLong();
+        var stmt = con.prepareStatement("insert into mod_sketches(mod, generation, hll_register, hll_rank, counts) values (?, ?, ?, ?, ?) on conflict (mod, generation) do update set counts = excluded.counts");
+        stmt.setInt(1, modId);
+        stmt.setInt(2, generation);
+        stmt.setShort(3, (short) HyperLogLog.register(hash, SKETCH_PRECISION));
+        stmt.setShort(4, (short) HyperLogLog.rank(hash, SKETCH_PRECISION));
+        stmt.setBytes(5, usageCounts);
+        stmt.execute();
+    }
+
+    /**
+     * {@return the key of the symbol, named like in {@link SymbolUsage#symbol()}, in the count-min sketches of the usages}
+     */
+    private static long symbolHash(SymbolKind kind, String symbol) {
+        return Hashing.murmur3_128().newHasher()
+                .putInt(kind.ordinal())
+                .putString(symbol, StandardCharsets.UTF_8)
+                .hash()
+                .asLong();
+    }
+
+    @Override
+    public Stream<Object[]> streamDataset(ExportDataset dataset) {
+        var columns = dataset.getColumns().size();
+        return streamQuery(switch (dataset) {
+            case MODS -> "select id, name, version, loader, license, authors, maven_coordinates, curseforge_project_id, modrinth_project_id, index_date from mods";
+            case CLASS_DEFS -> "select cd.mod, c.name from current_class_defs cd join classes c on c.id = cd.type";
+            case METHOD_REFERENCES -> """
+select u.mod, o.name, n.constant, d.constant, u.count, u.classes from current_method_usages u
+join methods m on m.id = u.reference join classes o on o.id = m.cls
+join constants n on n.id = m.name join constants d on d.id = m.descriptor""";
+            case FIELD_REFERENCES -> """
+select u.mod, o.name, n.constant, d.name, u.count, u.classes from current_field_usages u
+join fields f on f.id = u.reference join classes o on o.id = f.cls
+join constants n on n.id = f.name join classes d on d.id = f.descriptor""";
+        }, rs -> {
+            var row = new Object[columns];
+            for (int i = 0; i < columns; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+            return row;
+        });
+    }
+
+    private static int getCurrentGeneration(Connection con, int modId) throws SQLException {
+        var stmt = con.prepareStatement("select current_generation from mods where id = ?");
+        stmt.setInt(1, modId);
+        var rs = stmt.executeQuery();
+        return rs.next() ? rs.getInt(1) : 0;
+    }
+
+    private static int lockCurrentGeneration(Connection con, int modId) throws SQLException {
+        // Lock the mod so that concurrent stores of the same mod take the usages of the right generation out of the totals
+        var stmt = con.prepareStatement("select current_generation from mods where id = ? for update");
+        stmt.setInt(1, modId);
+        var rs = stmt.executeQuery();
+        return rs.next() ? rs.getInt(1) : 0;
+    }
+
+    /**
+     * Apply the difference between the usages of the new generation of the mod and its previous generation (or its previous usages) to the totals.
+     */
+    private static void applyUsageTotals(Connection con, int modId, @Nullable Integer previousGeneration, int generation, @Nullable String previousUsages) throws SQLException {
+        var stmt = con.prepareStatement("select apply_usage_totals_diff(?, ?, ?, ?::jsonb)");
+        stmt.setInt(1, modId);
+        stmt.setObject(2, previousGeneration, Types.INTEGER);
+        stmt.setInt(3, generation);
+        stmt.setString(4, previousUsages);
+        stmt.execute();
+    }
+
+    private static String snapshotUsages(Connection con, int modId, int generation) throws SQLException {
+        var stmt = con.prepareStatement("select snapshot_usages(?, ?)::text");
+        stmt.setInt(1, modId);
+        stmt.setInt(2, generation);
+        var rs = stmt.executeQuery();
+        rs.next();
+        return rs.getString(1);
+    }
+
+    private static int nextGeneration(Connection con) throws SQLException {
+        try (var stmt = con.createStatement()) {
+            var rs = stmt.executeQuery("select nextval('mod_generations')");
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void insertClasses(Connection con, int modId, int generation, List<PreparedWrite.ClassRow> classes, ResolvedReferences references, boolean packedReferences) throws SQLException {
+        if (classes.isEmpty()) return;
+
+        var stmt = new BatchingStatement(con.prepareStatement("select * from insert_class_resolved(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"), 500);
+        for (int i = 0; i < classes.size(); i++) {
+            var aClass = classes.get(i);
+            var refs = references.classes().get(i);
+            stmt.setInt(1, modId);
+            stmt.setInt(2, generation);
+            stmt.setString(3, aClass.name());
+            stmt.setString(4, aClass.superClass());
+            stmt.setArray(5, con.createArrayOf("text", aClass.interfaces()));
+            stmt.setString(6, aClass.annotations());
+            stmt.setString(7, aClass.fields());
+            stmt.setString(8, aClass.methods());
+            stmt.setArray(9, con.createArrayOf("integer", refs.methods()));
+            stmt.setArray(10, con.createArrayOf("integer", refs.methodCounts()));
+            stmt.setArray(11, con.createArrayOf("integer", refs.fields()));
+            stmt.setArray(12, con.createArrayOf("integer", refs.fieldCounts()));
+            stmt.setBoolean(13, packedReferences);
+            stmt.addBatch();
+        }
+
+        stmt.executeBatch();
+    }
+
+    /**
+     * Resolve the members referenced by the classes to their ids, taking them from the {@link SymbolCache} when possible and resolving
+     * the other ones (creating the members which don't exist yet) in a single call per kind of member.
+     */
+    private ResolvedReferences resolveReferences(Connection con, List<PreparedWrite.ClassRow> classes) throws SQLException {
+        var parsed = new ArrayList<JsonArray>(classes.size());
+        for (var aClass : classes) {
+            parsed.add(JsonParser.parseString(aClass.refs()).getAsJsonArray());
+        }
+
+        var createdMethods = new HashMap<String, Integer>();
+        var createdFields = new HashMap<String, Integer>();
+        var methodIds = resolveMembers(con, parsed, 0, symbolCache.methods, createdMethods, "resolve_method_ids");
+        var fieldIds = resolveMembers(con, parsed, 1, symbolCache.fields, createdFields, "resolve_field_ids");
+
+        var resolved = new ArrayList<ResolvedReferences.ClassReferences>(parsed.size());
+        for (var refs : parsed) {
+            var methods = refs.get(0).getAsJsonArray();
+            var fields = refs.get(1).getAsJsonArray();
+            var methodRefs = new Integer[methods.size()];
+            var methodCounts = new Integer[methods.size()];
+            for (int i = 0; i < methodRefs.length; i++) {
+                var ref = methods.get(i).getAsJsonArray();
+                methodRefs[i] = methodIds.get(memberKey(ref));
+                methodCounts[i] = ref.get(3).getAsInt();
+            }
+            var fieldRefs = new Integer[fields.size()];
+            var fieldCounts = new Integer[fields.size()];
+            for (int i = 0; i < fieldRefs.length; i++) {
+                var ref = fields.get(i).getAsJsonArray();
+                fieldRefs[i] = fieldIds.get(memberKey(ref));
+                fieldCounts[i] = ref.get(3).getAsInt();
+            }
+            resolved.add(new ResolvedReferences.ClassReferences(methodRefs, methodCounts, fieldRefs, fieldCounts));
+        }
+        return new ResolvedReferences(resolved, createdMethods, createdFields);
+    }
+
+    /**
+     * {@return the ids of the members of the given kind referenced by the classes, by {@linkplain #memberKey(JsonArray) key}}
+     * The members missing from the cache are resolved in the order of their keys so that concurrent writes creating the same members don't deadlock,
+     * and are added to {@code resolved} to be cached once the write is committed.
+     */
+    private static Map<String, Integer> resolveMembers(Connection con, List<JsonArray> refs, int kind, Map<String, Integer> cache, Map<String, Integer> resolved, String function) throws SQLException {
+        var ids = new HashMap<String, Integer>();
+        var missing = new TreeMap<String, JsonArray>();
+        for (var classRefs : refs) {
+            for (var element : classRefs.get(kind).getAsJsonArray()) {
+                var ref = element.getAsJsonArray();
+                var key = memberKey(ref);
+                if (ids.containsKey(key) || missing.containsKey(key)) continue;
+
+                var id = cache.get(key);
+                if (id == null) {
+                    missing.put(key, ref);
+                } else {
+                    ids.put(key, id);
+                }
+            }
+        }
+        if (missing.isEmpty()) return ids;
+
+        var owners = new String[missing.size()];
+        var names = new String[missing.size()];
+        var descriptors = new String[missing.size()];
+        int i = 0;
+        for (var ref : missing.values()) {
+            owners[i] = ref.get(0).getAsString();
+            names[i] = ref.get(1).getAsString();
+            descriptors[i] = ref.get(2).getAsString();
+            i++;
+        }
+
+        try (var stmt = con.prepareStatement("select " + function + "(?, ?, ?)")) {
+            stmt.setArray(1, con.createArrayOf("text", owners));
+            stmt.setArray(2, con.createArrayOf("text", names));
+            stmt.setArray(3, con.createArrayOf("text", descriptors));
+            var rs = stmt.executeQuery();
+            rs.next();
+            var memberIds = (Integer[]) rs.getArray(1).getArray();
+
+            i = 0;
+            for (var key : missing.keySet()) {
+                ids.put(key, memberIds[i]);
+                resolved.put(key, memberIds[i]);
+                i++;
+            }
+        }
+        return ids;
+    }
+
+    private static String memberKey(JsonArray ref) {
+        return ref.get(0).getAsString() + '.' + ref.get(1).getAsString() + ' ' + ref.get(2).getAsString();
+    }
+
+    private static void insertModReferences(Connection con, int modId, int generation, @Nullable String refs) throws SQLException {
+        if (refs == null) return;
+
+        var stmt = con.prepareStatement("select * from insert_mod_references(?, ?, ?)");
+        stmt.setInt(1, modId);
+        stmt.setInt(2, generation);
+        stmt.setString(3, refs);
+        stmt.execute();
+    }
+
+    private static void insertTags(Connection con, int modId, int generation, List<TagFile> tags) throws SQLException {
+        if (tags.isEmpty()) return;
+
+        var stmt = new BatchingStatement(con.prepareStatement("select * from insert_tag(?, ?, ?, ?, ?)"), 250);
+        for (var tag : tags) {
+            stmt.setInt(1, modId);
+            stmt.setInt(2, generation);
+            stmt.setString(3, tag.name());
+            stmt.setBoolean(4, tag.replace());
+            stmt.setArray(5, con.createArrayOf("text", tag.entries().toArray(String[]::new)));
+            stmt.addBatch();
+        }
+
+        stmt.executeBatch();
+    }
+
+    private static void insertEnumExtensions(Connection con, int modId, int generation, List<PreparedWrite.EnumExtensionRow> extensions) throws SQLException {
+        if (extensions.isEmpty()) return;
+
+        var stmt = new BatchingStatement(con.prepareStatement("select * from insert_enum_extension(?, ?, ?, ?, ?, ?)"), 100);
+        for (var ext : extensions) {
+            stmt.setInt(1, modId);
+            stmt.setInt(2, generation);
+            stmt.setString(3, ext.enumName());
+            stmt.setString(4, ext.name());
+            stmt.setString(5, ext.constructor());
+            stmt.setString(6, ext.parameters());
+            stmt.addBatch();
+        }
+
+        stmt.executeBatch();
+    }
+
+    /**
+     * Collects the data of a mod so that it can be written all at once, or journaled if the database is not available.
+     */
+    private static class RecordingModTracker implements ModTracker {
+        private static final String NO_REFS = "[[],[]]";
+
+        private final int modId;
+        private final ReferenceGranularity granularity;
+
+        private final List<PreparedWrite.ClassRow> classes = new ArrayList<>();
+        private final List<TagFile> tags = new ArrayList<>();
+        private final List<PreparedWrite.EnumExtensionRow> extensions = new ArrayList<>();
+        private final List<String> knownFiles = new ArrayList<>(1);
+        private final List<@Nullable String> knownFileFingerprints = new ArrayList<>(1);
+
+        // Rolled up references of all classes, as [total count, referencing classes], when storing with the mod granularity
+        private final Map<ClassData.Reference, int[]> methodRefs = new HashMap<>();
+        private final Map<ClassData.Reference, int[]> fieldRefs = new HashMap<>();
+
+        private final CountMinSketch usageCounts = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+
+        private boolean replace;
+        private Instant indexDate;
+        private PreparedWrite.MetadataRow metadata;
+
+        private RecordingModTracker(int modId, ReferenceGranularity granularity) {
+            this.modId = modId;
+            this.granularity = granularity;
+        }
+
+        @Override
+        public void insertClasses(List<ClassData> classes) {
+            for (var aClass : parentsFirst(classes)) {
+                this.classes.add(new PreparedWrite.ClassRow(
+                        aClass.name(), aClass.superClass(), aClass.interfaces(),
+                        Utils.GSON.toJson(formatAnnotations(aClass.annotations())),
+                        fields(aClass), methods(aClass), granularity == ReferenceGranularity.MOD ? NO_REFS : refs(aClass)
+                ));
+
+                if (granularity == ReferenceGranularity.MOD) {
+                    rollUp(aClass.methodRefs(), methodRefs);
+                    rollUp(aClass.fieldRefs(), fieldRefs);
                 }
+                countUsages(aClass);
+            }
+        }
+
+        /**
+         * Count the usages of the class in the sketch of the mod, the same way the usage totals count them.
+         */
+        private void countUsages(ClassData aClass) {
+            aClass.methodRefs().forEach((reference, count) -> usageCounts.add(symbolHash(SymbolKind.METHOD, reference.owner() + "." + reference.name() + reference.desc()), count));
+            aClass.fieldRefs().forEach((reference, count) -> usageCounts.add(symbolHash(SymbolKind.FIELD, reference.owner() + "." + reference.name() + ":" + reference.desc()), count));
+
+            for (var annotation : aClass.annotations()) {
+                usageCounts.add(symbolHash(SymbolKind.ANNOTATION, annotation.type().getInternalName()), 1);
+            }
+            for (var method : aClass.methods().values()) {
+                for (var annotation : method.annotations()) {
+                    usageCounts.add(symbolHash(SymbolKind.ANNOTATION, annotation.type().getInternalName()), 1);
+                }
+            }
+            for (var field : aClass.fields().values()) {
+                for (var annotation : field.annotations()) {
+                    usageCounts.add(symbolHash(SymbolKind.ANNOTATION, annotation.type().getInternalName()), 1);
+                }
+            }
+        }
+
+        /**
+         * Sort the classes so that the classes of the mod come after their super classes and interfaces, so that the insert functions
+         * can resolve the whole hierarchy of a class, and the methods it overrides, as soon as it is inserted.
+         */
+        private static List<ClassData> parentsFirst(List<ClassData> classes) {
+            var byName = new HashMap<String, ClassData>(classes.size());
+            for (var cls : classes) {
+                byName.put(cls.name(), cls);
+            }
+
+            var sorted = new LinkedHashMap<String, ClassData>(classes.size());
+            for (var cls : classes) {
+                addParentsFirst(cls, byName, sorted);
+            }
+            return List.copyOf(sorted.values());
+        }
+
+        private static void addParentsFirst(ClassData cls, Map<String, ClassData> byName, Map<String, ClassData> sorted) {
+            // Mark the class as visited before its parents to not loop on (invalid) cyclic hierarchies
+            if (sorted.containsKey(cls.name()) || byName.remove(cls.name()) == null) return;
+
+            if (cls.superClass() != null) {
+                var parent = byName.get(cls.superClass());
+                if (parent != null) addParentsFirst(parent, byName, sorted);
+            }
+            for (var itf : cls.interfaces()) {
+                var parent = byName.get(itf);
+                if (parent != null) addParentsFirst(parent, byName, sorted);
+            }
+            sorted.put(cls.name(), cls);
+        }
+
+        private static void rollUp(Map<ClassData.Reference, Integer> classRefs, Map<ClassData.Reference, int[]> modRefs) {
+            classRefs.forEach((reference, count) -> {
+                var total = modRefs.computeIfAbsent(reference, k -> new int[2]);
+                total[0] += count;
+                total[1]++;
             });
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        }
+
+        @Override
+        public void insertTags(List<TagFile> tags) {
+            this.tags.addAll(tags);
+            for (var tag : tags) {
+                usageCounts.add(symbolHash(SymbolKind.TAG, tag.name()), tag.entries().size());
+            }
+        }
+
+        @Override
+        public void insertEnumExtensions(List<EnumExtension> extensions) {
+            for (var ext : extensions) {
+                this.extensions.add(new PreparedWrite.EnumExtensionRow(ext.enumName(), ext.name(), ext.constructor(), Utils.GSON.toJson(ext.parameters())));
+            }
+        }
+
+        @Override
+        public void deleteCurrent() {
+            replace = true;
+        }
+
+        @Override
+        public void markAsKnown(String fileSha1, @Nullable String contentFingerprint) {
+            knownFiles.add(fileSha1);
+            knownFileFingerprints.add(contentFingerprint);
+        }
+
+        @Override
+        public void setIndexDate(Instant date) {
+            indexDate = date;
+        }
+
+        @Override
+        public void setMetadata(ModFileInfo info) {
+            metadata = metadataRow(info);
+        }
+
+        PreparedWrite build() {
+            return new PreparedWrite(modId, replace, classes, granularity == ReferenceGranularity.PACKED, granularity == ReferenceGranularity.MOD ? modRefs(methodRefs, fieldRefs) : null, tags, extensions, knownFiles, indexDate, knownFileFingerprints, metadata, usageCounts.toBytes());
         }
     }
 
     @Override
     public void close() throws Exception {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Stream the rows of the query through a server-side cursor, fetching {@link #FETCH_SIZE} rows at a time.
+     * The returned stream holds a connection until it is closed.
+     */
+    private <T> Stream<T> streamQuery(String sql, Mapper<T> mapper) {
+        var handle = jdbi.open();
+        try {
+            // Postgres only uses cursors in transactions
+            handle.begin();
+            return handle.createQuery(sql)
+                    .setFetchSize(FETCH_SIZE)
+                    .map((rs, ctx) -> mapper.apply(rs))
+                    .stream()
+                    .onClose(() -> {
+                        handle.rollback();
+                        handle.close();
+                    });
+        } catch (RuntimeException exception) {
+            handle.close();
+            throw exception;
+        }
     }
 
     private static <T> ResultProducer<T> returning(Mapper<T> function) {
@@ -401,10 +2068,6 @@ order by mods.name;""")
         };
     }
 
-    private static <T, R> ResultProducer<R> map(ResultProducer<T> prod, Function<T, R> func) {
-        return (statementSupplier, ctx) -> func.apply(prod.produce(statementSupplier, ctx));
-    }
-
     @FunctionalInterface
     private interface Mapper<T> {
         T apply(ResultSet rs) throws SQLException;
@@ -417,9 +2080,13 @@ order by mods.name;""")
             var sub = new JsonArray();
             sub.add(method.name());
             sub.add(method.desc());
-            if (!method.annotations().isEmpty()) {
+            var overridable = (method.accessLevel() & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) == 0 && !method.name().startsWith("<");
+            if (!method.annotations().isEmpty() || !overridable) {
                 sub.add(formatAnnotations(method.annotations()));
             }
+            if (!overridable) {
+                sub.add(false);
+            }
             json.add(sub);
         }
 
@@ -458,6 +2125,24 @@ order by mods.name;""")
         return Utils.GSON.toJson(json);
     }
 
+    private static String modRefs(Map<ClassData.Reference, int[]> methodRefs, Map<ClassData.Reference, int[]> fieldRefs) {
+        var json = new JsonArray();
+        for (var refs : List.of(methodRefs, fieldRefs)) {
+            var subs = new JsonArray();
+            refs.forEach((reference, total) -> {
+                var subSub = new JsonArray();
+                subSub.add(reference.owner());
+                subSub.add(reference.name());
+                subSub.add(reference.desc());
+                subSub.add(total[0]);
+                subSub.add(total[1]);
+                subs.add(subSub);
+            });
+            json.add(subs);
+        }
+        return Utils.GSON.toJson(json);
+    }
+
     private static String fields(ClassData cd) {
         var json = new JsonArray();
 
@@ -601,6 +2286,94 @@ order by mods.name;""")
         return new JsonPrimitive(val);
     }
 
+    /**
+     * A write-through cache of the mods, so that identifying the mod of each candidate file during an index run doesn't require querying the same rows over and over.
+     * <p>
+     * The results of the lookups are cached by key (platform project ID, maven coordinates or name), including lookups that found no mod.
+     * Since a change to a mod can change which lookups it matches, the lookups matching either the old or the new row of a changed mod are evicted.
+     * This relies on all changes to the mods of a schema being made through the same database, see {@link Main#createDatabase(String, net.neoforged.waifu.platform.ModLoader)}.
+     */
+    private final class ModCache {
+        private final Map<Integer, SqlMod> byId = new ConcurrentHashMap<>();
+        private final Map<String, int[]> byKey = new ConcurrentHashMap<>();
+
+        // Incremented with every change so that lookups racing with a change do not cache the rows they read before it
+        private long changes;
+
+        @Nullable
+        SqlMod lookupOne(String key, Supplier<List<SqlMod>> query) {
+            var mods = lookup(key, query);
+            return mods.isEmpty() ? null : mods.getFirst();
+        }
+
+        List<SqlMod> lookup(String key, Supplier<List<SqlMod>> query) {
+            var ids = byKey.get(key);
+            if (ids != null) {
+                var mods = new ArrayList<SqlMod>(ids.length);
+                for (var id : ids) {
+                    var mod = byId.get(id);
+                    if (mod == null) break;
+                    mods.add(mod);
+                }
+                if (mods.size() == ids.length) {
+                    return mods;
+                }
+            }
+
+            long version;
+            synchronized (this) {
+                version = changes;
+            }
+
+            var mods = query.get();
+
+            synchronized (this) {
+                if (version == changes) {
+                    for (var mod : mods) {
+                        byId.put(mod.id, mod);
+                    }
+                    byKey.put(key, mods.stream().mapToInt(mod -> mod.id).toArray());
+                }
+            }
+            return mods;
+        }
+
+        /**
+         * Record that the mod changed from the {@code old} row to the {@code updated} row, or was deleted if {@code updated} is {@code null}.
+         */
+        synchronized void changed(SqlMod old, @Nullable SqlMod updated) {
+            changes++;
+
+            var cached = byId.remove(old.id);
+            keys(old).forEach(byKey::remove);
+            if (cached != null) {
+                keys(cached).forEach(byKey::remove);
+            }
+            if (updated != null) {
+                keys(updated).forEach(byKey::remove);
+                byId.put(updated.id, updated);
+            }
+        }
+
+        synchronized void clear() {
+            changes++;
+            byId.clear();
+            byKey.clear();
+        }
+
+        private static List<String> keys(SqlMod mod) {
+            var keys = new ArrayList<String>(5);
+            keys.add("name:" + mod.name);
+            if (mod.cfProjectId != 0) keys.add(ModPlatform.CURSEFORGE + ":" + mod.cfProjectId);
+            if (mod.modrinthProjectId != null) keys.add(ModPlatform.MODRINTH + ":" + mod.modrinthProjectId);
+            if (mod.mavenCoordinates != null) {
+                keys.add("maven:" + mod.mavenCoordinates);
+                if (mod.loader) keys.add("loader:" + mod.mavenCoordinates);
+            }
+            return keys;
+        }
+    }
+
     public class SqlMod implements DatabaseMod<SqlMod> {
         private final int id;
         private final String mavenCoordinates;
@@ -660,75 +2433,119 @@ order by mods.name;""")
         }
 
         @Override
-        public void updateMetadata(ModFileInfo info) {
-            var meta = info.getMetadata();
+        public boolean hasContentFingerprints() {
+            return jdbi.withHandle(handle -> handle.createQuery("select exists (select 1 from known_files where mod = ? and content_fingerprint is not null)")
+                    .bind(0, id)
+                    .mapTo(Boolean.class)
+                    .one());
+        }
 
-            String mtoml = null;
-            String mtomlJson = null;
-            try {
-                var met = info.getModMetadata();
-                if (met != null) {
-                    mtoml = met.first();
-                    mtomlJson = met.second();
-                }
-            } catch (Exception ignored) {
-
-            }
-
-            String modsToml = mtoml, modsTomlJson = mtomlJson;
-
-            // TODO - find a better way that retains old data in case we update from a JiJ artifact that's also linked to a project
-            jdbi.useHandle(handle -> handle.createUpdate("update mods set " +
-                            "version = :ver, name = :name, mod_ids = :mids, authors = :authors," +
-                            "nested_tree = (:nested::jsonb), maven_coordinates = :coords, license = :license," +
-                            "mod_metadata = :meta, mod_metadata_json = (:metajson::jsonb), manifest = (:man::jsonb)" +
-                            "where id = :id")
-                    .bind("ver", info.getVersion().toString())
-                    .bind("name", info.getDisplayName())
-                    .bind("mids", info.getMods().stream().map(ModInfo::modId).toArray(String[]::new))
-                    .bind("authors", orNull(info.getMods().stream().map(ModInfo::authors)
-                            .filter(Objects::nonNull)
-                            .collect(Collectors.joining("; "))))
-                    .bind("nested", nestedTree(info))
-                    .bind("coords", info.getMavenCoordinates() == null ? mavenCoordinates : info.getMavenCoordinates())
-                    .bind("license", meta == null ? null : meta.license())
-
-                    .bind("meta", modsToml)
-                    .bind("metajson", modsTomlJson)
-                    .bind("man", Utils.GSON.toJson(manifestToJson(info.getManifest())))
-                    .bind("id", id)
-                    .execute());
+        @Override
+        public void updateMetadata(ModFileInfo info) {
+            var updated = jdbi.inTransaction(handle -> writeMetadata(handle.getConnection(), id, metadataRow(info)));
+            modCache.changed(this, updated);
+            facetsChanged = true;
         }
 
         @Override
         public void link(PlatformModFile platformFile) {
-            jdbi.useHandle(handle -> handle.createUpdate("update mods set " + platformFile.getPlatform().getName() + "_project_id = ? where id = ?")
-                    .bind(0, platformFile.getModId())
-                    .bind(1, id)
-                    .execute());
+            var updated = jdbi.inTransaction(handle -> {
+                var row = handle.createUpdate("update mods set " + platformFile.getPlatform().getName() + "_project_id = ? where id = ? returning *")
+                        .bind(0, platformFile.getModId())
+                        .bind(1, id)
+                        .execute(returning(SqlMod::new));
+                appendChange(handle, ChangeKind.LINK, null, null);
+                return row;
+            });
+            modCache.changed(this, updated);
         }
 
         @Override
         public void link(String mavenCoords) {
-            jdbi.useHandle(handle -> handle.createUpdate("update mods set maven_coordinates = ? where id = ?")
-                    .bind(0, mavenCoords)
-                    .bind(1, id)
-                    .execute());
+            var updated = jdbi.inTransaction(handle -> {
+                var row = handle.createUpdate("update mods set maven_coordinates = ? where id = ? returning *")
+                        .bind(0, mavenCoords)
+                        .bind(1, id)
+                        .execute(returning(SqlMod::new));
+                appendChange(handle, ChangeKind.LINK, null, null);
+                return row;
+            });
+            modCache.changed(this, updated);
         }
 
         @Override
         public void transferTo(SqlMod other) {
-            jdbi.useHandle(handle -> handle.createUpdate("update known_files set mod = ? where mod = ?")
+            jdbi.useTransaction(handle -> transferTo(handle, other));
+            // The rows of the mods are unchanged, but the mod losing its files is about to be deleted
+            modCache.changed(this, null);
+            modCache.changed(other, null);
+        }
+
+        private void transferTo(Handle handle, SqlMod other) {
+            handle.createUpdate("update known_files set mod = ? where mod = ?")
                     .bind(0, other.id)
                     .bind(1, this.id)
-                    .execute());
+                    .execute();
+            appendChange(handle, ChangeKind.TRANSFER, null, other.id);
+        }
+
+        private void appendChange(Handle handle, ChangeKind kind, @Nullable Integer[] symbols, @Nullable Integer target) {
+            handle.createUpdate("select append_index_change(?, (select current_generation from mods where id = ?), ?, ?, ?)")
+                    .bind(0, id)
+                    .bind(1, id)
+                    .bind(2, changeKind(kind))
+                    .bind(3, symbols)
+                    .bind(4, target)
+                    .execute();
         }
 
         @Override
         public void delete() {
-            jdbi.useHandle(handle -> handle.createUpdate("delete from mods where id = ?")
+            jdbi.useTransaction(this::delete);
+            modCache.changed(this, null);
+        }
+
+        private void delete(Handle handle) {
+            var types = handle.createQuery("select array_agg(distinct type) from class_defs where mod = ?")
                     .bind(0, id)
-                    .execute());
+                    .mapTo(Integer[].class)
+                    .one();
+            var tags = handle.createQuery("select array_agg(distinct tag) from tags where mod = ?")
+                    .bind(0, id)
+                    .mapTo(Integer[].class)
+                    .one();
+
+            // The derived tables are rebuilt at once when the bulk load finishes
+            if (!bulkLoading) {
+                handle.createUpdate("select apply_usage_totals_diff(id, current_generation, null, null) from mods where id = ?")
+                        .bind(0, id)
+                        .execute();
+            }
+
+            handle.createUpdate("delete from mods where id = ?")
+                    .bind(0, id)
+                    .execute();
+
+            if (bulkLoading) {
+                appendChange(handle, ChangeKind.DELETE, types, null);
+                return;
+            }
+
+            // Classes of other mods may have inherited ancestors through the classes of this mod
+            if (types != null) {
+                handle.createUpdate("insert into class_descendants_pending(type) select unnest(?)")
+                        .bind(0, types)
+                        .execute();
+            }
+
+            // The tags this mod replaced fall back to the entries of the other mods
+            if (tags != null) {
+                handle.createUpdate("insert into resolved_tags_pending(tag) select unnest(?)")
+                        .bind(0, tags)
+                        .execute();
+            }
+
+            appendChange(handle, ChangeKind.DELETE, types, null);
         }
 
         @Override
@@ -785,6 +2602,65 @@ order by mods.name;""")
         return str.isBlank() ? null : str;
     }
 
+    private record PendingBulkLoadObject(String name, String table, String kind, String definition) {
+        PendingBulkLoadObject(ResultSet rs) throws SQLException {
+            this(rs.getString("name"), rs.getString("tbl"), rs.getString("kind"), rs.getString("definition"));
+        }
+    }
+
+    /**
+     * The member references of the classes of a write, resolved to member ids, and the members which were resolved by the database (rather than the {@link SymbolCache}) for it.
+     */
+    private record ResolvedReferences(List<ClassReferences> classes, Map<String, Integer> methods, Map<String, Integer> fields) {
+        private record ClassReferences(Integer[] methods, Integer[] methodCounts, Integer[] fields, Integer[] fieldCounts) {}
+    }
+
+    /**
+     * A cache of the ids of the members referenced by the stored classes, by owner, name and descriptor, so that the members referenced by most mods
+     * (those of the game and of the loader) don't have to be resolved by name for every stored class.
+     * <p>
+     * Member ids are never reused, but a cached id can become stale when its member is reclaimed as an orphan. The cache is cleared when this database
+     * reclaims members, and {@code insert_class_resolved} reports a missing member as a serialization failure, upon which the cache is cleared before the write is retried.
+     */
+    private static final class SymbolCache {
+        private final Map<String, Integer> methods = new ConcurrentHashMap<>();
+        private final Map<String, Integer> fields = new ConcurrentHashMap<>();
+
+        void add(ResolvedReferences references) {
+            add(methods, references.methods());
+            add(fields, references.fields());
+        }
+
+        private static void add(Map<String, Integer> cache, Map<String, Integer> ids) {
+            if (ids.isEmpty()) return;
+
+            // Evicting everything is crude, but the popular members are resolved again by the next few writes
+            if (cache.size() + ids.size() > SYMBOL_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.putAll(ids);
+        }
+
+        void clear() {
+            methods.clear();
+            fields.clear();
+        }
+    }
+
+    private record Dictionary(String table, List<String> references) {
+        String deleteOrphans() {
+            return "delete from " + table + " dict where dict.id >= ? and dict.id < ?" + references.stream()
+                    .map(ref -> {
+                        var spl = ref.split("\\.");
+                        if (ref.endsWith("[]")) {
+                            return " and not exists (select 1 from " + spl[0] + " where " + ref.substring(0, ref.length() - 2) + " @> array[dict.id])";
+                        }
+                        return " and not exists (select 1 from " + spl[0] + " where " + ref + " = dict.id)";
+                    })
+                    .collect(Collectors.joining());
+        }
+    }
+
     private static class BatchingStatement implements AutoCloseable {
         private final PreparedStatement statement;
         private final int batchSize;
@@ -812,6 +2688,10 @@ order by mods.name;""")
             statement.setInt(pos, arg);
         }
 
+        public void setBytes(int pos, byte[] arg) throws SQLException {
+            statement.setBytes(pos, arg);
+        }
+
         public void addBatch() throws SQLException {
             statement.addBatch();
             currentSize++;
@@ -828,7 +2708,7 @@ order by mods.name;""")
         }
 
         @Override
-        public void close() throws Exception {
+        public void close() throws SQLException {
             statement.close();
         }
     }
@@ -0,0 +1,129 @@
+package net.neoforged.waifu.db;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The header of a snapshot of the tables of a version schema, as written by {@link SQLDatabase#exportSnapshot(Path)}.
+ * <p>
+ * A snapshot file is made of the header followed by the data of each table, in the order of the header. The data of a table is the output
+ * of a binary {@code COPY} of its columns compressed with GZIP, and is stored together with its length and SHA-256 so that it can be verified
+ * and read independently of the other tables.
+ *
+ * @param schemaVersion the version of the last migration applied to the schema, which the schema the snapshot is imported into must match
+ * @param sequences     the last values of the sequences of the schema
+ */
+record SchemaSnapshot(String schemaVersion, Map<String, Long> sequences, List<Table> tables) {
+    private static final int MAGIC = 0x57414946; // WAIF
+    private static final int FORMAT_VERSION = 1;
+    private static final long HEADER_LENGTH_POSITION = 2 * Integer.BYTES;
+
+    /**
+     * @param offset the offset of the data of the table from the end of the header
+     */
+    record Table(String name, List<String> columns, long rows, long offset, long length, String sha256) {}
+
+    void write(OutputStream stream) throws IOException {
+        var bos = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bos)) {
+            out.writeUTF(schemaVersion);
+
+            out.writeInt(sequences.size());
+            for (var entry : sequences.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+
+            out.writeInt(tables.size());
+            for (var table : tables) {
+                out.writeUTF(table.name());
+                out.writeInt(table.columns().size());
+                for (var column : table.columns()) {
+                    out.writeUTF(column);
+                }
+                out.writeLong(table.rows());
+                out.writeLong(table.offset());
+                out.writeLong(table.length());
+                out.writeUTF(table.sha256());
+            }
+        }
+
+        var out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(bos.size());
+        bos.writeTo(out);
+        out.flush();
+    }
+
+    static SchemaSnapshot read(Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a snapshot");
+            }
+            var format = in.readInt();
+            if (format != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format " + format + ", expected " + FORMAT_VERSION);
+            }
+
+            var header = new byte[in.readInt()];
+            in.readFully(header);
+
+            var headerIn = new DataInputStream(new ByteArrayInputStream(header));
+            var schemaVersion = headerIn.readUTF();
+
+            int size = headerIn.readInt();
+            var sequences = new LinkedHashMap<String, Long>(size);
+            for (int i = 0; i < size; i++) {
+                sequences.put(headerIn.readUTF(), headerIn.readLong());
+            }
+
+            size = headerIn.readInt();
+            var tables = new ArrayList<Table>(size);
+            for (int i = 0; i < size; i++) {
+                var name = headerIn.readUTF();
+                int columnCount = headerIn.readInt();
+                var columns = new ArrayList<String>(columnCount);
+                for (int j = 0; j < columnCount; j++) {
+                    columns.add(headerIn.readUTF());
+                }
+                tables.add(new Table(name, columns, headerIn.readLong(), headerIn.readLong(), headerIn.readLong(), headerIn.readUTF()));
+            }
+
+            return new SchemaSnapshot(schemaVersion, sequences, tables);
+        }
+    }
+
+    /**
+     * {@return a stream of the compressed data of the table in the snapshot file}
+     */
+    static InputStream open(Path file, Table table) throws IOException {
+        var channel = FileChannel.open(file);
+        try {
+            var headerLength = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(headerLength, HEADER_LENGTH_POSITION);
+            channel.position(HEADER_LENGTH_POSITION + Integer.BYTES + headerLength.flip().getInt() + table.offset());
+            return ByteStreams.limit(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16), table.length());
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+}
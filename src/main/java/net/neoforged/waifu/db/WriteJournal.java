@@ -0,0 +1,216 @@
+package net.neoforged.waifu.db;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * A local append-only journal of records, stored in memory-mapped segment files.
+ * <p>
+ * Each record is stored as its length, the CRC32C of its payload and the payload itself. The length is written last so that a torn write
+ * is never mistaken for a complete record. Once a record has been replayed its length is negated, and segments without pending records are deleted.
+ */
+public class WriteJournal implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteJournal.class);
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ReentrantLock replayLock = new ReentrantLock();
+
+    private int pending;
+
+    public WriteJournal(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        try (var files = Files.list(directory)) {
+            for (var file : files.filter(p -> p.getFileName().toString().endsWith(".journal")).sorted().toList()) {
+                var segment = Segment.open(file, Long.parseLong(file.getFileName().toString().replace(".journal", "")), 0);
+                if (segment.pending == 0) {
+                    segment.delete();
+                } else {
+                    segments.add(segment);
+                    pending += segment.pending;
+                }
+            }
+        }
+
+        if (pending > 0) {
+            LOGGER.warn("Found {} pending writes in journal {}", pending, directory);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending == 0;
+    }
+
+    public synchronized void append(byte[] payload) {
+        try {
+            var active = segments.isEmpty() ? null : segments.getLast();
+            if (active == null || active.end + HEADER_SIZE + payload.length > active.buffer.capacity()) {
+                active = Segment.open(
+                        directory.resolve("%016d.journal".formatted(active == null ? 0 : active.index + 1)),
+                        active == null ? 0 : active.index + 1,
+                        Math.max(SEGMENT_SIZE, HEADER_SIZE + payload.length)
+                );
+                segments.add(active);
+            }
+
+            var crc = new CRC32C();
+            crc.update(payload);
+
+            active.buffer.put(active.end + HEADER_SIZE, payload);
+            active.buffer.putInt(active.end + 4, (int) crc.getValue());
+            active.buffer.putInt(active.end, payload.length);
+            active.buffer.force();
+
+            active.end += HEADER_SIZE + payload.length;
+            active.pending++;
+            pending++;
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Replay the pending records in the order they were appended in. Only one replay can run at a time, but records can be appended during it.
+     *
+     * @return the amount of replayed records
+     */
+    public int replay(Replayer replayer) {
+        if (!replayLock.tryLock()) return 0;
+        try {
+            int replayed = 0;
+            Record record;
+            while ((record = next()) != null) {
+                if (!replayer.replay(record.payload())) {
+                    break;
+                }
+                markReplayed(record);
+                replayed++;
+            }
+            return replayed;
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    @Nullable
+    private synchronized Record next() {
+        for (var segment : segments) {
+            while (segment.readPosition + HEADER_SIZE <= segment.end) {
+                int length = segment.buffer.getInt(segment.readPosition);
+                if (length > 0) {
+                    var payload = new byte[length];
+                    segment.buffer.get(segment.readPosition + HEADER_SIZE, payload);
+                    return new Record(segment, segment.readPosition, payload);
+                }
+                segment.readPosition += HEADER_SIZE - length;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void markReplayed(Record record) {
+        var segment = record.segment();
+        segment.buffer.putInt(record.position(), -record.payload().length);
+        segment.buffer.force();
+        segment.readPosition = record.position() + HEADER_SIZE + record.payload().length;
+        segment.pending--;
+        pending--;
+
+        // Only delete the segment we're appending to once nothing is pending anymore
+        if (segment.pending == 0 && (segment != segments.getLast() || pending == 0)) {
+            segments.remove(segment);
+            try {
+                segment.delete();
+            } catch (IOException exception) {
+                LOGGER.error("Failed to delete journal segment {}: ", segment.path, exception);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (var segment : segments) {
+            segment.channel.close();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Replayer {
+        /**
+         * {@return {@code true} if the record was consumed, or {@code false} if the replay should stop and the record should be retried later}
+         */
+        boolean replay(byte[] payload);
+    }
+
+    private record Record(Segment segment, int position, byte[] payload) {}
+
+    private static final class Segment {
+        private final Path path;
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private int end, readPosition, pending;
+
+        private Segment(Path path, long index, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, long index, int newSize) throws IOException {
+            var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            var size = channel.size() == 0 ? newSize : channel.size();
+            var segment = new Segment(path, index, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segment.scan();
+            return segment;
+        }
+
+        private void scan() {
+            var crc = new CRC32C();
+            int position = 0;
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0 || position + HEADER_SIZE + Math.abs(length) > buffer.capacity()) break;
+
+                if (length > 0) {
+                    var payload = new byte[length];
+                    buffer.get(position + HEADER_SIZE, payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                        LOGGER.warn("Found corrupted record in journal segment {} at position {}, discarding the rest of the segment", path, position);
+                        break;
+                    }
+                    pending++;
+                }
+
+                position += HEADER_SIZE + Math.abs(length);
+            }
+            end = position;
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -51,6 +51,11 @@ public class DiscordBot implements GameVersionIndexService.ListenerFactory {
     private static final List<Command.Choice> LOADERS = Arrays.stream(ModLoader.values())
             .map(l -> new Command.Choice(StringUtils.capitalise(l.name().toLowerCase(Locale.ROOT)), l.name()))
             .toList();
+    private static final List<Command.Choice> REFERENCE_GRANULARITIES = List.of(
+            new Command.Choice("Per class", IndexDatabase.ReferenceGranularity.CLASS.name()),
+            new Command.Choice("Per mod (coarse)", IndexDatabase.ReferenceGranularity.MOD.name()),
+            new Command.Choice("Per class, packed", IndexDatabase.ReferenceGranularity.PACKED.name())
+    );
 
     private final JDA jda;
     private final long channelId;
@@ -104,7 +109,9 @@ public class DiscordBot implements GameVersionIndexService.ListenerFactory {
                         new OptionData(OptionType.STRING, "version", "The version to index", true),
                         new OptionData(OptionType.STRING, "loader", "The loader to index", true)
                                 .addChoices(LOADERS),
-                        new OptionData(OptionType.STRING, "interval", "The index interval in time notation (like 1h30m). Defaults to the bot's global configuration time", false)
+                        new OptionData(OptionType.STRING, "interval", "The index interval in time notation (like 1h30m). Defaults to the bot's global configuration time", false),
+                        new OptionData(OptionType.STRING, "references", "How member references are stored. Defaults to per class", false)
+                                .addChoices(REFERENCE_GRANULARITIES)
                 );
             }
 
@@ -118,7 +125,17 @@ public class DiscordBot implements GameVersionIndexService.ListenerFactory {
 
                 var version = event.optString("version", "");
                 var loader = ModLoader.valueOf(event.optString("loader"));
+                var granularity = event.hasOption("references") ? IndexDatabase.ReferenceGranularity.valueOf(event.optString("references")) : null;
+                // Check the granularity before the version is tracked so that an unsupported one doesn't leave it tracked but not scheduled
+                if (granularity != null && !Main.createDatabase(version, loader).supportsReferenceGranularity(granularity)) {
+                    event.reply(unsupportedGranularity(granularity)).setEphemeral(true).queue();
+                    return;
+                }
+
                 database.addGameVersion(version, loader, interval == 0 ? null : interval);
+                if (granularity != null) {
+                    Main.createDatabase(version, loader).setReferenceGranularity(granularity);
+                }
                 event.reply("Started indexing version `" + version + "`").queue();
 
                 Main.schedule(version, loader, interval, DiscordBot.this, 30);
@@ -148,18 +165,85 @@ public class DiscordBot implements GameVersionIndexService.ListenerFactory {
                     if (future != null) {
                         future.cancel(event.optBoolean("force-cancel", false));
                     }
+                    Main.MAINTENANCE.unregister(version, loader);
                 } else {
                     event.reply("Version is not tracked for that loader!").setEphemeral(true).queue();
                 }
             }
         };
 
+        var storageCommand = new SlashCommand() {
+            {
+                name = "storage";
+                help = "Show the storage used by the tables of a version";
+                options = List.of(
+                        new OptionData(OptionType.STRING, "version", "The version to show the storage of", true),
+                        new OptionData(OptionType.STRING, "loader", "The loader to show the storage of", true)
+                                .addChoices(LOADERS)
+                );
+            }
+
+            @Override
+            protected void execute(SlashCommandEvent event) {
+                event.deferReply().complete();
+
+                var version = event.optString("version", "");
+                var loader = ModLoader.valueOf(event.optString("loader"));
+                var stats = Main.createDatabase(version, loader).getTableStats();
+
+                var embed = new EmbedBuilder();
+                embed.setTitle("Storage of version `" + version + "`, loader `" + loader.name().toLowerCase(Locale.ROOT) + "`");
+                embed.setDescription("Total: **" + stats.stream().mapToLong(IndexDatabase.TableStats::totalBytes).sum() / (1024 * 1024) + " MiB**\n");
+                for (var table : stats.subList(0, Math.min(stats.size(), 20))) {
+                    embed.appendDescription("- `%s`: %s MiB, %s live rows, %s dead rows (%.1f%% bloat)\n".formatted(
+                            table.table(), table.totalBytes() / (1024 * 1024), table.liveRows(), table.deadRows(),
+                            table.liveRows() + table.deadRows() == 0 ? 0d : table.deadRows() * 100d / (table.liveRows() + table.deadRows())
+                    ));
+                }
+                event.getHook().sendMessageEmbeds(embed.build()).complete();
+            }
+        };
+
+        var referencesCommand = new SlashCommand() {
+            {
+                name = "references";
+                help = "Change how member references of a version are stored";
+                options = List.of(
+                        new OptionData(OptionType.STRING, "version", "The version to change", true),
+                        new OptionData(OptionType.STRING, "loader", "The loader to change", true)
+                                .addChoices(LOADERS),
+                        new OptionData(OptionType.STRING, "granularity", "How member references are stored", true)
+                                .addChoices(REFERENCE_GRANULARITIES)
+                );
+            }
+
+            @Override
+            protected void execute(SlashCommandEvent event) {
+                var version = event.optString("version", "");
+                var loader = ModLoader.valueOf(event.optString("loader"));
+                var granularity = IndexDatabase.ReferenceGranularity.valueOf(event.optString("granularity"));
+                var indexDb = Main.createDatabase(version, loader);
+                if (!indexDb.supportsReferenceGranularity(granularity)) {
+                    event.reply(unsupportedGranularity(granularity)).setEphemeral(true).queue();
+                    return;
+                }
+
+                indexDb.setReferenceGranularity(granularity);
+                event.reply("Member references of version `" + version + "`, loader `" + loader.name().toLowerCase(Locale.ROOT) + "` will now be stored "
+                        + switch (granularity) {
+                    case CLASS -> "per class";
+                    case MOD -> "per mod";
+                    case PACKED -> "per class, in packed arrays";
+                } + ". Already indexed mods are converted when they are next re-indexed.").queue();
+            }
+        };
+
         builder.addSlashCommand(new SlashCommand() {
             {
                 name = "game-version";
                 help = "Track and untrack game versions";
                 children = new SlashCommand[] {
-                        trackVersionCommand, untrackVersionCommand
+                        trackVersionCommand, untrackVersionCommand, storageCommand, referencesCommand
                 };
             }
 
@@ -298,6 +382,10 @@ public class DiscordBot implements GameVersionIndexService.ListenerFactory {
         return builder.build();
     }
 
+    private static String unsupportedGranularity(IndexDatabase.ReferenceGranularity granularity) {
+        return "The index database of this bot cannot store member references with the `" + granularity.name().toLowerCase(Locale.ROOT) + "` granularity!";
+    }
+
     private MessageChannel getChannel() {
         return jda.getChannelById(MessageChannel.class, channelId);
     }
@@ -80,6 +80,11 @@ abstract class BaseModFileInfo implements ModFileInfo {
         return path.computeMurmur2();
     }
 
+    @Override
+    public String computeContentFingerprint() throws IOException {
+        return path.computeContentFingerprint();
+    }
+
     @Override
     public Pair<String, String> getModMetadata() throws Exception {
         if (reader.getMetadataFileName() == null) return null;
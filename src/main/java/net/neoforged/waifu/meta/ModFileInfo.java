@@ -34,6 +34,11 @@ public interface ModFileInfo {
 
     long computeMurmur2() throws IOException;
 
+    /**
+     * @see net.neoforged.waifu.util.Utils#computeContentFingerprint(InputStream)
+     */
+    String computeContentFingerprint() throws IOException;
+
     @Nullable ModFileMetadata getMetadata();
 
     void close() throws IOException;
@@ -2,6 +2,7 @@ package net.neoforged.waifu.meta;
 
 import net.neoforged.waifu.util.Hashing;
 import net.neoforged.waifu.util.MurmurHash2;
+import net.neoforged.waifu.util.Utils;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
@@ -27,6 +28,12 @@ public record ModFilePath(Path physicalLocation, Path rootDirectory, String hash
         return MurmurHash2.hash(MurmurHash2.normalizeByteArray(Files.readAllBytes(physicalLocation)));
     }
 
+    public String computeContentFingerprint() throws IOException {
+        try (var in = Files.newInputStream(physicalLocation)) {
+            return Utils.computeContentFingerprint(in);
+        }
+    }
+
     void close() throws IOException {
         rootDirectory.getFileSystem().close();
         if (temporaryPath != null) {
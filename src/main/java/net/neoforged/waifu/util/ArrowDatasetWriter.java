@@ -0,0 +1,184 @@
+package net.neoforged.waifu.util;
+
+import net.neoforged.waifu.db.IndexDatabase;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes the rows of an exported dataset in the Arrow IPC streaming format, which analytical tools (pyarrow, polars, DuckDB...) load directly.
+ * <p>
+ * Rows are encoded as they're read in record batches of {@value #BATCH_SIZE} rows, so that only a single batch is held in memory whatever the size of the dataset.
+ * Symbol columns are dictionary-encoded: each batch is preceded by replacement dictionaries holding the distinct symbols of the batch,
+ * which keeps the dictionaries bounded by the batch size too.
+ */
+public final class ArrowDatasetWriter {
+    public static final String CONTENT_TYPE = "application/vnd.apache.arrow.stream";
+    public static final String FILE_EXTENSION = ".arrows";
+
+    private static final int BATCH_SIZE = 65_536;
+    private static final long ALLOCATION_LIMIT = 512L << 20;
+
+    /**
+     * Write all the rows to the stream, closing it.
+     *
+     * @return the amount of written rows
+     */
+    public static long write(IndexDatabase.ExportDataset dataset, Iterator<Object[]> rows, OutputStream out) throws IOException {
+        var columns = dataset.getColumns();
+        try (var allocator = new RootAllocator(ALLOCATION_LIMIT)) {
+            var provider = new DictionaryProvider.MapDictionaryProvider();
+            var dictionaries = new VarCharVector[columns.size()];
+            @SuppressWarnings("unchecked")
+            Map<String, Integer>[] dictionaryIndices = new Map[columns.size()];
+            try {
+                var fields = new ArrayList<Field>(columns.size());
+                for (int i = 0; i < columns.size(); i++) {
+                    var column = columns.get(i);
+                    if (column.type() == IndexDatabase.ExportColumn.Type.SYMBOL) {
+                        var encoding = new DictionaryEncoding(i, false, new ArrowType.Int(32, true));
+                        dictionaries[i] = new VarCharVector(column.name() + "_dictionary", allocator);
+                        dictionaryIndices[i] = new HashMap<>();
+                        provider.put(new Dictionary(dictionaries[i], encoding));
+                        fields.add(new Field(column.name(), new FieldType(true, encoding.getIndexType(), encoding), null));
+                    } else {
+                        fields.add(Field.nullable(column.name(), getArrowType(column.type())));
+                    }
+                }
+
+                try (var root = VectorSchemaRoot.create(new Schema(fields), allocator);
+                     var writer = new ArrowStreamWriter(root, provider, out)) {
+                    writer.start();
+                    root.allocateNew();
+
+                    long total = 0;
+                    int count = 0;
+                    while (rows.hasNext()) {
+                        var row = rows.next();
+                        for (int i = 0; i < columns.size(); i++) {
+                            var vector = root.getVector(i);
+                            if (dictionaries[i] != null) {
+                                setSymbol((IntVector) vector, dictionaries[i], dictionaryIndices[i], count, (String) row[i]);
+                            } else {
+                                set(vector, columns.get(i).type(), count, row[i]);
+                            }
+                        }
+
+                        if (++count == BATCH_SIZE) {
+                            writeBatch(writer, root, dictionaries, dictionaryIndices, count);
+                            total += count;
+                            count = 0;
+                        }
+                    }
+
+                    // Always write a batch so that the dictionaries are written even if the dataset is empty
+                    if (count > 0 || total == 0) {
+                        writeBatch(writer, root, dictionaries, dictionaryIndices, count);
+                        total += count;
+                    }
+                    writer.end();
+                    return total;
+                }
+            } finally {
+                for (var dictionary : dictionaries) {
+                    if (dictionary != null) {
+                        dictionary.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeBatch(ArrowStreamWriter writer, VectorSchemaRoot root, @Nullable VarCharVector[] dictionaries, @Nullable Map<String, Integer>[] dictionaryIndices, int count) throws IOException {
+        for (int i = 0; i < dictionaries.length; i++) {
+            if (dictionaries[i] != null) {
+                dictionaries[i].setValueCount(dictionaryIndices[i].size());
+            }
+        }
+        root.setRowCount(count);
+
+        // The writer writes the dictionaries which changed since the previous batch before the batch itself
+        writer.writeBatch();
+
+        for (var vector : root.getFieldVectors()) {
+            vector.reset();
+        }
+        for (int i = 0; i < dictionaries.length; i++) {
+            if (dictionaries[i] != null) {
+                dictionaries[i].reset();
+                dictionaryIndices[i].clear();
+            }
+        }
+    }
+
+    private static void setSymbol(IntVector vector, VarCharVector dictionary, Map<String, Integer> indices, int index, @Nullable String symbol) {
+        if (symbol == null) {
+            vector.setNull(index);
+            return;
+        }
+        vector.setSafe(index, indices.computeIfAbsent(symbol, s -> {
+            var dictionaryIndex = indices.size();
+            dictionary.setSafe(dictionaryIndex, s.getBytes(StandardCharsets.UTF_8));
+            return dictionaryIndex;
+        }));
+    }
+
+    private static void set(FieldVector vector, IndexDatabase.ExportColumn.Type type, int index, @Nullable Object value) {
+        switch (type) {
+            case INT -> {
+                if (value == null) ((IntVector) vector).setNull(index);
+                else ((IntVector) vector).setSafe(index, ((Number) value).intValue());
+            }
+            case LONG -> {
+                if (value == null) ((BigIntVector) vector).setNull(index);
+                else ((BigIntVector) vector).setSafe(index, ((Number) value).longValue());
+            }
+            case BOOLEAN -> {
+                if (value == null) ((BitVector) vector).setNull(index);
+                else ((BitVector) vector).setSafe(index, (Boolean) value ? 1 : 0);
+            }
+            case STRING, SYMBOL -> {
+                if (value == null) ((VarCharVector) vector).setNull(index);
+                else ((VarCharVector) vector).setSafe(index, value.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            case TIMESTAMP -> {
+                if (value == null) ((TimeStampMilliTZVector) vector).setNull(index);
+                else ((TimeStampMilliTZVector) vector).setSafe(index, ((Timestamp) value).getTime());
+            }
+        }
+    }
+
+    private static ArrowType getArrowType(IndexDatabase.ExportColumn.Type type) {
+        return switch (type) {
+            case INT -> new ArrowType.Int(32, true);
+            case LONG -> new ArrowType.Int(64, true);
+            case BOOLEAN -> ArrowType.Bool.INSTANCE;
+            case STRING, SYMBOL -> ArrowType.Utf8.INSTANCE;
+            case TIMESTAMP -> new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC");
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package net.neoforged.waifu.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A count-min sketch estimating how many times each key was counted, never underestimating it.
+ * <p>
+ * Sketches with the same dimensions are merged by adding their counters, so the sketches of single mods can be combined into the sketch
+ * of any set of mods. An estimate exceeds the real count by at most {@code e / width} times the total of all counts with a probability
+ * of {@code 1 - e^-depth}.
+ */
+public final class CountMinSketch {
+    private final int depth, width;
+    private final long[] counters;
+
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || width < 1 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("Invalid dimensions " + depth + "x" + width + ", the width must be a power of two");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counters = new long[depth * width];
+    }
+
+    /**
+     * Count the key with the given (well distributed) 64-bit hash {@code count} times.
+     */
+    public void add(long hash, long count) {
+        for (int row = 0; row < depth; row++) {
+            counters[row * width + column(hash, row)] += count;
+        }
+    }
+
+    public long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Cannot merge sketches of dimensions " + depth + "x" + width + " and " + other.depth + "x" + other.width);
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+    }
+
+    // The columns of the rows are derived from the two halves of the hash (Kirsch-Mitzenmacher), which is as good as independent hashes
+    private int column(long hash, int row) {
+        return ((int) hash + row * (int) (hash >>> 32)) & (width - 1);
+    }
+
+    /**
+     * {@return the sketch serialized as its dimensions followed by its counters, deflated}
+     * The sketches of single mods have mostly empty counters, which deflate to a fraction of their size.
+     */
+    public byte[] toBytes() {
+        var bos = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(new DeflaterOutputStream(bos))) {
+            out.writeInt(depth);
+            out.writeInt(width);
+            for (var counter : counters) {
+                out.writeLong(counter);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return bos.toByteArray();
+    }
+
+    public static CountMinSketch fromBytes(byte[] bytes) {
+        try (var in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            var sketch = new CountMinSketch(in.readInt(), in.readInt());
+            for (int i = 0; i < sketch.counters.length; i++) {
+                sketch.counters[i] = in.readLong();
+            }
+            return sketch;
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+}
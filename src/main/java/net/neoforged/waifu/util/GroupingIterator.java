@@ -0,0 +1,48 @@
+package net.neoforged.waifu.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * An iterator grouping the consecutive elements of another iterator that have the same key, only holding one group in memory at a time.
+ */
+public final class GroupingIterator<T, K> implements Iterator<List<T>> {
+    private final Iterator<T> itr;
+    private final Function<T, K> key;
+
+    private T next;
+    private boolean hasNext;
+
+    public GroupingIterator(Iterator<T> itr, Function<T, K> key) {
+        this.itr = itr;
+        this.key = key;
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public List<T> next() {
+        if (!hasNext) throw new NoSuchElementException();
+
+        var group = new ArrayList<T>(2);
+        var groupKey = key.apply(next);
+        do {
+            group.add(next);
+            advance();
+        } while (hasNext && Objects.equals(groupKey, key.apply(next)));
+        return group;
+    }
+
+    private void advance() {
+        hasNext = itr.hasNext();
+        next = hasNext ? itr.next() : null;
+    }
+}
@@ -0,0 +1,142 @@
+package net.neoforged.waifu.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch estimating the amount of distinct elements added to it.
+ * <p>
+ * Sketches with the same precision can be merged losslessly, so the sketch of the mods using a symbol can be built from the
+ * single register each mod sets. The standard error is {@code 1.04 / sqrt(2^precision)}.
+ */
+public final class HyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16, got " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+    /**
+     * Add the element with the given (well distributed) 64-bit hash.
+     */
+    public void addHash(long hash) {
+        set(register(hash, precision), rank(hash, precision));
+    }
+
+    /**
+     * Raise the register to the rank, which is how merging the sketch of a single element with the given {@link #register(long, int) register}
+     * and {@link #rank(long, int) rank} is done without materializing it.
+     */
+    public void set(int register, int rank) {
+        if (registers[register] < rank) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of precision " + precision + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            set(i, other.registers[i]);
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (var register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) zeros++;
+        }
+
+        double alpha = switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+        double estimate = alpha * m * m / sum;
+
+        // Small cardinalities are better estimated by linear counting of the empty registers
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * {@return the sketch serialized as its precision followed by its registers}
+     * Most symbols are used by few mods, so sketches with few set registers are serialized as a list of the set registers and their rank instead,
+     * which is flagged by the high bit of the precision.
+     */
+    public byte[] toBytes() {
+        int set = 0;
+        for (var register : registers) {
+            if (register != 0) set++;
+        }
+
+        if (set * 3 >= registers.length) {
+            var bytes = new byte[registers.length + 1];
+            bytes[0] = (byte) precision;
+            System.arraycopy(registers, 0, bytes, 1, registers.length);
+            return bytes;
+        }
+
+        var buf = ByteBuffer.allocate(1 + set * 3);
+        buf.put((byte) (precision | 0x80));
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] != 0) {
+                buf.putShort((short) i);
+                buf.put(registers[i]);
+            }
+        }
+        return buf.array();
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        int precision = bytes[0] & 0x7F;
+        if ((bytes[0] & 0x80) == 0) {
+            if (bytes.length != (1 << precision) + 1) {
+                throw new IllegalArgumentException("Invalid sketch of length " + bytes.length + " for precision " + precision);
+            }
+            return new HyperLogLog(precision, Arrays.copyOfRange(bytes, 1, bytes.length));
+        }
+
+        if ((bytes.length - 1) % 3 != 0) {
+            throw new IllegalArgumentException("Invalid sparse sketch of length " + bytes.length);
+        }
+        var sketch = new HyperLogLog(precision);
+        var buf = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        while (buf.hasRemaining()) {
+            sketch.set(Short.toUnsignedInt(buf.getShort()), buf.get());
+        }
+        return sketch;
+    }
+
+    /**
+     * {@return the index of the register that the element with the given hash sets}
+     */
+    public static int register(long hash, int precision) {
+        return (int) (hash >>> (64 - precision));
+    }
+
+    /**
+     * {@return the rank that the element with the given hash sets its register to}
+     */
+    public static int rank(long hash, int precision) {
+        // The rank is the position of the first set bit in the remaining bits, which are padded so that it is at most 64 - precision + 1
+        return Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    }
+}
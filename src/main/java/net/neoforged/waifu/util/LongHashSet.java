@@ -0,0 +1,83 @@
+package net.neoforged.waifu.util;
+
+/**
+ * An open-addressing hash set of {@code long}s, storing them in a flat array instead of boxing them.
+ * <p>
+ * This set is not thread-safe.
+ */
+public final class LongHashSet {
+    private static final long EMPTY = 0;
+
+    private long[] values;
+    private int size, mask;
+
+    // The empty value marks free slots so it's tracked on the side
+    private boolean hasEmpty;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int size() {
+        return size + (hasEmpty ? 1 : 0);
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) return hasEmpty;
+        return values[slot(value)] == value;
+    }
+
+    /**
+     * {@return {@code true} if the value was not in the set yet}
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            var added = !hasEmpty;
+            hasEmpty = true;
+            return added;
+        }
+
+        int slot = slot(value);
+        if (values[slot] == value) return false;
+
+        values[slot] = value;
+        if (++size * 2 > values.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * {@return the slot holding the value, or the free slot it would be inserted into}
+     */
+    private int slot(long value) {
+        int slot = (int) mix(value) & mask;
+        while (values[slot] != EMPTY && values[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        var old = values;
+        values = new long[old.length * 2];
+        mask = values.length - 1;
+        for (var value : old) {
+            if (value != EMPTY) {
+                values[slot(value)] = value;
+            }
+        }
+    }
+
+    // The murmur3 finalizer, spreading values that only differ in their high bits over the table
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -3,17 +3,19 @@ package net.neoforged.waifu.util;
 import com.electronwill.nightconfig.core.io.ConfigWriter;
 import com.electronwill.nightconfig.json.MinimalJsonWriter;
 import com.electronwill.nightconfig.toml.TomlParser;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
 import net.neoforged.waifu.Main;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
@@ -21,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
@@ -28,7 +32,6 @@ import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class Utils {
     public static final Thread.UncaughtExceptionHandler LOG_EXCEPTIONS = (t, e) -> Main.LOGGER.error("Thread {} threw uncaught exception: ", t, e);
@@ -121,26 +124,53 @@ public class Utils {
         return newEntry;
     }
 
-    public static byte[] createCleanZip(InputStream is) throws IOException {
-        var bos = new ByteArrayOutputStream();
-        var zos = new ZipOutputStream(bos);
+    /**
+     * Compute a fingerprint of the contents of a jar which doesn't depend on the order of its entries, their timestamps or the
+     * timestamps and dates in its manifest, so that the same jar uploaded to different platforms gets the same fingerprint.
+     * <p>
+     * The entries are hashed one by one as they're streamed, and the fingerprint is the hash of their names and hashes.
+     */
+    public static String computeContentFingerprint(InputStream is) throws IOException {
+        var entries = new TreeMap<String, HashCode>();
+        var buffer = new byte[16384];
         try (var zis = new ZipInputStream(is)) {
             ZipEntry entry;
             while ((entry = zis.getNextEntry()) != null) {
-                zos.putNextEntry(copyEntry(entry));
+                // Some tools write entries for directories and some don't
+                if (entry.isDirectory()) continue;
+
+                var hasher = com.google.common.hash.Hashing.sha256().newHasher();
                 if (entry.getName().equals(JarFile.MANIFEST_NAME)) {
                     var man = new Manifest();
                     man.read(zis);
-                    // Strip Implementation-Timestamp and co which prevent the jars from being the same (hopefully)
-                    man.getMainAttributes().entrySet().removeIf(e -> e.getKey() instanceof Attributes.Name nm && nm.toString().toLowerCase(Locale.ROOT).endsWith("timestamp"));
-                    man.write(zos);
+                    putAttributes(hasher, man.getMainAttributes());
+                    new TreeMap<>(man.getEntries()).forEach((name, attributes) -> {
+                        hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+                        putAttributes(hasher, attributes);
+                    });
                 } else {
-                    zis.transferTo(zos);
+                    int read;
+                    while ((read = zis.read(buffer)) != -1) {
+                        hasher.putBytes(buffer, 0, read);
+                    }
                 }
-                zos.closeEntry();
+                entries.put(entry.getName(), hasher.hash());
             }
         }
-        return bos.toByteArray();
+
+        var hasher = com.google.common.hash.Hashing.sha256().newHasher();
+        entries.forEach((name, hash) -> hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0).putBytes(hash.asBytes()));
+        return hasher.hash().toString();
+    }
+
+    private static void putAttributes(Hasher hasher, Attributes attributes) {
+        attributes.entrySet().stream()
+                .map(e -> Map.entry(e.getKey().toString(), e.getValue().toString()))
+                // Strip Implementation-Timestamp, Build-Date and co which prevent the jars from being the same
+                .filter(e -> !e.getKey().toLowerCase(Locale.ROOT).endsWith("timestamp") && !e.getKey().toLowerCase(Locale.ROOT).endsWith("date"))
+                .sorted(Map.Entry.comparingByKey(String.CASE_INSENSITIVE_ORDER))
+                .forEach(e -> hasher.putString(e.getKey().toLowerCase(Locale.ROOT), StandardCharsets.UTF_8).putByte((byte) 0)
+                        .putString(e.getValue(), StandardCharsets.UTF_8).putByte((byte) 0));
     }
 
     public static String tomlToJson(String toml) {
@@ -1,10 +1,12 @@
 package net.neoforged.waifu.web;
 
 import io.javalin.Javalin;
+import io.javalin.http.Context;
 import net.neoforged.waifu.Main;
 import net.neoforged.waifu.db.IndexDatabase;
 import net.neoforged.waifu.platform.ModLoader;
 import net.neoforged.waifu.platform.PlatformMod;
+import net.neoforged.waifu.util.ArrowDatasetWriter;
 import org.jetbrains.annotations.Nullable;
 
 import java.time.Instant;
@@ -12,15 +14,18 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class VersionWebService {
     public VersionWebService(Javalin javalin) {
         final Map<String, IndexDatabase<?>> databases = new ConcurrentHashMap<>();
+        final Function<Context, IndexDatabase<?>> database = ctx -> databases.computeIfAbsent(ctx.pathParam("version"), ver -> {
+            var spl = ver.split("-", 2);
+            return Main.createDatabase(spl[0], ModLoader.valueOf(spl[1].toUpperCase(Locale.ROOT)));
+        });
+
         javalin.get("/<version>/mod/<mod>", ctx -> {
-            var db = databases.computeIfAbsent(ctx.pathParam("version"), ver -> {
-                var spl = ver.split("-", 2);
-                return Main.createDatabase(spl[0], ModLoader.valueOf(spl[1].toUpperCase(Locale.ROOT)));
-            });
+            var db = database.apply(ctx);
 
             var modId = ctx.pathParam("mod");
 
@@ -63,6 +68,70 @@ public class VersionWebService {
             );
             ctx.json(res);
         });
+
+        // Tail the change feed of the version: consumers pass the offset of the last change they've seen
+        javalin.get("/<version>/changes", ctx -> {
+            var after = ctx.queryParamAsClass("after", Long.class).getOrDefault(0L);
+            var limit = Math.min(ctx.queryParamAsClass("limit", Integer.class).getOrDefault(100), 1000);
+            ctx.json(database.apply(ctx).getChanges(after, limit));
+        });
+
+        javalin.get("/<version>/usages/top/<kind>", ctx -> {
+            var kind = symbolKind(ctx);
+            if (kind == null) {
+                ctx.status(400);
+                return;
+            }
+            var limit = Math.min(ctx.queryParamAsClass("limit", Integer.class).getOrDefault(50), 1000);
+            ctx.json(database.apply(ctx).getTopUsages(kind, limit));
+        });
+
+        // Like the top usages but estimated from the usage sketches, which only lag behind the stores until the next maintenance run, unless an exact answer is requested
+        javalin.get("/<version>/usages/approximate/top/<kind>", ctx -> {
+            var kind = symbolKind(ctx);
+            if (kind == null) {
+                ctx.status(400);
+                return;
+            }
+            var limit = Math.min(ctx.queryParamAsClass("limit", Integer.class).getOrDefault(50), 1000);
+            var exact = ctx.queryParamAsClass("exact", Boolean.class).getOrDefault(false);
+            var db = database.apply(ctx);
+            ctx.json(exact ? db.getTopUsages(kind, limit) : db.estimateTopUsages(kind, limit));
+        });
+
+        // The amount of mods using a single symbol and of its usages, estimated the same way
+        javalin.get("/<version>/usages/approximate/symbol/<kind>", ctx -> {
+            var kind = symbolKind(ctx);
+            var symbol = ctx.queryParam("symbol");
+            if (kind == null || symbol == null) {
+                ctx.status(400);
+                return;
+            }
+            var exact = ctx.queryParamAsClass("exact", Boolean.class).getOrDefault(false);
+            var db = database.apply(ctx);
+            var usage = exact ? db.getUsage(kind, symbol) : db.estimateUsage(kind, symbol);
+            if (usage == null) {
+                ctx.status(404);
+                return;
+            }
+            ctx.json(usage);
+        });
+
+        // Stream a dataset of the version as an Arrow IPC stream, which is encoded as the rows are read so that exports of any size run in constant memory
+        javalin.get("/<version>/export/<dataset>", ctx -> {
+            IndexDatabase.ExportDataset dataset;
+            try {
+                dataset = IndexDatabase.ExportDataset.valueOf(ctx.pathParam("dataset").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException exception) {
+                ctx.status(400);
+                return;
+            }
+            ctx.contentType(ArrowDatasetWriter.CONTENT_TYPE);
+            ctx.header("Content-Disposition", "attachment; filename=\"" + ctx.pathParam("version") + "-" + ctx.pathParam("dataset") + ArrowDatasetWriter.FILE_EXTENSION + "\"");
+            try (var rows = database.apply(ctx).streamDataset(dataset)) {
+                ArrowDatasetWriter.write(dataset, rows.iterator(), ctx.outputStream());
+            }
+        });
     }
 
     public record PlatformModResponse(
@@ -74,6 +143,15 @@ public class VersionWebService {
         }
     }
 
+    @Nullable
+    private static IndexDatabase.SymbolKind symbolKind(Context ctx) {
+        try {
+            return IndexDatabase.SymbolKind.valueOf(ctx.pathParam("kind").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
     private static boolean isInt(String mod) {
         try {
             Integer.valueOf(mod);
@@ -0,0 +1,128 @@
+-- The schema of the embedded DuckDB index database of a game version.
+-- Symbols are stored by name: DuckDB compresses the repeated strings of each column with dictionaries on its own, and queries don't need joins to resolve them.
+-- Tables have neither keys nor indexes as the data is only appended and scanned, which DuckDB does fastest without maintaining indexes.
+-- Only the known files and file IDs have a primary key, as concurrent stores insert the same files and rely on the key to skip the ones already known
+create sequence if not exists mod_ids start 1;
+create sequence if not exists mod_generations start 1;
+
+create table if not exists mods
+(
+    id                    integer not null default nextval('mod_ids'),
+    version               text    not null,
+    name                  text    not null,
+    mod_ids               text[]  not null,
+    license               text,
+    loader                boolean not null default false,
+    authors               text,
+    maven_coordinates     text,
+    curseforge_project_id integer,
+    modrinth_project_id   text,
+    index_date            timestamp,
+    current_generation    integer not null default 0
+);
+
+create table if not exists known_files
+(
+    mod                 integer not null,
+    sha1                text    not null primary key,
+    content_fingerprint text
+);
+
+create table if not exists known_curseforge_file_ids
+(
+    id          integer   not null primary key,
+    latest_date timestamp not null
+);
+
+create table if not exists known_modrinth_file_ids
+(
+    id          text      not null primary key,
+    latest_date timestamp not null
+);
+
+create table if not exists class_defs
+(
+    mod         integer not null,
+    generation  integer not null,
+    name        text    not null,
+    super_class text
+);
+
+create table if not exists class_interfaces
+(
+    mod        integer not null,
+    generation integer not null,
+    class      text    not null,
+    interface  text    not null
+);
+
+create table if not exists method_defs
+(
+    mod        integer not null,
+    generation integer not null,
+    class      text    not null,
+    name       text    not null,
+    descriptor text    not null,
+    access     integer not null
+);
+
+create table if not exists field_defs
+(
+    mod        integer not null,
+    generation integer not null,
+    class      text    not null,
+    name       text    not null,
+    descriptor text    not null,
+    access     integer not null
+);
+
+-- The annotations of classes (without a member), methods (with the name and descriptor of the method as member) and fields (with the name of the field as member)
+create table if not exists annotations
+(
+    mod        integer not null,
+    generation integer not null,
+    class      text    not null,
+    member     text,
+    annotation text    not null
+);
+
+create table if not exists method_references
+(
+    mod        integer not null,
+    generation integer not null,
+    class      text    not null,
+    owner      text    not null,
+    name       text    not null,
+    descriptor text    not null,
+    count      integer not null
+);
+
+create table if not exists field_references
+(
+    mod        integer not null,
+    generation integer not null,
+    class      text    not null,
+    owner      text    not null,
+    name       text    not null,
+    descriptor text    not null,
+    count      integer not null
+);
+
+create table if not exists tags
+(
+    mod        integer not null,
+    generation integer not null,
+    tag        text    not null,
+    entry      text    not null,
+    replace    boolean not null
+);
+
+create table if not exists enum_extensions
+(
+    mod         integer not null,
+    generation  integer not null,
+    enum        text    not null,
+    name        text    not null,
+    constructor text    not null,
+    parameters  text    not null
+);
@@ -0,0 +1,172 @@
+-- Each store of a mod writes a new generation of its rows, which only becomes visible once mods.current_generation is flipped to it.
+-- Older generations are deleted in the background
+create sequence mod_generations start with 1;
+
+alter table mods
+    add current_generation int not null default 0;
+
+alter table class_defs
+    add generation int not null default 0;
+alter table tags
+    add generation int not null default 0;
+alter table enum_extensions
+    add generation int not null default 0;
+
+drop index idx_class_defs;
+create index idx_class_defs on class_defs (mod, generation);
+
+create index idx_tags_by_mod on tags (mod, generation);
+
+drop index idx_enum_extensions_by_mod;
+create index idx_enum_extensions_by_mod on enum_extensions (mod, generation);
+
+create view current_class_defs as
+select class_defs.*
+from class_defs
+         join mods on mods.id = class_defs.mod and mods.current_generation = class_defs.generation;
+
+create view current_tags as
+select tags.*
+from tags
+         join mods on mods.id = tags.mod and mods.current_generation = tags.generation;
+
+create view current_enum_extensions as
+select enum_extensions.*
+from enum_extensions
+         join mods on mods.id = enum_extensions.mod and mods.current_generation = enum_extensions.generation;
+
+create or replace function get_child_classes(cid int)
+    returns table
+            (
+                type int
+            )
+    language sql
+as
+$func$
+with recursive parents as (select distinct (current_class_defs.type)
+                           from class_parents
+                                    inner join current_class_defs on class_parents.cls = current_class_defs.id
+                           where class_parents.parent = cid
+
+                           union
+
+                           select (current_class_defs.type)
+                           from (select distinct (child.cls)
+                                 from class_parents child
+                                          inner join parents p on p.type = child.parent) mc
+                                    inner join current_class_defs on mc.cls = current_class_defs.id)
+select type
+from parents
+$func$
+stable;
+
+drop function insert_class(int, text, text, text[], text, text, text, text);
+create function insert_class(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                             refs text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    cdef     integer;
+    iface    text;
+    fld      json;
+    mtd      json;
+    rf       json;
+    refsJson json;
+
+    memberid integer;
+
+    ann json;
+begin
+    insert into class_defs(mod, generation, type) values (mod, generation, get_class_id(name)) returning id into cdef;
+    if super is not null then
+        insert into class_parents(cls, parent) values (cdef, get_class_id(super));
+    end if;
+
+    foreach iface in array interfaces
+        loop
+            insert into class_parents(cls, parent) values (cdef, get_class_id(iface));
+        end loop;
+
+    for ann in select * from json_array_elements(annotations::json)
+        loop
+            insert into class_annotations(owner, annotation, value) values (cdef, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+        end loop;
+
+    for fld in select * from json_array_elements(fields::json)
+        loop
+            insert into field_defs(owner, type) values (cdef, get_field_id(name, fld ->> 0, fld ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(fld -> 2)
+                loop
+                    insert into field_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    for mtd in select * from json_array_elements(methods::json)
+        loop
+            insert into method_defs(owner, type) values (cdef, get_method_id(name, mtd ->> 0, mtd ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(mtd -> 2)
+                loop
+                    insert into method_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    refsJson := refs::json;
+
+    for rf in select * from json_array_elements(refsJson -> 0)
+        loop
+            insert into method_references(owner, reference, count)
+            values (cdef, get_method_id(rf ->> 0, rf ->> 1, rf ->> 2), (rf ->> 3)::int::smallint);
+        end loop;
+
+    for rf in select * from json_array_elements(refsJson -> 1)
+        loop
+            insert into field_references(owner, reference, count)
+            values (cdef, get_field_id(rf ->> 0, rf ->> 1, rf ->> 2), (rf ->> 3)::int::smallint);
+        end loop;
+
+    return cdef;
+end
+$function$
+;
+
+drop function insert_tag(int, text, boolean, text[]);
+create function insert_tag(mod int, generation int, nm text, replace boolean, entries text[])
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    nameid integer;
+    entry  text;
+begin
+    nameid := get_constant(nm);
+    foreach entry in array entries
+        loop
+            insert into tags(mod, generation, tag, replace, entry) values (mod, generation, nameid, replace, get_constant(entry));
+        end loop;
+end
+$function$
+;
+
+drop function insert_enum_extension(int, text, text, text, text);
+create function insert_enum_extension(mod int, generation int, enm text, nm text, ctor text, params text)
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    enumid integer;
+    nameid integer;
+    ctorid integer;
+begin
+    enumid := get_class_id(enm);
+    nameid := get_constant(nm);
+    ctorid := get_constant(ctor);
+    insert into enum_extensions(mod, generation, enum, name, constructor, parameters) values (mod, generation, enumid, nameid, ctorid, params::jsonb);
+end
+$function$
+;
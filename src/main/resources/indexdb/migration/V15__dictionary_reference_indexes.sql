@@ -0,0 +1,26 @@
+-- Indexes on all columns referencing the symbol dictionaries (classes, constants, methods, fields and json_constants)
+-- so that orphaned dictionary rows can be found and deleted (which triggers a foreign key check on each of these) cheaply
+create index idx_class_defs_by_type on class_defs (type);
+create index idx_method_defs_by_type on method_defs (type);
+create index idx_field_defs_by_type on field_defs (type);
+
+create index idx_fields_by_descriptor on fields (descriptor);
+create index idx_methods_by_name on methods (name);
+create index idx_methods_by_descriptor on methods (descriptor);
+create index idx_fields_by_name on fields (name);
+
+create index idx_class_references_by_reference on class_references (reference);
+
+create index idx_class_annotations_by_annotation on class_annotations (annotation);
+create index idx_method_annotations_by_annotation on method_annotations (annotation);
+create index idx_field_annotations_by_annotation on field_annotations (annotation);
+
+create index idx_class_annotations_by_value on class_annotations (value);
+create index idx_method_annotations_by_value on method_annotations (value);
+create index idx_field_annotations_by_value on field_annotations (value);
+
+create index idx_tags_by_tag on tags (tag);
+create index idx_tags_by_entry on tags (entry);
+
+create index idx_enum_extensions_by_name on enum_extensions (name);
+create index idx_enum_extensions_by_constructor on enum_extensions (constructor);
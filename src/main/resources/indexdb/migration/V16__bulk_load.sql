@@ -0,0 +1,9 @@
+-- Secondary indexes and dictionary foreign keys dropped while a schema is bulk-loaded, so that they can be rebuilt
+-- even if the bulk load is interrupted
+create table bulk_load_pending
+(
+    name       text not null primary key,
+    tbl        text not null,
+    kind       text not null,
+    definition text not null
+);
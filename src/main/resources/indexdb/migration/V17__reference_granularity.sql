@@ -0,0 +1,91 @@
+-- Per-schema settings
+create table settings
+(
+    name  text not null primary key,
+    value text not null
+);
+
+-- Whether member references are stored per referencing class ('class') or rolled up per mod ('mod')
+insert into settings(name, value) values ('reference_granularity', 'class');
+
+-- References rolled up per mod, used by versions tracked with the 'mod' granularity.
+-- classes is the amount of classes of the mod that reference the member
+create table mod_method_references
+(
+    mod        int not null,
+    generation int not null,
+    reference  int not null references methods (id),
+    count      int not null,
+    classes    int not null,
+    foreign key (mod) references mods (id) on delete cascade
+);
+
+create table mod_field_references
+(
+    mod        int not null,
+    generation int not null,
+    reference  int not null references fields (id),
+    count      int not null,
+    classes    int not null,
+    foreign key (mod) references mods (id) on delete cascade
+);
+
+create index idx_mod_method_references_by_mod on mod_method_references (mod, generation);
+create index idx_mod_method_references_by_reference on mod_method_references (reference);
+create index idx_mod_field_references_by_mod on mod_field_references (mod, generation);
+create index idx_mod_field_references_by_reference on mod_field_references (reference);
+
+create function insert_mod_references(mod int, generation int, refs text)
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    rf       json;
+    refsJson json;
+begin
+    refsJson := refs::json;
+
+    for rf in select * from json_array_elements(refsJson -> 0)
+        loop
+            insert into mod_method_references(mod, generation, reference, count, classes)
+            values (mod, generation, get_method_id(rf ->> 0, rf ->> 1, rf ->> 2), (rf ->> 3)::int, (rf ->> 4)::int);
+        end loop;
+
+    for rf in select * from json_array_elements(refsJson -> 1)
+        loop
+            insert into mod_field_references(mod, generation, reference, count, classes)
+            values (mod, generation, get_field_id(rf ->> 0, rf ->> 1, rf ->> 2), (rf ->> 3)::int, (rf ->> 4)::int);
+        end loop;
+end
+$function$
+;
+
+-- The usages of members per mod generation, regardless of the granularity the mod was stored with
+create view method_usages as
+select class_defs.mod, class_defs.generation, method_references.reference, sum(method_references.count)::int as count, count(*)::int as classes
+from method_references
+         join class_defs on class_defs.id = method_references.owner
+group by class_defs.mod, class_defs.generation, method_references.reference
+union all
+select mod, generation, reference, count, classes
+from mod_method_references;
+
+create view field_usages as
+select class_defs.mod, class_defs.generation, field_references.reference, sum(field_references.count)::int as count, count(*)::int as classes
+from field_references
+         join class_defs on class_defs.id = field_references.owner
+group by class_defs.mod, class_defs.generation, field_references.reference
+union all
+select mod, generation, reference, count, classes
+from mod_field_references;
+
+create view current_method_usages as
+select method_usages.*
+from method_usages
+         join mods on mods.id = method_usages.mod and mods.current_generation = method_usages.generation;
+
+create view current_field_usages as
+select field_usages.*
+from field_usages
+         join mods on mods.id = field_usages.mod and mods.current_generation = field_usages.generation;
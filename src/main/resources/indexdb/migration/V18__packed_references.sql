@@ -0,0 +1,176 @@
+-- Alternative layout storing the member references of a class as packed arrays of member ids on the class_defs row,
+-- with parallel arrays of reference counts. Null for classes stored with the row-per-reference layout
+alter table class_defs
+    add method_refs       int[],
+    add method_ref_counts int[],
+    add field_refs        int[],
+    add field_ref_counts  int[];
+
+-- Containment queries (method_refs @> array[id]) use these
+create index idx_class_defs_by_method_refs on class_defs using gin (method_refs);
+create index idx_class_defs_by_field_refs on class_defs using gin (field_refs);
+
+create function insert_class_def(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                                 method_refs int[], method_ref_counts int[], field_refs int[], field_ref_counts int[])
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    cdef     integer;
+    iface    text;
+    fld      json;
+    mtd      json;
+
+    memberid integer;
+
+    ann json;
+begin
+    insert into class_defs(mod, generation, type, method_refs, method_ref_counts, field_refs, field_ref_counts)
+    values (mod, generation, get_class_id(name), method_refs, method_ref_counts, field_refs, field_ref_counts)
+    returning id into cdef;
+    if super is not null then
+        insert into class_parents(cls, parent) values (cdef, get_class_id(super));
+    end if;
+
+    foreach iface in array interfaces
+        loop
+            insert into class_parents(cls, parent) values (cdef, get_class_id(iface));
+        end loop;
+
+    for ann in select * from json_array_elements(annotations::json)
+        loop
+            insert into class_annotations(owner, annotation, value) values (cdef, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+        end loop;
+
+    for fld in select * from json_array_elements(fields::json)
+        loop
+            insert into field_defs(owner, type) values (cdef, get_field_id(name, fld ->> 0, fld ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(fld -> 2)
+                loop
+                    insert into field_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    for mtd in select * from json_array_elements(methods::json)
+        loop
+            insert into method_defs(owner, type) values (cdef, get_method_id(name, mtd ->> 0, mtd ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(mtd -> 2)
+                loop
+                    insert into method_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    return cdef;
+end
+$function$
+;
+
+create or replace function insert_class(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                                        refs text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    cdef     integer;
+    rf       json;
+    refsJson json;
+begin
+    cdef := insert_class_def(mod, generation, name, super, interfaces, annotations, fields, methods, null, null, null, null);
+
+    refsJson := refs::json;
+
+    for rf in select * from json_array_elements(refsJson -> 0)
+        loop
+            insert into method_references(owner, reference, count)
+            values (cdef, get_method_id(rf ->> 0, rf ->> 1, rf ->> 2), (rf ->> 3)::int::smallint);
+        end loop;
+
+    for rf in select * from json_array_elements(refsJson -> 1)
+        loop
+            insert into field_references(owner, reference, count)
+            values (cdef, get_field_id(rf ->> 0, rf ->> 1, rf ->> 2), (rf ->> 3)::int::smallint);
+        end loop;
+
+    return cdef;
+end
+$function$
+;
+
+create function insert_class_packed(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                                    refs text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    refsJson   json;
+    mrefs      int[];
+    mcounts    int[];
+    frefs      int[];
+    fcounts    int[];
+begin
+    refsJson := refs::json;
+
+    select coalesce(array_agg(r.id order by r.id), '{}'), coalesce(array_agg(r.cnt order by r.id), '{}')
+    into mrefs, mcounts
+    from (select get_method_id(rf ->> 0, rf ->> 1, rf ->> 2) as id, (rf ->> 3)::int as cnt
+          from json_array_elements(refsJson -> 0) rf) r;
+
+    select coalesce(array_agg(r.id order by r.id), '{}'), coalesce(array_agg(r.cnt order by r.id), '{}')
+    into frefs, fcounts
+    from (select get_field_id(rf ->> 0, rf ->> 1, rf ->> 2) as id, (rf ->> 3)::int as cnt
+          from json_array_elements(refsJson -> 1) rf) r;
+
+    -- Arrays can't have foreign keys, so lock the referenced members against being reclaimed as orphans until we commit
+    -- and make sure none was reclaimed before we could lock it
+    perform 1 from methods where id = any (mrefs) for key share;
+    perform 1 from fields where id = any (frefs) for key share;
+    if (select count(*) from methods where id = any (mrefs)) != cardinality(mrefs)
+        or (select count(*) from fields where id = any (frefs)) != cardinality(frefs) then
+        raise exception 'Referenced member of class % was concurrently deleted', name using errcode = 'serialization_failure';
+    end if;
+
+    return insert_class_def(mod, generation, name, super, interfaces, annotations, fields, methods, mrefs, mcounts, frefs, fcounts);
+end
+$function$
+;
+
+create or replace view method_usages as
+select class_defs.mod, class_defs.generation, method_references.reference, sum(method_references.count)::int as count, count(*)::int as classes
+from method_references
+         join class_defs on class_defs.id = method_references.owner
+group by class_defs.mod, class_defs.generation, method_references.reference
+union all
+select mod, generation, reference, count, classes
+from mod_method_references
+union all
+select class_defs.mod, class_defs.generation, refs.reference, sum(refs.count)::int as count, count(*)::int as classes
+from class_defs,
+     unnest(class_defs.method_refs, class_defs.method_ref_counts) as refs(reference, count)
+where class_defs.method_refs is not null
+group by class_defs.mod, class_defs.generation, refs.reference;
+
+create or replace view field_usages as
+select class_defs.mod, class_defs.generation, field_references.reference, sum(field_references.count)::int as count, count(*)::int as classes
+from field_references
+         join class_defs on class_defs.id = field_references.owner
+group by class_defs.mod, class_defs.generation, field_references.reference
+union all
+select mod, generation, reference, count, classes
+from mod_field_references
+union all
+select class_defs.mod, class_defs.generation, refs.reference, sum(refs.count)::int as count, count(*)::int as classes
+from class_defs,
+     unnest(class_defs.field_refs, class_defs.field_ref_counts) as refs(reference, count)
+where class_defs.field_refs is not null
+group by class_defs.mod, class_defs.generation, refs.reference;
+
+-- Expose the packed references through the current view too
+create or replace view current_class_defs as
+select class_defs.*
+from class_defs
+         join mods on mods.id = class_defs.mod and mods.current_generation = class_defs.generation;
@@ -0,0 +1,188 @@
+-- The transitive closure of the class hierarchy: every class definition together with all of its (direct and indirect) super classes and interfaces.
+-- The hierarchy is resolved through the current definitions of the parents, so a class inherits the ancestors of its parents no matter which mod defines them
+create table class_ancestors
+(
+    cls      int not null,
+    ancestor int not null references classes (id),
+    foreign key (cls) references class_defs (id) on delete cascade,
+    primary key (cls, ancestor)
+);
+
+create index idx_class_ancestors_by_ancestor on class_ancestors (ancestor);
+
+-- Adds the ancestors of a new class definition, and propagates them to the classes that already descend from it
+create function add_class_ancestors(cdef int)
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    def class_defs%rowtype;
+begin
+    select * into def from class_defs where id = cdef;
+
+    -- The parents of the class, and the ancestors of the definitions of the parents that are visible or being stored together with the class
+    insert into class_ancestors(cls, ancestor)
+    select cdef, class_parents.parent
+    from class_parents
+    where class_parents.cls = cdef
+    union
+    select cdef, class_ancestors.ancestor
+    from class_parents
+             join class_defs parent_defs on parent_defs.type = class_parents.parent
+             join mods on mods.id = parent_defs.mod
+             join class_ancestors on class_ancestors.cls = parent_defs.id
+    where class_parents.cls = cdef
+      and (parent_defs.generation = mods.current_generation or (parent_defs.mod = def.mod and parent_defs.generation = def.generation))
+    on conflict do nothing;
+
+    insert into class_ancestors(cls, ancestor)
+    select descendants.cls, own.ancestor
+    from class_ancestors descendants
+             join class_ancestors own on own.cls = cdef
+    where descendants.ancestor = def.type
+      and descendants.cls != cdef
+    on conflict do nothing;
+end
+$function$
+;
+
+-- Recomputes the ancestors of the given class definitions from the current hierarchy
+create function refresh_class_ancestors(defs int[])
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    delete from class_ancestors where cls = any (defs);
+
+    insert into class_ancestors(cls, ancestor)
+    with recursive ancestors(cls, ancestor) as (select class_parents.cls, class_parents.parent
+                                                from class_parents
+                                                where class_parents.cls = any (defs)
+
+                                                union
+
+                                                select ancestors.cls, class_parents.parent
+                                                from ancestors
+                                                         join current_class_defs parent_defs on parent_defs.type = ancestors.ancestor
+                                                         join class_parents on class_parents.cls = parent_defs.id)
+    select cls, ancestor
+    from ancestors;
+end
+$function$
+;
+
+-- Recomputes the ancestors of all class definitions that descend from one of the given classes
+create function refresh_class_descendants(types int[])
+    returns void
+    language sql
+as
+$function$
+select refresh_class_ancestors(array(select distinct cls from class_ancestors where ancestor = any (types)))
+$function$
+;
+
+create function rebuild_class_ancestors()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate class_ancestors;
+
+    insert into class_ancestors(cls, ancestor)
+    with recursive ancestors(cls, ancestor) as (select class_parents.cls, class_parents.parent
+                                                from class_parents
+
+                                                union
+
+                                                select ancestors.cls, class_parents.parent
+                                                from ancestors
+                                                         join current_class_defs parent_defs on parent_defs.type = ancestors.ancestor
+                                                         join class_parents on class_parents.cls = parent_defs.id)
+    select cls, ancestor
+    from ancestors;
+end
+$function$
+;
+
+create or replace function insert_class_def(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                                            method_refs int[], method_ref_counts int[], field_refs int[], field_ref_counts int[])
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    cdef     integer;
+    iface    text;
+    fld      json;
+    mtd      json;
+
+    memberid integer;
+
+    ann json;
+begin
+    insert into class_defs(mod, generation, type, method_refs, method_ref_counts, field_refs, field_ref_counts)
+    values (mod, generation, get_class_id(name), method_refs, method_ref_counts, field_refs, field_ref_counts)
+    returning id into cdef;
+    if super is not null then
+        insert into class_parents(cls, parent) values (cdef, get_class_id(super));
+    end if;
+
+    foreach iface in array interfaces
+        loop
+            insert into class_parents(cls, parent) values (cdef, get_class_id(iface));
+        end loop;
+
+    -- The closure is rebuilt at once at the end of bulk loads
+    if current_setting('waifu.bulk_load', true) is distinct from 'on' then
+        perform add_class_ancestors(cdef);
+    end if;
+
+    for ann in select * from json_array_elements(annotations::json)
+        loop
+            insert into class_annotations(owner, annotation, value) values (cdef, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+        end loop;
+
+    for fld in select * from json_array_elements(fields::json)
+        loop
+            insert into field_defs(owner, type) values (cdef, get_field_id(name, fld ->> 0, fld ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(fld -> 2)
+                loop
+                    insert into field_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    for mtd in select * from json_array_elements(methods::json)
+        loop
+            insert into method_defs(owner, type) values (cdef, get_method_id(name, mtd ->> 0, mtd ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(mtd -> 2)
+                loop
+                    insert into method_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    return cdef;
+end
+$function$
+;
+
+create or replace function get_child_classes(cid int)
+    returns table
+            (
+                type int
+            )
+    language sql
+as
+$func$
+select distinct current_class_defs.type
+from class_ancestors
+         join current_class_defs on current_class_defs.id = class_ancestors.cls
+where class_ancestors.ancestor = cid
+$func$
+stable;
+
+select rebuild_class_ancestors();
@@ -0,0 +1,286 @@
+-- Links method definitions to the methods of their super classes and interfaces they override
+alter table method_defs
+    add overridable boolean not null default true;
+
+create table method_overrides
+(
+    method     int not null,
+    overridden int not null references methods (id),
+    foreign key (method) references method_defs (id) on delete cascade,
+    primary key (method, overridden)
+);
+
+create index idx_method_overrides_by_overridden on method_overrides (overridden);
+
+-- Only adds the ancestors of the new class, as it needs to be called before the methods of the class are inserted
+create or replace function add_class_ancestors(cdef int)
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    def class_defs%rowtype;
+begin
+    select * into def from class_defs where id = cdef;
+
+    -- The parents of the class, and the ancestors of the definitions of the parents that are visible or being stored together with the class
+    insert into class_ancestors(cls, ancestor)
+    select cdef, class_parents.parent
+    from class_parents
+    where class_parents.cls = cdef
+    union
+    select cdef, class_ancestors.ancestor
+    from class_parents
+             join class_defs parent_defs on parent_defs.type = class_parents.parent
+             join mods on mods.id = parent_defs.mod
+             join class_ancestors on class_ancestors.cls = parent_defs.id
+    where class_parents.cls = cdef
+      and (parent_defs.generation = mods.current_generation or (parent_defs.mod = def.mod and parent_defs.generation = def.generation))
+    on conflict do nothing;
+end
+$function$
+;
+
+-- Propagates the ancestors of a new class to the classes that already descend from it, together with the methods they override through it
+create function propagate_class_ancestors(cdef int)
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    def class_defs%rowtype;
+begin
+    select * into def from class_defs where id = cdef;
+
+    insert into class_ancestors(cls, ancestor)
+    select descendants.cls, own.ancestor
+    from class_ancestors descendants
+             join class_ancestors own on own.cls = cdef
+    where descendants.ancestor = def.type
+      and descendants.cls != cdef
+    on conflict do nothing;
+
+    insert into method_overrides(method, overridden)
+    select method_defs.id, ancestor_methods.id
+    from class_ancestors descendants
+             join method_defs on method_defs.owner = descendants.cls and method_defs.overridable
+             join methods descendant_methods on descendant_methods.id = method_defs.type
+             join (select own.ancestor
+                   from class_ancestors own
+                   where own.cls = cdef
+                   union
+                   select def.type) ancestors on true
+             join methods ancestor_methods
+                  on ancestor_methods.cls = ancestors.ancestor and ancestor_methods.name = descendant_methods.name and
+                     ancestor_methods.descriptor = descendant_methods.descriptor
+    where descendants.ancestor = def.type
+      and descendants.cls != cdef
+    on conflict do nothing;
+end
+$function$
+;
+
+create or replace function refresh_class_ancestors(defs int[])
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    delete from class_ancestors where cls = any (defs);
+
+    insert into class_ancestors(cls, ancestor)
+    with recursive ancestors(cls, ancestor) as (select class_parents.cls, class_parents.parent
+                                                from class_parents
+                                                where class_parents.cls = any (defs)
+
+                                                union
+
+                                                select ancestors.cls, class_parents.parent
+                                                from ancestors
+                                                         join current_class_defs parent_defs on parent_defs.type = ancestors.ancestor
+                                                         join class_parents on class_parents.cls = parent_defs.id)
+    select cls, ancestor
+    from ancestors;
+
+    delete from method_overrides using method_defs where method_defs.id = method_overrides.method and method_defs.owner = any (defs);
+
+    insert into method_overrides(method, overridden)
+    select method_defs.id, ancestor_methods.id
+    from method_defs
+             join methods own on own.id = method_defs.type
+             join class_ancestors on class_ancestors.cls = method_defs.owner
+             join methods ancestor_methods
+                  on ancestor_methods.cls = class_ancestors.ancestor and ancestor_methods.name = own.name and ancestor_methods.descriptor = own.descriptor
+    where method_defs.owner = any (defs)
+      and method_defs.overridable;
+end
+$function$
+;
+
+create function rebuild_method_overrides()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate method_overrides;
+
+    insert into method_overrides(method, overridden)
+    select method_defs.id, ancestor_methods.id
+    from method_defs
+             join methods own on own.id = method_defs.type
+             join class_ancestors on class_ancestors.cls = method_defs.owner
+             join methods ancestor_methods
+                  on ancestor_methods.cls = class_ancestors.ancestor and ancestor_methods.name = own.name and ancestor_methods.descriptor = own.descriptor
+    where method_defs.overridable;
+end
+$function$
+;
+
+create or replace function insert_class_def(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                                            method_refs int[], method_ref_counts int[], field_refs int[], field_ref_counts int[])
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    cdef     integer;
+    iface    text;
+    fld      json;
+    mtd      json;
+
+    memberid integer;
+    mid      integer;
+    bulk     boolean;
+
+    ann json;
+begin
+    insert into class_defs(mod, generation, type, method_refs, method_ref_counts, field_refs, field_ref_counts)
+    values (mod, generation, get_class_id(name), method_refs, method_ref_counts, field_refs, field_ref_counts)
+    returning id into cdef;
+    if super is not null then
+        insert into class_parents(cls, parent) values (cdef, get_class_id(super));
+    end if;
+
+    foreach iface in array interfaces
+        loop
+            insert into class_parents(cls, parent) values (cdef, get_class_id(iface));
+        end loop;
+
+    -- The closure and the overrides are rebuilt at once at the end of bulk loads
+    bulk := current_setting('waifu.bulk_load', true) is not distinct from 'on';
+    if not bulk then
+        perform add_class_ancestors(cdef);
+    end if;
+
+    for ann in select * from json_array_elements(annotations::json)
+        loop
+            insert into class_annotations(owner, annotation, value) values (cdef, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+        end loop;
+
+    for fld in select * from json_array_elements(fields::json)
+        loop
+            insert into field_defs(owner, type) values (cdef, get_field_id(name, fld ->> 0, fld ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(fld -> 2)
+                loop
+                    insert into field_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    for mtd in select * from json_array_elements(methods::json)
+        loop
+            mid := get_method_id(name, mtd ->> 0, mtd ->> 1);
+            -- The 4th element is only present (and false) for methods that cannot override others (static or private methods and constructors)
+            insert into method_defs(owner, type, overridable) values (cdef, mid, coalesce((mtd ->> 3)::boolean, true)) returning id into memberid;
+
+            if not bulk and coalesce((mtd ->> 3)::boolean, true) then
+                insert into method_overrides(method, overridden)
+                select memberid, ancestor_methods.id
+                from methods own
+                         join class_ancestors on class_ancestors.cls = cdef
+                         join methods ancestor_methods
+                              on ancestor_methods.cls = class_ancestors.ancestor and ancestor_methods.name = own.name and ancestor_methods.descriptor = own.descriptor
+                where own.id = mid;
+            end if;
+
+            for ann in select * from json_array_elements(mtd -> 2)
+                loop
+                    insert into method_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    if not bulk then
+        perform propagate_class_ancestors(cdef);
+    end if;
+
+    return cdef;
+end
+$function$
+;
+
+create or replace function get_methods_overriding(cid int)
+    returns table
+            (
+                id         int,
+                cls        int,
+                name       int,
+                descriptor int
+            )
+    language sql
+as
+$func$
+with owned_methods as
+         (select id, cls, name, descriptor
+          from methods
+          where methods.cls = cid)
+select overriding.id, overriding.cls, overriding.name, overriding.descriptor
+from owned_methods
+         join method_overrides on method_overrides.overridden = owned_methods.id
+         join method_defs on method_defs.id = method_overrides.method
+         join current_class_defs on current_class_defs.id = method_defs.owner
+         join methods overriding on overriding.id = method_defs.type
+union
+select *
+from owned_methods
+$func$
+stable;
+
+create or replace function get_methods_overriding(cid int, namepattern text)
+    returns table
+            (
+                id         int,
+                cls        int,
+                name       int,
+                descriptor int
+            )
+    language sql
+as
+$func$
+with owned_methods as
+         (select methods.id, methods.cls, methods.name, methods.descriptor
+          from methods
+                   inner join constants on constants.id = methods.name
+          where methods.cls = cid
+            and constants.constant ~ namepattern)
+select overriding.id, overriding.cls, overriding.name, overriding.descriptor
+from owned_methods
+         join method_overrides on method_overrides.overridden = owned_methods.id
+         join method_defs on method_defs.id = method_overrides.method
+         join current_class_defs on current_class_defs.id = method_defs.owner
+         join methods overriding on overriding.id = method_defs.type
+union
+select *
+from owned_methods
+$func$
+stable;
+
+-- Constructors and static initializers never override anything. Other static and private methods stored so far can't be told apart anymore
+update method_defs
+set overridable = false
+from methods
+         join constants on constants.id = methods.name
+where methods.id = method_defs.type
+  and constants.constant in ('<init>', '<clinit>');
+
+select rebuild_method_overrides();
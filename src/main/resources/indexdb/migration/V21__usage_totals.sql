@@ -0,0 +1,83 @@
+-- Usages of each member over all visible generations of the (non-loader) mods, maintained when a mod generation is published or a mod is deleted
+create table method_usage_totals
+(
+    reference int    not null primary key references methods (id),
+    mods      int    not null,
+    count     bigint not null,
+    classes   bigint not null
+);
+
+create table field_usage_totals
+(
+    reference int    not null primary key references fields (id),
+    mods      int    not null,
+    count     bigint not null,
+    classes   bigint not null
+);
+
+-- Adds (sign = 1) or removes (sign = -1) the usages of a mod generation to the totals.
+-- Rows are updated in reference order so that concurrent publishes don't deadlock on each other
+create function apply_usage_totals(md int, gen int, sign int)
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    if (select loader from mods where id = md) then
+        return;
+    end if;
+
+    insert into method_usage_totals(reference, mods, count, classes)
+    select reference, sign, sign * count, sign * classes
+    from method_usages
+    where mod = md
+      and generation = gen
+    order by reference
+    on conflict (reference) do update set mods    = method_usage_totals.mods + excluded.mods,
+                                          count   = method_usage_totals.count + excluded.count,
+                                          classes = method_usage_totals.classes + excluded.classes;
+
+    insert into field_usage_totals(reference, mods, count, classes)
+    select reference, sign, sign * count, sign * classes
+    from field_usages
+    where mod = md
+      and generation = gen
+    order by reference
+    on conflict (reference) do update set mods    = field_usage_totals.mods + excluded.mods,
+                                          count   = field_usage_totals.count + excluded.count,
+                                          classes = field_usage_totals.classes + excluded.classes;
+
+    if sign < 0 then
+        -- Don't keep members that are no longer used alive
+        delete from method_usage_totals where mods <= 0 and reference in (select reference from method_usages where mod = md and generation = gen);
+        delete from field_usage_totals where mods <= 0 and reference in (select reference from field_usages where mod = md and generation = gen);
+    end if;
+end
+$function$
+;
+
+create function rebuild_usage_totals()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate method_usage_totals;
+    truncate field_usage_totals;
+
+    insert into method_usage_totals(reference, mods, count, classes)
+    select reference, count(distinct mod), sum(count), sum(classes)
+    from current_method_usages
+             join mods on mods.id = current_method_usages.mod and not mods.loader
+    group by reference;
+
+    insert into field_usage_totals(reference, mods, count, classes)
+    select reference, count(distinct mod), sum(count), sum(classes)
+    from current_field_usages
+             join mods on mods.id = current_field_usages.mod and not mods.loader
+    group by reference;
+end
+$function$
+;
+
+select rebuild_usage_totals();
@@ -0,0 +1,151 @@
+-- The dictionary shared by all version schemas (the waifu_shared schema) is created by the shareddb migrations, which run once
+-- against their own history table before the version schemas are migrated.
+-- Schemas created with an empty dictionary take their ids from the shared one, so a symbol has the same id in every such schema
+
+-- Schemas that already have symbols keep their own ids, remapping them would mean rewriting every table
+insert into settings(name, value)
+select 'shared_dictionary', case when exists (select 1 from classes) or exists (select 1 from constants) then 'off' else 'on' end;
+
+create function uses_shared_dictionary()
+    returns boolean
+    language sql
+as
+$function$
+select value = 'on' from settings where name = 'shared_dictionary'
+$function$
+stable;
+
+create or replace function get_class_id(nm text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from classes where name = nm;
+    if existing is null then
+        if uses_shared_dictionary() then
+            existing := waifu_shared.get_class_id(nm);
+            insert into classes(id, name) values (existing, nm) on conflict do nothing;
+        else
+            select id into existing from classes where name = nm for update;
+            if existing is null then
+                insert into classes(name) values (nm) returning id into existing;
+            end if;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function get_constant(const text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from constants where constant = const;
+    if existing is null then
+        if uses_shared_dictionary() then
+            existing := waifu_shared.get_constant(const);
+            insert into constants(id, constant) values (existing, const) on conflict do nothing;
+        else
+            select id into existing from constants where constant = const for update;
+            if existing is null then
+                insert into constants(constant) values (const) returning id into existing;
+            end if;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function get_json_constant(const jsonb)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from json_constants where constant = const;
+    if existing is null then
+        if uses_shared_dictionary() then
+            existing := waifu_shared.get_json_constant(const);
+            insert into json_constants(id, constant) values (existing, const) on conflict do nothing;
+        else
+            select id into existing from json_constants where constant = const for update;
+            if existing is null then
+                insert into json_constants(constant) values (const) returning id into existing;
+            end if;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function get_method_id(owner text, nm text, metdescin text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    ownerid  integer;
+    existing integer;
+    metdesc  integer;
+    metname  integer;
+begin
+    ownerid := get_class_id(owner);
+    metdesc := get_constant(metdescin);
+    metname := get_constant(nm);
+
+    select id into existing from methods where cls = ownerid and name = metname and descriptor = metdesc;
+
+    if existing is null then
+        if uses_shared_dictionary() then
+            existing := waifu_shared.get_method_id(ownerid, metname, metdesc);
+            insert into methods(id, cls, name, descriptor) values (existing, ownerid, metname, metdesc) on conflict do nothing;
+        else
+            insert into methods(cls, name, descriptor) values (ownerid, metname, metdesc) returning id into existing;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function get_field_id(owner text, nm text, fielddesc text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    ownerid   integer;
+    existing  integer;
+    typeid    integer;
+    fieldname integer;
+begin
+    ownerid := get_class_id(owner);
+    typeid := get_class_id(fielddesc);
+    fieldname := get_constant(nm);
+
+    select id into existing from fields where cls = ownerid and name = fieldname and descriptor = typeid;
+
+    if existing is null then
+        if uses_shared_dictionary() then
+            existing := waifu_shared.get_field_id(ownerid, fieldname, typeid);
+            insert into fields(id, cls, name, descriptor) values (existing, ownerid, fieldname, typeid) on conflict do nothing;
+        else
+            insert into fields(cls, name, descriptor) values (ownerid, fieldname, typeid) returning id into existing;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
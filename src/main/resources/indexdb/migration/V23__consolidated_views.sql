@@ -0,0 +1,2 @@
+-- The consolidated views of the waifu_all schema are created by waifu_shared.refresh_consolidated_views(), which is defined
+-- by the shareddb migrations so that it isn't replaced by every version schema
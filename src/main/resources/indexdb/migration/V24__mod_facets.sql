@@ -0,0 +1,82 @@
+-- Normalized metadata facets of the mods, so that the mods can be filtered by index lookups instead of scanning their JSON metadata.
+-- The depth is the nesting depth of contained artifacts (starting at 1), and the position of the mod ID in the mod_ids of the mod (starting at 0)
+create table mod_facets
+(
+    mod   int  not null references mods (id) on delete cascade,
+    facet text not null,
+    value text not null,
+    depth int  not null default 0,
+    primary key (facet, value, mod, depth)
+);
+
+create index idx_mod_facets_by_mod on mod_facets (mod);
+
+-- Recomputes the facets of a mod from its metadata
+create function refresh_mod_facets(md int)
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    delete from mod_facets where mod = md;
+
+    insert into mod_facets(mod, facet, value, depth)
+    select md, 'mod_id', mid, pos - 1
+    from mods,
+         unnest(mods.mod_ids) with ordinality as ids(mid, pos)
+    where mods.id = md
+    on conflict do nothing;
+
+    insert into mod_facets(mod, facet, value)
+    select distinct md, 'author', trim(author)
+    from mods,
+         regexp_split_to_table(mods.authors, '[;,]') as author
+    where mods.id = md
+      and trim(author) != ''
+    on conflict do nothing;
+
+    insert into mod_facets(mod, facet, value)
+    select md, 'license', license
+    from mods
+    where id = md
+      and license is not null
+    on conflict do nothing;
+
+    insert into mod_facets(mod, facet, value)
+    select md, 'language_loader', mod_metadata_json ->> 'modLoader'
+    from mods
+    where id = md
+      and mod_metadata_json ->> 'modLoader' is not null
+    on conflict do nothing;
+
+    insert into mod_facets(mod, facet, value, depth)
+    with recursive artifacts(tree, depth) as (select nested_tree, 1
+                                              from mods
+                                              where id = md
+                                                and jsonb_typeof(nested_tree) = 'array'
+                                              union all
+                                              select artifact -> 'nested', artifacts.depth + 1
+                                              from artifacts,
+                                                   jsonb_array_elements(artifacts.tree) artifact
+                                              where jsonb_typeof(artifact -> 'nested') = 'array')
+    select md, 'artifact', artifact ->> 'id', artifacts.depth
+    from artifacts,
+         jsonb_array_elements(artifacts.tree) artifact
+    where artifact ->> 'id' is not null
+    on conflict do nothing;
+end
+$function$
+;
+
+select refresh_mod_facets(id)
+from mods;
+
+-- The distinct values of each facet with the amount of (non-loader) mods that have them, used by the dashboard filter suggestions.
+-- Refreshed by the maintenance after mods' metadata changes
+create materialized view mod_facet_values as
+select facet, value, count(distinct mod) as mods
+from mod_facets
+where mod in (select id from mods where not loader)
+group by facet, value;
+
+create unique index idx_mod_facet_values on mod_facet_values (facet, value);
@@ -0,0 +1,205 @@
+-- The semantics of the annotations of the most frequently queried frameworks, extracted from the annotation values when a class is stored:
+-- the classes mixins target, the methods their injectors target and the events subscribers listen to
+create table mixin_targets
+(
+    mixin  int not null references class_defs (id) on delete cascade,
+    target int not null references classes (id),
+    primary key (mixin, target)
+);
+
+create index idx_mixin_targets_by_target on mixin_targets (target);
+
+-- The target is the method selector of the injector, and the at_target the target of its injection point (e.g. the invocation of a redirect), if any
+create table mixin_injections
+(
+    method    int not null references method_defs (id) on delete cascade,
+    injector  int not null references classes (id),
+    target    int not null references constants (id),
+    at_target int references constants (id)
+);
+
+create index idx_mixin_injections_by_method on mixin_injections (method);
+create index idx_mixin_injections_by_injector on mixin_injections (injector);
+create index idx_mixin_injections_by_target on mixin_injections (target);
+create index idx_mixin_injections_by_at_target on mixin_injections (at_target);
+
+create table event_subscribers
+(
+    method int not null references method_defs (id) on delete cascade,
+    event  int not null references classes (id),
+    primary key (method, event)
+);
+
+create index idx_event_subscribers_by_event on event_subscribers (event);
+
+create view current_mixin_targets as
+select current_class_defs.mod, current_class_defs.type as mixin, mixin_targets.target
+from mixin_targets
+         join current_class_defs on current_class_defs.id = mixin_targets.mixin;
+
+create view current_mixin_injections as
+select current_class_defs.mod,
+       current_class_defs.type as mixin,
+       method_defs.type        as method,
+       mixin_injections.injector,
+       mixin_injections.target,
+       mixin_injections.at_target
+from mixin_injections
+         join method_defs on method_defs.id = mixin_injections.method
+         join current_class_defs on current_class_defs.id = method_defs.owner;
+
+create view current_event_subscribers as
+select current_class_defs.mod, current_class_defs.type as cls, method_defs.type as method, event_subscribers.event
+from event_subscribers
+         join method_defs on method_defs.id = event_subscribers.method
+         join current_class_defs on current_class_defs.id = method_defs.owner;
+
+create function index_annotation_semantics(defs int[])
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    -- Both the classes (value) and the class names (targets) of @Mixin
+    insert into mixin_targets(mixin, target)
+    select class_annotations.owner, get_class_id(replace(targets.target, '.', '/'))
+    from class_annotations
+             join classes annotations on annotations.id = class_annotations.annotation
+             join json_constants on json_constants.id = class_annotations.value
+             cross join lateral (select jsonb_path_query(json_constants.constant, '$.value[*]') #>> '{}'
+                                 union
+                                 select jsonb_path_query(json_constants.constant, '$.targets[*]') #>> '{}') targets(target)
+    where class_annotations.owner = any (defs)
+      and annotations.name = 'org/spongepowered/asm/mixin/Mixin'
+      and targets.target != ''
+    on conflict do nothing;
+
+    -- Injectors are the annotations of the mixin (extras) injection packages with a method selector
+    insert into mixin_injections(method, injector, target, at_target)
+    select distinct method_annotations.owner,
+                    method_annotations.annotation,
+                    get_constant(selectors.selector),
+                    case when ats.at_target is not null then get_constant(ats.at_target) end
+    from method_defs
+             join method_annotations on method_annotations.owner = method_defs.id
+             join classes annotations on annotations.id = method_annotations.annotation
+             join json_constants on json_constants.id = method_annotations.value
+             cross join lateral (select jsonb_path_query(json_constants.constant, '$.method[*]') #>> '{}') selectors(selector)
+             left join lateral (select jsonb_path_query(json_constants.constant, '$.at[*].target') #>> '{}') ats(at_target) on true
+    where method_defs.owner = any (defs)
+      and (annotations.name like 'org/spongepowered/asm/mixin/injection/%' or annotations.name like '%/mixinextras/injector/%')
+      and selectors.selector != '';
+
+    -- The event of a subscriber is the type of its first parameter
+    insert into event_subscribers(method, event)
+    select method_defs.id, get_class_id(substring(descriptors.constant from '^\(L([^;]+);'))
+    from method_defs
+             join method_annotations on method_annotations.owner = method_defs.id
+             join classes annotations on annotations.id = method_annotations.annotation
+             join methods on methods.id = method_defs.type
+             join constants descriptors on descriptors.id = methods.descriptor
+    where method_defs.owner = any (defs)
+      and annotations.name like '%/SubscribeEvent'
+      and descriptors.constant ~ '^\(L[^;]+;'
+    on conflict do nothing;
+end
+$function$
+;
+
+create function rebuild_annotation_semantics()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate mixin_targets, mixin_injections, event_subscribers;
+    perform index_annotation_semantics(array(select id from class_defs));
+end
+$function$
+;
+
+create or replace function insert_class_def(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                                            method_refs int[], method_ref_counts int[], field_refs int[], field_ref_counts int[])
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    cdef     integer;
+    iface    text;
+    fld      json;
+    mtd      json;
+
+    memberid integer;
+    mid      integer;
+    bulk     boolean;
+
+    ann json;
+begin
+    insert into class_defs(mod, generation, type, method_refs, method_ref_counts, field_refs, field_ref_counts)
+    values (mod, generation, get_class_id(name), method_refs, method_ref_counts, field_refs, field_ref_counts)
+    returning id into cdef;
+    if super is not null then
+        insert into class_parents(cls, parent) values (cdef, get_class_id(super));
+    end if;
+
+    foreach iface in array interfaces
+        loop
+            insert into class_parents(cls, parent) values (cdef, get_class_id(iface));
+        end loop;
+
+    -- The closure and the overrides are rebuilt at once at the end of bulk loads
+    bulk := current_setting('waifu.bulk_load', true) is not distinct from 'on';
+    if not bulk then
+        perform add_class_ancestors(cdef);
+    end if;
+
+    for ann in select * from json_array_elements(annotations::json)
+        loop
+            insert into class_annotations(owner, annotation, value) values (cdef, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+        end loop;
+
+    for fld in select * from json_array_elements(fields::json)
+        loop
+            insert into field_defs(owner, type) values (cdef, get_field_id(name, fld ->> 0, fld ->> 1)) returning id into memberid;
+
+            for ann in select * from json_array_elements(fld -> 2)
+                loop
+                    insert into field_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    for mtd in select * from json_array_elements(methods::json)
+        loop
+            mid := get_method_id(name, mtd ->> 0, mtd ->> 1);
+            -- The 4th element is only present (and false) for methods that cannot override others (static or private methods and constructors)
+            insert into method_defs(owner, type, overridable) values (cdef, mid, coalesce((mtd ->> 3)::boolean, true)) returning id into memberid;
+
+            if not bulk and coalesce((mtd ->> 3)::boolean, true) then
+                insert into method_overrides(method, overridden)
+                select memberid, ancestor_methods.id
+                from methods own
+                         join class_ancestors on class_ancestors.cls = cdef
+                         join methods ancestor_methods
+                              on ancestor_methods.cls = class_ancestors.ancestor and ancestor_methods.name = own.name and ancestor_methods.descriptor = own.descriptor
+                where own.id = mid;
+            end if;
+
+            for ann in select * from json_array_elements(mtd -> 2)
+                loop
+                    insert into method_annotations(owner, annotation, value) values (memberid, get_class_id(ann ->> 0), get_json_constant((ann -> 1)::jsonb));
+                end loop;
+        end loop;
+
+    -- Like the closure, the annotation semantics are rebuilt at once at the end of bulk loads
+    if not bulk then
+        perform propagate_class_ancestors(cdef);
+        perform index_annotation_semantics(array [cdef]);
+    end if;
+
+    return cdef;
+end
+$function$
+;
+
+select rebuild_annotation_semantics();
@@ -0,0 +1,113 @@
+-- Tags are stored as <namespace>/<registry>/<path> (with worldgen registries spanning two segments),
+-- while tag files reference other tags of the same registry as #<namespace>:<path>
+create function tag_registry(tag text)
+    returns text
+    language sql
+    immutable
+as
+$function$
+select case
+           when split_part(tag, '/', 2) = 'worldgen' then 'worldgen/' || split_part(tag, '/', 3)
+           else split_part(tag, '/', 2) end
+$function$
+;
+
+create function tag_reference(tag text)
+    returns text
+    language sql
+    immutable
+as
+$function$
+select '#' || split_part(tag, '/', 1) || ':' || substr(tag, length(split_part(tag, '/', 1)) + length(tag_registry(tag)) + 3)
+$function$
+;
+
+-- The entries of the visible tag files, taking replacing files into account, with the tag they reference if they are a tag reference.
+-- Entries of mods are applied in an unspecified order, so as soon as a mod replaces a tag only the entries of the replacing files are kept
+create view current_tag_entries as
+select current_tags.mod, current_tags.tag, current_tags.entry, nested.id as nested
+from current_tags
+         join constants tag_names on tag_names.id = current_tags.tag
+         join constants entries on entries.id = current_tags.entry
+         left join constants nested on entries.constant like '#%' and nested.constant =
+                                                                      split_part(substr(entries.constant, 2), ':', 1) || '/' ||
+                                                                      tag_registry(tag_names.constant) || '/' ||
+                                                                      substr(entries.constant, strpos(entries.constant, ':') + 1)
+where current_tags.replace
+   or not exists (select 1 from current_tags replacing where replacing.tag = current_tags.tag and replacing.replace);
+
+-- The transitive members of each tag, attributed to the mod that added the entry to the tag (via) it is a direct member of.
+-- Direct members have the tag itself as via, and tag references are members themselves so that the mods including a nested tag are attributed too
+create table resolved_tags
+(
+    tag   int not null references constants (id),
+    entry int not null references constants (id),
+    mod   int not null references mods (id) on delete cascade,
+    via   int not null references constants (id),
+    primary key (tag, entry, mod, via)
+);
+
+create index idx_resolved_tags_by_entry on resolved_tags (entry);
+create index idx_resolved_tags_by_mod on resolved_tags (mod);
+create index idx_resolved_tags_by_via on resolved_tags (via);
+
+-- Re-resolves the given tags and all the tags that (transitively) include them
+create function refresh_resolved_tags(tags int[])
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    affected_tags int[];
+begin
+    if tags is null or cardinality(tags) = 0 then
+        return;
+    end if;
+
+    -- Concurrent refreshes of overlapping tags would otherwise miss each other's entries
+    perform pg_advisory_xact_lock(hashtext('resolved_tags'));
+
+    with recursive affected(tag) as (select unnest(tags)
+                                     union
+                                     select including.tag
+                                     from affected
+                                              join constants names on names.id = affected.tag
+                                              join constants refs on refs.constant = tag_reference(names.constant)
+                                              join current_tags including on including.entry = refs.id
+                                              join constants including_names on including_names.id = including.tag
+                                     where tag_registry(including_names.constant) = tag_registry(names.constant))
+    select array_agg(tag)
+    into affected_tags
+    from affected;
+
+    delete from resolved_tags where tag = any (affected_tags);
+
+    insert into resolved_tags(tag, entry, mod, via)
+    with recursive closure(tag, via) as (select tag, tag
+                                         from unnest(affected_tags) tag
+                                         union
+                                         select closure.tag, current_tag_entries.nested
+                                         from closure
+                                                  join current_tag_entries on current_tag_entries.tag = closure.via
+                                         where current_tag_entries.nested is not null)
+    select closure.tag, current_tag_entries.entry, current_tag_entries.mod, closure.via
+    from closure
+             join current_tag_entries on current_tag_entries.tag = closure.via
+    on conflict do nothing;
+end
+$function$
+;
+
+create function rebuild_resolved_tags()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate resolved_tags;
+    perform refresh_resolved_tags(array(select distinct tag from current_tags));
+end
+$function$
+;
+
+select rebuild_resolved_tags();
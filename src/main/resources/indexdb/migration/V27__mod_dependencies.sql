@@ -0,0 +1,115 @@
+-- The usages of the members of each class by the visible generation of the mods, whatever the granularity of their references
+create view current_class_usages as
+select current_method_usages.mod, methods.cls, current_method_usages.count as method_references, 0::bigint as field_references
+from current_method_usages
+         join methods on methods.id = current_method_usages.reference
+union all
+select current_field_usages.mod, fields.cls, 0, current_field_usages.count
+from current_field_usages
+         join fields on fields.id = current_field_usages.reference;
+
+-- Which (non-loader) mods use the classes defined by which other mods. If multiple mods define the same class, the usages count for all of them
+create table mod_dependencies
+(
+    mod               int    not null references mods (id) on delete cascade,
+    dependency        int    not null references mods (id) on delete cascade,
+    classes           int    not null,
+    method_references bigint not null,
+    field_references  bigint not null,
+    primary key (mod, dependency)
+);
+
+create index idx_mod_dependencies_by_dependency on mod_dependencies (dependency);
+
+-- Recomputes both the dependencies of a mod and the dependencies of the other mods on it
+create function refresh_mod_dependencies(md int)
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    -- The dependencies and dependents of two mods stored at once overlap
+    perform pg_advisory_xact_lock(hashtext('mod_dependencies'));
+
+    delete from mod_dependencies where mod = md or dependency = md;
+
+    if (select loader from mods where id = md) then
+        return;
+    end if;
+
+    insert into mod_dependencies(mod, dependency, classes, method_references, field_references)
+    select md, owners.mod, count(distinct usages.cls), sum(usages.method_references), sum(usages.field_references)
+    from current_class_usages usages
+             join (select distinct current_class_defs.mod, current_class_defs.type from current_class_defs) owners
+                  on owners.type = usages.cls and owners.mod != md
+             join mods owner_mods on owner_mods.id = owners.mod and not owner_mods.loader
+    where usages.mod = md
+    group by owners.mod;
+
+    -- The usage views can't look up the packed references by member, so the members of the classes of the mod are looked up in each representation
+    insert into mod_dependencies(mod, dependency, classes, method_references, field_references)
+    with own_classes as (select distinct type from current_class_defs where mod = md),
+         own_methods as (select methods.id, methods.cls from methods join own_classes on own_classes.type = methods.cls),
+         own_fields as (select fields.id, fields.cls from fields join own_classes on own_classes.type = fields.cls),
+         usages(mod, cls, method_references, field_references) as
+             (select current_class_defs.mod, own_methods.cls, method_references.count::bigint, 0::bigint
+              from own_methods
+                       join method_references on method_references.reference = own_methods.id
+                       join current_class_defs on current_class_defs.id = method_references.owner
+              union all
+              select mod_method_references.mod, own_methods.cls, mod_method_references.count, 0
+              from own_methods
+                       join mod_method_references on mod_method_references.reference = own_methods.id
+                       join mods on mods.id = mod_method_references.mod and mods.current_generation = mod_method_references.generation
+              union all
+              select current_class_defs.mod, own_methods.cls, refs.count, 0
+              from current_class_defs
+                       cross join lateral unnest(current_class_defs.method_refs, current_class_defs.method_ref_counts) as refs(reference, count)
+                       join own_methods on own_methods.id = refs.reference
+              where current_class_defs.method_refs && array(select id from own_methods)
+              union all
+              select current_class_defs.mod, own_fields.cls, 0, field_references.count
+              from own_fields
+                       join field_references on field_references.reference = own_fields.id
+                       join current_class_defs on current_class_defs.id = field_references.owner
+              union all
+              select mod_field_references.mod, own_fields.cls, 0, mod_field_references.count
+              from own_fields
+                       join mod_field_references on mod_field_references.reference = own_fields.id
+                       join mods on mods.id = mod_field_references.mod and mods.current_generation = mod_field_references.generation
+              union all
+              select current_class_defs.mod, own_fields.cls, 0, refs.count
+              from current_class_defs
+                       cross join lateral unnest(current_class_defs.field_refs, current_class_defs.field_ref_counts) as refs(reference, count)
+                       join own_fields on own_fields.id = refs.reference
+              where current_class_defs.field_refs && array(select id from own_fields))
+    select usages.mod, md, count(distinct usages.cls), sum(usages.method_references), sum(usages.field_references)
+    from usages
+             join mods user_mods on user_mods.id = usages.mod and not user_mods.loader
+    where usages.mod != md
+    group by usages.mod;
+end
+$function$
+;
+
+create function rebuild_mod_dependencies()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate mod_dependencies;
+
+    insert into mod_dependencies(mod, dependency, classes, method_references, field_references)
+    select usages.mod, owners.mod, count(distinct usages.cls), sum(usages.method_references), sum(usages.field_references)
+    from current_class_usages usages
+             join (select distinct current_class_defs.mod, current_class_defs.type from current_class_defs) owners
+                  on owners.type = usages.cls and owners.mod != usages.mod
+             join mods user_mods on user_mods.id = usages.mod and not user_mods.loader
+             join mods owner_mods on owner_mods.id = owners.mod and not owner_mods.loader
+    group by usages.mod, owners.mod;
+end
+$function$
+;
+
+select rebuild_mod_dependencies();
@@ -0,0 +1,153 @@
+-- HyperLogLog sketches of the distinct symbols (referenced members and annotation types) each mod generation uses,
+-- which can be merged to estimate how many distinct symbols any set of mods uses
+create table mod_sketches
+(
+    mod        int   not null references mods (id) on delete cascade,
+    generation int   not null,
+    symbols    bytea not null,
+    primary key (mod, generation)
+);
+
+-- The annotation types used by each mod generation, on classes, methods and fields
+create view annotation_usages as
+select class_defs.mod, class_defs.generation, usages.annotation, count(*)::int as count
+from class_defs
+         cross join lateral (select class_annotations.annotation
+                             from class_annotations
+                             where class_annotations.owner = class_defs.id
+                             union all
+                             select method_annotations.annotation
+                             from method_defs
+                                      join method_annotations on method_annotations.owner = method_defs.id
+                             where method_defs.owner = class_defs.id
+                             union all
+                             select field_annotations.annotation
+                             from field_defs
+                                      join field_annotations on field_annotations.owner = field_defs.id
+                             where field_defs.owner = class_defs.id) usages
+group by class_defs.mod, class_defs.generation, usages.annotation;
+
+create view tag_usages as
+select mod, generation, tag, count(*)::int as entries
+from tags
+group by mod, generation, tag;
+
+-- Like the member usage totals, the usages of each annotation type and tag over the visible generations of the (non-loader) mods
+create table annotation_usage_totals
+(
+    annotation int    not null primary key references classes (id),
+    mods       int    not null,
+    count      bigint not null
+);
+
+create table tag_usage_totals
+(
+    tag     int    not null primary key references constants (id),
+    mods    int    not null,
+    entries bigint not null
+);
+
+-- Serve the most used symbols of each kind
+create index idx_method_usage_totals_by_mods on method_usage_totals (mods);
+create index idx_field_usage_totals_by_mods on field_usage_totals (mods);
+create index idx_annotation_usage_totals_by_mods on annotation_usage_totals (mods);
+create index idx_tag_usage_totals_by_mods on tag_usage_totals (mods);
+
+create or replace function apply_usage_totals(md int, gen int, sign int)
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    if (select loader from mods where id = md) then
+        return;
+    end if;
+
+    insert into method_usage_totals(reference, mods, count, classes)
+    select reference, sign, sign * count, sign * classes
+    from method_usages
+    where mod = md
+      and generation = gen
+    order by reference
+    on conflict (reference) do update set mods    = method_usage_totals.mods + excluded.mods,
+                                          count   = method_usage_totals.count + excluded.count,
+                                          classes = method_usage_totals.classes + excluded.classes;
+
+    insert into field_usage_totals(reference, mods, count, classes)
+    select reference, sign, sign * count, sign * classes
+    from field_usages
+    where mod = md
+      and generation = gen
+    order by reference
+    on conflict (reference) do update set mods    = field_usage_totals.mods + excluded.mods,
+                                          count   = field_usage_totals.count + excluded.count,
+                                          classes = field_usage_totals.classes + excluded.classes;
+
+    insert into annotation_usage_totals(annotation, mods, count)
+    select annotation, sign, sign * count
+    from annotation_usages
+    where mod = md
+      and generation = gen
+    order by annotation
+    on conflict (annotation) do update set mods  = annotation_usage_totals.mods + excluded.mods,
+                                           count = annotation_usage_totals.count + excluded.count;
+
+    insert into tag_usage_totals(tag, mods, entries)
+    select tag, sign, sign * entries
+    from tag_usages
+    where mod = md
+      and generation = gen
+    order by tag
+    on conflict (tag) do update set mods    = tag_usage_totals.mods + excluded.mods,
+                                    entries = tag_usage_totals.entries + excluded.entries;
+
+    if sign < 0 then
+        -- Don't keep symbols that are no longer used alive
+        delete from method_usage_totals where mods <= 0 and reference in (select reference from method_usages where mod = md and generation = gen);
+        delete from field_usage_totals where mods <= 0 and reference in (select reference from field_usages where mod = md and generation = gen);
+        delete from annotation_usage_totals where mods <= 0 and annotation in (select annotation from annotation_usages where mod = md and generation = gen);
+        delete from tag_usage_totals where mods <= 0 and tag in (select tag from tag_usages where mod = md and generation = gen);
+    end if;
+end
+$function$
+;
+
+create or replace function rebuild_usage_totals()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate method_usage_totals;
+    truncate field_usage_totals;
+    truncate annotation_usage_totals;
+    truncate tag_usage_totals;
+
+    insert into method_usage_totals(reference, mods, count, classes)
+    select reference, count(distinct mod), sum(count), sum(classes)
+    from current_method_usages
+             join mods on mods.id = current_method_usages.mod and not mods.loader
+    group by reference;
+
+    insert into field_usage_totals(reference, mods, count, classes)
+    select reference, count(distinct mod), sum(count), sum(classes)
+    from current_field_usages
+             join mods on mods.id = current_field_usages.mod and not mods.loader
+    group by reference;
+
+    insert into annotation_usage_totals(annotation, mods, count)
+    select annotation, count(distinct mod), sum(count)
+    from annotation_usages
+             join mods on mods.id = annotation_usages.mod and mods.current_generation = annotation_usages.generation and not mods.loader
+    group by annotation;
+
+    insert into tag_usage_totals(tag, mods, entries)
+    select tag, count(distinct mod), sum(entries)
+    from tag_usages
+             join mods on mods.id = tag_usages.mod and mods.current_generation = tag_usages.generation and not mods.loader
+    group by tag;
+end
+$function$
+;
+
+select rebuild_usage_totals();
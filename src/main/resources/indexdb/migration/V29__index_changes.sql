@@ -0,0 +1,28 @@
+-- A feed of the changes to the mods, which downstream consumers can tail by id.
+-- The symbols are the ids of the classes defined by the changed generations of the mod, or null if unknown (e.g. when bulk loading),
+-- and the target is the mod the known files of the mod were transferred to.
+-- Mods are not referenced so that the changes of deleted mods are kept
+create table index_changes
+(
+    id         bigserial primary key,
+    mod        int                      not null,
+    generation int,
+    kind       text                     not null,
+    symbols    int[],
+    target     int,
+    created    timestamp with time zone not null default now()
+);
+
+-- Appends a change. Changes are appended with a lock held until the end of the transaction,
+-- so that they're committed in the order of their ids and consumers tailing the feed never skip a change that's committed late
+create function append_index_change(md int, gen int, knd text, syms int[], tgt int)
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    perform pg_advisory_xact_lock(hashtext('index_changes'));
+    insert into index_changes(mod, generation, kind, symbols, target) values (md, gen, knd, syms, tgt);
+end
+$function$
+;
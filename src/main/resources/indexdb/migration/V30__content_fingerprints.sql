@@ -0,0 +1,8 @@
+-- The fingerprint of the contents of each known file, which doesn't depend on the order of the zip entries, their timestamps or the dates in the manifest.
+-- Files known before fingerprints were computed keep a null fingerprint until they're stored again
+alter table known_files add column content_fingerprint text;
+
+create index idx_known_files_by_content_fingerprint on known_files (content_fingerprint) where content_fingerprint is not null;
+create index idx_known_files_by_mod on known_files (mod);
+
+create index idx_mods_by_name on mods (name);
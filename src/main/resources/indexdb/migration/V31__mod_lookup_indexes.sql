@@ -0,0 +1,4 @@
+-- The columns mods are identified by while indexing, looked up for every candidate file
+create index idx_mods_by_curseforge_project_id on mods (curseforge_project_id);
+create index idx_mods_by_modrinth_project_id on mods (modrinth_project_id);
+create index idx_mods_by_maven_coordinates on mods (maven_coordinates);
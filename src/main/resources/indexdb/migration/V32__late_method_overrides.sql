@@ -0,0 +1,37 @@
+-- Overrides are resolved against the methods known when the overriding class is stored. A method of an ancestor whose symbol is only created later
+-- (e.g. a library method first referenced by a mod stored afterwards) is linked to the methods overriding it when its symbol is created
+create function link_overriding_methods()
+    returns trigger
+    language plpgsql
+as
+$function$
+begin
+    -- The overrides are rebuilt at once at the end of bulk loads
+    if current_setting('waifu.bulk_load', true) is not distinct from 'on' then
+        return null;
+    end if;
+
+    -- Look up the methods with the same signature first, as the new method may belong to a class with a lot of descendants (like java/lang/Object)
+    insert into method_overrides(method, overridden)
+    select method_defs.id, new.id
+    from methods own
+             join method_defs on method_defs.type = own.id and method_defs.overridable
+             join class_ancestors on class_ancestors.cls = method_defs.owner and class_ancestors.ancestor = new.cls
+    where own.name = new.name
+      and own.descriptor = new.descriptor
+      and own.id != new.id
+    on conflict do nothing;
+
+    return null;
+end
+$function$
+;
+
+create trigger link_overriding_methods
+    after insert
+    on methods
+    for each row
+execute function link_overriding_methods();
+
+-- Link the overrides that were missed so far
+select rebuild_method_overrides();
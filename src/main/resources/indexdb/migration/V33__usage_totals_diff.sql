@@ -0,0 +1,174 @@
+-- Applies the difference between the usages of two generations of a mod to the totals in a single pass per kind of symbol, so that the rows of the totals
+-- are locked once and in symbol order (the totals are always updated in the same order: methods, fields, annotations and then tags) and concurrent
+-- publishes can't deadlock on each other.
+-- A null generation has no usages: old_gen is null when a mod is published for the first time and new_gen is null when a mod is deleted.
+-- When rows are added to the visible generation instead, its usages from before the rows were added are passed as previous, as returned by snapshot_usages
+create function apply_usage_totals_diff(md int, old_gen int, new_gen int, previous jsonb)
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    if (select loader from mods where id = md) then
+        return;
+    end if;
+
+    with old as (select reference, count, classes
+                 from method_usages
+                 where mod = md
+                   and generation = old_gen
+                 union all
+                 select symbol, count, classes
+                 from jsonb_to_recordset(previous -> 'methods') as p(symbol int, count bigint, classes bigint)),
+         diff as (select reference,
+                         max(side) filter (where side > 0) is not null as used,
+                         max(side) filter (where side < 0) is not null as was_used,
+                         sum(side * count)                           as count,
+                         sum(side * classes)                         as classes
+                  from (select 1 as side, reference, count, classes
+                        from method_usages
+                        where mod = md
+                          and generation = new_gen
+                        union all
+                        select -1, reference, count, classes
+                        from old) usages
+                  group by reference)
+    insert
+    into method_usage_totals(reference, mods, count, classes)
+    select reference, used::int - was_used::int, count, classes
+    from diff
+    where used != was_used
+       or count != 0
+       or classes != 0
+    order by reference
+    on conflict (reference) do update set mods    = method_usage_totals.mods + excluded.mods,
+                                          count   = method_usage_totals.count + excluded.count,
+                                          classes = method_usage_totals.classes + excluded.classes;
+
+    with old as (select reference, count, classes
+                 from field_usages
+                 where mod = md
+                   and generation = old_gen
+                 union all
+                 select symbol, count, classes
+                 from jsonb_to_recordset(previous -> 'fields') as p(symbol int, count bigint, classes bigint)),
+         diff as (select reference,
+                         max(side) filter (where side > 0) is not null as used,
+                         max(side) filter (where side < 0) is not null as was_used,
+                         sum(side * count)                           as count,
+                         sum(side * classes)                         as classes
+                  from (select 1 as side, reference, count, classes
+                        from field_usages
+                        where mod = md
+                          and generation = new_gen
+                        union all
+                        select -1, reference, count, classes
+                        from old) usages
+                  group by reference)
+    insert
+    into field_usage_totals(reference, mods, count, classes)
+    select reference, used::int - was_used::int, count, classes
+    from diff
+    where used != was_used
+       or count != 0
+       or classes != 0
+    order by reference
+    on conflict (reference) do update set mods    = field_usage_totals.mods + excluded.mods,
+                                          count   = field_usage_totals.count + excluded.count,
+                                          classes = field_usage_totals.classes + excluded.classes;
+
+    with old as (select annotation, count
+                 from annotation_usages
+                 where mod = md
+                   and generation = old_gen
+                 union all
+                 select symbol, count
+                 from jsonb_to_recordset(previous -> 'annotations') as p(symbol int, count bigint)),
+         diff as (select annotation,
+                         max(side) filter (where side > 0) is not null as used,
+                         max(side) filter (where side < 0) is not null as was_used,
+                         sum(side * count)                           as count
+                  from (select 1 as side, annotation, count
+                        from annotation_usages
+                        where mod = md
+                          and generation = new_gen
+                        union all
+                        select -1, annotation, count
+                        from old) usages
+                  group by annotation)
+    insert
+    into annotation_usage_totals(annotation, mods, count)
+    select annotation, used::int - was_used::int, count
+    from diff
+    where used != was_used
+       or count != 0
+    order by annotation
+    on conflict (annotation) do update set mods  = annotation_usage_totals.mods + excluded.mods,
+                                           count = annotation_usage_totals.count + excluded.count;
+
+    with old as (select tag, entries
+                 from tag_usages
+                 where mod = md
+                   and generation = old_gen
+                 union all
+                 select symbol, entries
+                 from jsonb_to_recordset(previous -> 'tags') as p(symbol int, entries bigint)),
+         diff as (select tag,
+                         max(side) filter (where side > 0) is not null as used,
+                         max(side) filter (where side < 0) is not null as was_used,
+                         sum(side * entries)                         as entries
+                  from (select 1 as side, tag, entries
+                        from tag_usages
+                        where mod = md
+                          and generation = new_gen
+                        union all
+                        select -1, tag, entries
+                        from old) usages
+                  group by tag)
+    insert
+    into tag_usage_totals(tag, mods, entries)
+    select tag, used::int - was_used::int, entries
+    from diff
+    where used != was_used
+       or entries != 0
+    order by tag
+    on conflict (tag) do update set mods    = tag_usage_totals.mods + excluded.mods,
+                                    entries = tag_usage_totals.entries + excluded.entries;
+
+    -- Don't keep symbols that are no longer used alive. Only the rows updated above (and therefore already locked) can have dropped to 0
+    delete from method_usage_totals where mods <= 0;
+    delete from field_usage_totals where mods <= 0;
+    delete from annotation_usage_totals where mods <= 0;
+    delete from tag_usage_totals where mods <= 0;
+end
+$function$
+;
+
+-- The usages of the generation of a mod, to be passed to apply_usage_totals_diff once rows have been added to the generation
+create function snapshot_usages(md int, gen int)
+    returns jsonb
+    language sql
+as
+$function$
+select jsonb_build_object(
+               'methods', (select coalesce(jsonb_agg(jsonb_build_object('symbol', reference, 'count', count, 'classes', classes)), '[]')
+                           from method_usages
+                           where mod = md
+                             and generation = gen),
+               'fields', (select coalesce(jsonb_agg(jsonb_build_object('symbol', reference, 'count', count, 'classes', classes)), '[]')
+                          from field_usages
+                          where mod = md
+                            and generation = gen),
+               'annotations', (select coalesce(jsonb_agg(jsonb_build_object('symbol', annotation, 'count', count)), '[]')
+                               from annotation_usages
+                               where mod = md
+                                 and generation = gen),
+               'tags', (select coalesce(jsonb_agg(jsonb_build_object('symbol', tag, 'entries', entries)), '[]')
+                        from tag_usages
+                        where mod = md
+                          and generation = gen)
+       )
+$function$
+stable;
+
+drop function apply_usage_totals(int, int, int);
@@ -0,0 +1,86 @@
+-- The tags touched by stores since the resolved tags were last refreshed. Stores only append to the queue, which has no key so that concurrent stores
+-- touching the same (popular) tags never wait on each other, and the tags are re-resolved once per index run by refresh_pending_resolved_tags
+create table resolved_tags_pending
+(
+    tag int not null
+);
+
+-- Re-resolves the given tags and all the tags that (transitively) include them
+create or replace function refresh_resolved_tags(tags int[])
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    affected_tags int[];
+begin
+    if tags is null or cardinality(tags) = 0 then
+        return;
+    end if;
+
+    -- Concurrent refreshes of overlapping tags would otherwise miss each other's entries. Only the refreshes of the tags of this schema take the lock, not the stores
+    perform pg_advisory_xact_lock(hashtext(current_schema() || '.resolved_tags'));
+
+    with recursive affected(tag) as (select unnest(tags)
+                                     union
+                                     select including.tag
+                                     from affected
+                                              join constants names on names.id = affected.tag
+                                              join constants refs on refs.constant = tag_reference(names.constant)
+                                              join current_tags including on including.entry = refs.id
+                                              join constants including_names on including_names.id = including.tag
+                                     where tag_registry(including_names.constant) = tag_registry(names.constant))
+    select array_agg(tag)
+    into affected_tags
+    from affected;
+
+    delete from resolved_tags where tag = any (affected_tags);
+
+    insert into resolved_tags(tag, entry, mod, via)
+    with recursive closure(tag, via) as (select tag, tag
+                                         from unnest(affected_tags) tag
+                                         union
+                                         select closure.tag, current_tag_entries.nested
+                                         from closure
+                                                  join current_tag_entries on current_tag_entries.tag = closure.via
+                                         where current_tag_entries.nested is not null)
+    select closure.tag, current_tag_entries.entry, current_tag_entries.mod, closure.via
+    from closure
+             join current_tag_entries on current_tag_entries.tag = closure.via
+    on conflict do nothing;
+end
+$function$
+;
+
+-- Re-resolves the tags queued by the stores committed so far, at once. Tags queued by stores committing during the refresh stay queued for the next one
+create function refresh_pending_resolved_tags()
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    tags int[];
+begin
+    with pending as (delete from resolved_tags_pending returning tag)
+    select array_agg(distinct tag)
+    into tags
+    from pending;
+
+    perform refresh_resolved_tags(tags);
+    return coalesce(cardinality(tags), 0);
+end
+$function$
+;
+
+create or replace function rebuild_resolved_tags()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate resolved_tags;
+    truncate resolved_tags_pending;
+    perform refresh_resolved_tags(array(select distinct tag from current_tags));
+end
+$function$
+;
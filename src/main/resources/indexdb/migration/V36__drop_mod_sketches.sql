@@ -0,0 +1,2 @@
+-- The distinct symbols used by a set of mods are counted exactly from their usages, the sketches are no longer needed
+drop table mod_sketches;
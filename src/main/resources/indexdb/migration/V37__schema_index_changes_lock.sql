@@ -0,0 +1,13 @@
+-- Changes only need to be committed in the order of their ids within the feed of a version, so the lock is scoped to the schema of the version
+-- and stores to different versions don't wait on each other
+create or replace function append_index_change(md int, gen int, knd text, syms int[], tgt int)
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    perform pg_advisory_xact_lock(hashtext(current_schema() || '.index_changes'));
+    insert into index_changes(mod, generation, kind, symbols, target) values (md, gen, knd, syms, tgt);
+end
+$function$
+;
@@ -0,0 +1,82 @@
+-- The classes whose parents changed when their mod was re-stored (or which were deleted) since the closure was last refreshed.
+-- The classes of other mods descending from them inherited ancestors through the replaced definitions, which adding the new definitions doesn't remove.
+-- Like resolved_tags_pending, stores only append to the queue and the descendants are refreshed once per index run by refresh_pending_class_descendants
+create table class_descendants_pending
+(
+    type int not null
+);
+
+-- Recomputes the ancestors of the current class definitions descending from the classes queued by the stores committed so far
+create function refresh_pending_class_descendants()
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    types int[];
+    defs  int[];
+begin
+    with pending as (delete from class_descendants_pending returning type)
+    select array_agg(distinct type)
+    into types
+    from pending;
+
+    if types is null then
+        return 0;
+    end if;
+
+    select array_agg(distinct class_ancestors.cls)
+    into defs
+    from class_ancestors
+             join current_class_defs on current_class_defs.id = class_ancestors.cls
+    where class_ancestors.ancestor = any (types);
+
+    if defs is null then
+        return 0;
+    end if;
+
+    delete from class_ancestors where cls = any (defs);
+
+    insert into class_ancestors(cls, ancestor)
+    with recursive ancestors(cls, ancestor) as (select class_parents.cls, class_parents.parent
+                                                from class_parents
+                                                where class_parents.cls = any (defs)
+
+                                                union
+
+                                                select ancestors.cls, class_parents.parent
+                                                from ancestors
+                                                         join current_class_defs parent_defs on parent_defs.type = ancestors.ancestor
+                                                         join class_parents on class_parents.cls = parent_defs.id)
+    select cls, ancestor
+    from ancestors;
+
+    return cardinality(defs);
+end
+$function$
+;
+
+create or replace function rebuild_class_ancestors()
+    returns void
+    language plpgsql
+as
+$function$
+begin
+    truncate class_ancestors;
+    truncate class_descendants_pending;
+
+    insert into class_ancestors(cls, ancestor)
+    with recursive ancestors(cls, ancestor) as (select class_parents.cls, class_parents.parent
+                                                from class_parents
+
+                                                union
+
+                                                select ancestors.cls, class_parents.parent
+                                                from ancestors
+                                                         join current_class_defs parent_defs on parent_defs.type = ancestors.ancestor
+                                                         join class_parents on class_parents.cls = parent_defs.id)
+    select cls, ancestor
+    from ancestors;
+end
+$function$
+;
@@ -0,0 +1,35 @@
+-- The methods of the classes descending from re-stored classes may have overridden methods through the replaced definitions, so their overrides
+-- are recomputed together with their ancestors, which refresh_class_ancestors does for the definitions passed to it
+create or replace function refresh_pending_class_descendants()
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    types int[];
+    defs  int[];
+begin
+    with pending as (delete from class_descendants_pending returning type)
+    select array_agg(distinct type)
+    into types
+    from pending;
+
+    if types is null then
+        return 0;
+    end if;
+
+    select array_agg(distinct class_ancestors.cls)
+    into defs
+    from class_ancestors
+             join current_class_defs on current_class_defs.id = class_ancestors.cls
+    where class_ancestors.ancestor = any (types);
+
+    if defs is null then
+        return 0;
+    end if;
+
+    perform refresh_class_ancestors(defs);
+    return cardinality(defs);
+end
+$function$
+;
@@ -0,0 +1,71 @@
+-- Resolve member references to their ids in bulk, creating the members that don't exist yet, so that the writer can cache the ids
+-- and pass them to insert_class_resolved instead of having every reference looked up by name for every stored class.
+-- The ids are returned in the order of the given members
+create function resolve_method_ids(owners text[], names text[], descriptors text[])
+    returns int[]
+    language sql
+as
+$function$
+select coalesce(array_agg(get_method_id(refs.owner, refs.nm, refs.descriptor) order by refs.ord), '{}')
+from unnest(owners, names, descriptors) with ordinality as refs(owner, nm, descriptor, ord)
+$function$
+;
+
+create function resolve_field_ids(owners text[], names text[], descriptors text[])
+    returns int[]
+    language sql
+as
+$function$
+select coalesce(array_agg(get_field_id(refs.owner, refs.nm, refs.descriptor) order by refs.ord), '{}')
+from unnest(owners, names, descriptors) with ordinality as refs(owner, nm, descriptor, ord)
+$function$
+;
+
+create function insert_class_resolved(mod int, generation int, name text, super text, interfaces text[], annotations text, fields text, methods text,
+                                      method_refs int[], method_ref_counts int[], field_refs int[], field_ref_counts int[], packed boolean)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    cdef    integer;
+    mrefs   int[];
+    mcounts int[];
+    frefs   int[];
+    fcounts int[];
+begin
+    -- The ids may come from the cache of the writer, so lock the referenced members against being reclaimed as orphans until we commit
+    -- and make sure none was reclaimed since they were cached. The writer drops its cache and retries on the serialization failure
+    perform 1 from methods where id = any (method_refs) for key share;
+    perform 1 from fields where id = any (field_refs) for key share;
+    if (select count(*) from methods where id = any (method_refs)) != cardinality(method_refs)
+        or (select count(*) from fields where id = any (field_refs)) != cardinality(field_refs) then
+        raise exception 'Referenced member of class % was concurrently deleted', name using errcode = 'serialization_failure';
+    end if;
+
+    if not packed then
+        cdef := insert_class_def(mod, generation, name, super, interfaces, annotations, fields, methods, null, null, null, null);
+
+        insert into method_references(owner, reference, count)
+        select cdef, r.id, r.cnt::smallint
+        from unnest(method_refs, method_ref_counts) as r(id, cnt);
+
+        insert into field_references(owner, reference, count)
+        select cdef, r.id, r.cnt::smallint
+        from unnest(field_refs, field_ref_counts) as r(id, cnt);
+
+        return cdef;
+    end if;
+
+    select coalesce(array_agg(r.id order by r.id), '{}'), coalesce(array_agg(r.cnt order by r.id), '{}')
+    into mrefs, mcounts
+    from unnest(method_refs, method_ref_counts) as r(id, cnt);
+
+    select coalesce(array_agg(r.id order by r.id), '{}'), coalesce(array_agg(r.cnt order by r.id), '{}')
+    into frefs, fcounts
+    from unnest(field_refs, field_ref_counts) as r(id, cnt);
+
+    return insert_class_def(mod, generation, name, super, interfaces, annotations, fields, methods, mrefs, mcounts, frefs, fcounts);
+end
+$function$
+;
@@ -0,0 +1,32 @@
+-- Sketches of the usages of each mod generation, computed when the mod is stored: a count-min sketch of the amount of usages of each symbol,
+-- keyed by a hash of the kind and name of the symbol, and the HyperLogLog register and rank of the mod, which is the single element the mod
+-- adds to the distinct-mod sketch of every symbol it uses
+create table mod_sketches
+(
+    mod          int      not null references mods (id) on delete cascade,
+    generation   int      not null,
+    hll_register smallint not null,
+    hll_rank     smallint not null,
+    counts       bytea    not null,
+    primary key (mod, generation)
+);
+
+-- The sketches of the visible generations of the (non-loader) mods, merged by SQLDatabase#mergeSketches: the distinct-mod sketch of each
+-- symbol, with its estimate, and the count-min sketch of all usages
+create table symbol_sketches
+(
+    kind      text  not null,
+    symbol    int   not null,
+    registers bytea not null,
+    mods      int   not null,
+    primary key (kind, symbol)
+);
+
+create index idx_symbol_sketches_by_mods on symbol_sketches (kind, mods desc);
+
+create table usage_counts_sketch
+(
+    id     boolean   not null primary key default true check (id),
+    counts bytea     not null,
+    merged timestamp not null
+);
@@ -0,0 +1,141 @@
+-- A dictionary shared by all version schemas, assigning stable ids to symbols across versions.
+-- Version schemas keep their own dictionary tables (which the foreign keys reference) but schemas created with an empty dictionary
+-- take their ids from the shared one, so a symbol has the same id in every such schema and the shared tables are warm for new versions
+create schema if not exists waifu_shared;
+
+create table if not exists waifu_shared.classes
+(
+    id   serial primary key,
+    name text not null unique
+);
+
+create table if not exists waifu_shared.constants
+(
+    id       serial primary key,
+    constant text not null unique
+);
+
+create table if not exists waifu_shared.json_constants
+(
+    id       serial primary key,
+    constant jsonb not null unique
+);
+
+create table if not exists waifu_shared.methods
+(
+    id         serial primary key,
+    cls        int not null,
+    name       int not null,
+    descriptor int not null,
+    unique (cls, name, descriptor)
+);
+
+create table if not exists waifu_shared.fields
+(
+    id         serial primary key,
+    cls        int not null,
+    name       int not null,
+    descriptor int not null,
+    unique (cls, name, descriptor)
+);
+
+create or replace function waifu_shared.get_class_id(nm text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from waifu_shared.classes where name = nm;
+    if existing is null then
+        insert into waifu_shared.classes(name) values (nm) on conflict do nothing returning id into existing;
+        if existing is null then
+            select id into existing from waifu_shared.classes where name = nm;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function waifu_shared.get_constant(const text)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from waifu_shared.constants where constant = const;
+    if existing is null then
+        insert into waifu_shared.constants(constant) values (const) on conflict do nothing returning id into existing;
+        if existing is null then
+            select id into existing from waifu_shared.constants where constant = const;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function waifu_shared.get_json_constant(const jsonb)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from waifu_shared.json_constants where constant = const;
+    if existing is null then
+        insert into waifu_shared.json_constants(constant) values (const) on conflict do nothing returning id into existing;
+        if existing is null then
+            select id into existing from waifu_shared.json_constants where constant = const;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function waifu_shared.get_method_id(ownerid int, metname int, metdesc int)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from waifu_shared.methods where cls = ownerid and name = metname and descriptor = metdesc;
+    if existing is null then
+        insert into waifu_shared.methods(cls, name, descriptor) values (ownerid, metname, metdesc) on conflict do nothing returning id into existing;
+        if existing is null then
+            select id into existing from waifu_shared.methods where cls = ownerid and name = metname and descriptor = metdesc;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
+create or replace function waifu_shared.get_field_id(ownerid int, fieldname int, typeid int)
+    returns int
+    language plpgsql
+as
+$function$
+declare
+    existing integer;
+begin
+    select id into existing from waifu_shared.fields where cls = ownerid and name = fieldname and descriptor = typeid;
+    if existing is null then
+        insert into waifu_shared.fields(cls, name, descriptor) values (ownerid, fieldname, typeid) on conflict do nothing returning id into existing;
+        if existing is null then
+            select id into existing from waifu_shared.fields where cls = ownerid and name = fieldname and descriptor = typeid;
+        end if;
+    end if;
+    return existing;
+end
+$function$
+;
+
@@ -0,0 +1,99 @@
+-- Views in the waifu_all schema consolidating the data of all version schemas, with the game version and loader as leading columns
+-- and symbols resolved to their names, so that usages can be compared across versions in a single query.
+-- Each version schema is a branch of a union all with constant version and loader columns: filters on them prune the other branches,
+-- and the remaining ones can be scanned by a parallel append
+create or replace function waifu_shared.refresh_consolidated_views()
+    returns void
+    language plpgsql
+as
+$function$
+declare
+    schemas text[];
+    sch     text;
+    version text;
+    loader  text;
+
+    mods_sql          text := '';
+    class_defs_sql    text := '';
+    method_usages_sql text := '';
+    field_usages_sql  text := '';
+    method_totals_sql text := '';
+    field_totals_sql  text := '';
+begin
+    -- Concurrently starting indexers would otherwise race on replacing the views
+    perform pg_advisory_xact_lock(hashtext('waifu_all'));
+
+    -- Only consider version schemas that have been migrated far enough to have all the consolidated tables
+    select array_agg(nspname order by nspname)
+    into schemas
+    from pg_namespace
+    where nspname ~ '^.+-[a-z]+$'
+      and to_regclass(format('%I.method_usage_totals', nspname)) is not null;
+
+    create schema if not exists waifu_all;
+
+    if schemas is null then
+        return;
+    end if;
+
+    foreach sch in array schemas
+        loop
+            version := substring(sch from '^(.+)-[a-z]+$');
+            loader := substring(sch from '^.+-([a-z]+)$');
+
+            if mods_sql != '' then
+                mods_sql := mods_sql || ' union all ';
+                class_defs_sql := class_defs_sql || ' union all ';
+                method_usages_sql := method_usages_sql || ' union all ';
+                field_usages_sql := field_usages_sql || ' union all ';
+                method_totals_sql := method_totals_sql || ' union all ';
+                field_totals_sql := field_totals_sql || ' union all ';
+            end if;
+
+            mods_sql := mods_sql || format(
+                    'select %L::text as game_version, %L::text as loader, m.id, m.name, m.version, m.mod_ids, m.loader as is_loader, m.license, m.authors, ' ||
+                    'm.index_date, m.maven_coordinates, m.curseforge_project_id, m.modrinth_project_id from %I.mods m',
+                    version, loader, sch);
+
+            class_defs_sql := class_defs_sql || format(
+                    'select %L::text as game_version, %L::text as loader, cd.mod, c.name as class from %I.current_class_defs cd join %I.classes c on c.id = cd.type',
+                    version, loader, sch, sch);
+
+            method_usages_sql := method_usages_sql || format(
+                    'select %L::text as game_version, %L::text as loader, u.mod, o.name as owner, n.constant as name, d.constant as descriptor, u.count, u.classes ' ||
+                    'from %I.current_method_usages u join %I.methods m on m.id = u.reference join %I.classes o on o.id = m.cls ' ||
+                    'join %I.constants n on n.id = m.name join %I.constants d on d.id = m.descriptor',
+                    version, loader, sch, sch, sch, sch, sch);
+
+            field_usages_sql := field_usages_sql || format(
+                    'select %L::text as game_version, %L::text as loader, u.mod, o.name as owner, n.constant as name, d.name as descriptor, u.count, u.classes ' ||
+                    'from %I.current_field_usages u join %I.fields f on f.id = u.reference join %I.classes o on o.id = f.cls ' ||
+                    'join %I.constants n on n.id = f.name join %I.classes d on d.id = f.descriptor',
+                    version, loader, sch, sch, sch, sch, sch);
+
+            method_totals_sql := method_totals_sql || format(
+                    'select %L::text as game_version, %L::text as loader, o.name as owner, n.constant as name, d.constant as descriptor, t.mods, t.count, t.classes ' ||
+                    'from %I.method_usage_totals t join %I.methods m on m.id = t.reference join %I.classes o on o.id = m.cls ' ||
+                    'join %I.constants n on n.id = m.name join %I.constants d on d.id = m.descriptor',
+                    version, loader, sch, sch, sch, sch, sch);
+
+            field_totals_sql := field_totals_sql || format(
+                    'select %L::text as game_version, %L::text as loader, o.name as owner, n.constant as name, d.name as descriptor, t.mods, t.count, t.classes ' ||
+                    'from %I.field_usage_totals t join %I.fields f on f.id = t.reference join %I.classes o on o.id = f.cls ' ||
+                    'join %I.constants n on n.id = f.name join %I.classes d on d.id = f.descriptor',
+                    version, loader, sch, sch, sch, sch, sch);
+        end loop;
+
+    -- The views are dropped first as replacing them fails if the set of branches changed the inferred column types
+    drop view if exists waifu_all.mods, waifu_all.class_defs, waifu_all.method_usages, waifu_all.field_usages,
+        waifu_all.method_usage_totals, waifu_all.field_usage_totals;
+
+    execute 'create view waifu_all.mods as ' || mods_sql;
+    execute 'create view waifu_all.class_defs as ' || class_defs_sql;
+    execute 'create view waifu_all.method_usages as ' || method_usages_sql;
+    execute 'create view waifu_all.field_usages as ' || field_usages_sql;
+    execute 'create view waifu_all.method_usage_totals as ' || method_totals_sql;
+    execute 'create view waifu_all.field_usage_totals as ' || field_totals_sql;
+end
+$function$
+;
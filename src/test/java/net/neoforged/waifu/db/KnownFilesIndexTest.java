@@ -0,0 +1,255 @@
+package net.neoforged.waifu.db;
+
+import net.neoforged.waifu.platform.ModPlatform;
+import net.neoforged.waifu.platform.PlatformMod;
+import net.neoforged.waifu.platform.PlatformModFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KnownFilesIndexTest {
+    private static final ModPlatform PLATFORM = platform(ModPlatform.MODRINTH);
+    private static final ModPlatform OTHER_PLATFORM = platform(ModPlatform.CURSEFORGE);
+
+    @Test
+    void missesAreDefinitive() {
+        var db = new FakeDatabase();
+        db.files.add("a");
+        db.files.add("b");
+        var index = KnownFilesIndex.load(db.proxy(), List.of(PLATFORM));
+
+        assertTrue(index.mayBeKnown("a"));
+        assertTrue(index.mayBeKnown("b"));
+        assertFalse(index.mayBeKnown("c"));
+
+        index.markKnown("c");
+        assertTrue(index.mayBeKnown("c"));
+    }
+
+    @Test
+    void delegatesToTheDatabaseIfItCannotEnumerateItsFiles() {
+        var db = new FakeDatabase();
+        db.enumerable = false;
+        var index = KnownFilesIndex.load(db.proxy(), List.of(PLATFORM));
+
+        assertTrue(index.mayBeKnown("a"));
+
+        var file = new TestFile(PLATFORM, 1);
+        index.markKnownById(file, Instant.EPOCH);
+        assertEquals(Map.of(1, Instant.EPOCH), db.fileIds.get(PLATFORM.getName()));
+        assertEquals(Instant.EPOCH, index.getKnownLatestProjectFileDate(file));
+        assertEquals(1, db.dateQueries);
+    }
+
+    @Test
+    void onlyQueriesTheDatesOfKnownFileIds() {
+        var db = new FakeDatabase();
+        db.fileIds.put(PLATFORM.getName(), new HashMap<>(Map.of(1, Instant.EPOCH)));
+        var index = KnownFilesIndex.load(db.proxy(), List.of(PLATFORM, OTHER_PLATFORM));
+
+        assertNull(index.getKnownLatestProjectFileDate(new TestFile(PLATFORM, 2)));
+        // The same ID on another platform is another file
+        assertNull(index.getKnownLatestProjectFileDate(new TestFile(OTHER_PLATFORM, 1)));
+        assertEquals(0, db.dateQueries);
+
+        assertEquals(Instant.EPOCH, index.getKnownLatestProjectFileDate(new TestFile(PLATFORM, 1)));
+        assertEquals(1, db.dateQueries);
+    }
+
+    @Test
+    void writesMarkedFilesInBatches() {
+        var db = new FakeDatabase();
+        var index = KnownFilesIndex.load(db.proxy(), List.of(PLATFORM));
+
+        var date = Instant.ofEpochSecond(1000);
+        for (int i = 0; i < 499; i++) {
+            index.markKnownById(new TestFile(PLATFORM, i), date);
+        }
+        assertEquals(0, db.batches.size());
+
+        // Pending files are known before they're written
+        assertEquals(date, index.getKnownLatestProjectFileDate(new TestFile(PLATFORM, 42)));
+        assertEquals(0, db.dateQueries);
+
+        index.markKnownById(new TestFile(PLATFORM, 499), date);
+        assertEquals(1, db.batches.size());
+        assertEquals(500, db.batches.getFirst().size());
+
+        index.markKnownById(new TestFile(PLATFORM, 500), date);
+        index.flush();
+        assertEquals(2, db.batches.size());
+        assertEquals(1, db.batches.getLast().size());
+
+        index.flush();
+        assertEquals(2, db.batches.size());
+    }
+
+    @Test
+    void keepsTheFirstDateAFileIsMarkedWith() {
+        var db = new FakeDatabase();
+        var index = KnownFilesIndex.load(db.proxy(), List.of(PLATFORM));
+
+        var file = new TestFile(PLATFORM, 1);
+        index.markKnownById(file, Instant.ofEpochSecond(1));
+        index.markKnownById(file, Instant.ofEpochSecond(2));
+        assertEquals(Instant.ofEpochSecond(1), index.getKnownLatestProjectFileDate(file));
+
+        index.flush();
+        assertEquals(Map.of(1, Instant.ofEpochSecond(1)), db.fileIds.get(PLATFORM.getName()));
+
+        // Once written the file is known, so marking it again is a no-op
+        index.markKnownById(file, Instant.ofEpochSecond(3));
+        index.flush();
+        assertEquals(1, db.batches.size());
+    }
+
+    @Test
+    void failedBatchesAreRetriedWithTheNextFlush() {
+        var db = new FakeDatabase();
+        var index = KnownFilesIndex.load(db.proxy(), List.of(PLATFORM));
+
+        index.markKnownById(new TestFile(PLATFORM, 1), Instant.EPOCH);
+        db.failNextBatch = true;
+        assertThrows(IllegalStateException.class, index::flush);
+        assertEquals(0, db.batches.size());
+
+        index.markKnownById(new TestFile(PLATFORM, 2), Instant.EPOCH);
+        index.flush();
+        assertEquals(1, db.batches.size());
+        assertEquals(Map.of(1, Instant.EPOCH, 2, Instant.EPOCH), db.fileIds.get(PLATFORM.getName()));
+    }
+
+    @Test
+    void fallsBackToTheDatabaseIfLoadingFails() {
+        var db = new FakeDatabase();
+        db.files.add("a");
+        db.failEnumeration = true;
+        var index = KnownFilesIndex.load(db.proxy(), List.of(PLATFORM));
+
+        assertTrue(index.mayBeKnown("b"));
+    }
+
+    private static ModPlatform platform(String name) {
+        return (ModPlatform) Proxy.newProxyInstance(KnownFilesIndexTest.class.getClassLoader(), new Class[] {ModPlatform.class}, (proxy, method, args) -> switch (method.getName()) {
+            case "getName", "toString" -> name;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private record TestFile(ModPlatform platform, Object id) implements PlatformModFile {
+        @Override
+        public Object getModId() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object getId() {
+            return id;
+        }
+
+        @Override
+        public PlatformMod getMod() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getHash() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getFileLength() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InputStream download() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ModPlatform getPlatform() {
+            return platform;
+        }
+
+        @Override
+        public String getUrl() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A database only implementing the known files, as a proxy since the other methods of {@link IndexDatabase} are irrelevant to the index.
+     */
+    private static final class FakeDatabase implements InvocationHandler {
+        final Set<String> files = new HashSet<>();
+        final Map<String, Map<Object, Instant>> fileIds = new HashMap<>();
+        final List<Map<PlatformModFile, Instant>> batches = new ArrayList<>();
+        boolean enumerable = true, failEnumeration, failNextBatch;
+        int dateQueries;
+
+        IndexDatabase<?> proxy() {
+            return (IndexDatabase<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {IndexDatabase.class}, this);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "forEachKnownFile" -> {
+                    if (failEnumeration) throw new IllegalStateException("Connection lost");
+                    if (enumerable) files.forEach((Consumer<String>) args[0]);
+                    return enumerable;
+                }
+                case "forEachKnownFileId" -> {
+                    if (enumerable) fileIds.getOrDefault(((ModPlatform) args[0]).getName(), Map.of()).keySet().forEach((Consumer<Object>) args[1]);
+                    return enumerable;
+                }
+                case "getKnownLatestProjectFileDate" -> {
+                    dateQueries++;
+                    var file = (PlatformModFile) args[0];
+                    return fileIds.getOrDefault(file.getPlatform().getName(), Map.of()).get(file.getId());
+                }
+                case "markKnownById" -> {
+                    markKnown((PlatformModFile) args[0], (Instant) args[1]);
+                    return null;
+                }
+                case "markKnownByIds" -> {
+                    if (failNextBatch) {
+                        failNextBatch = false;
+                        throw new IllegalStateException("Connection lost");
+                    }
+                    var batch = new LinkedHashMap<>((Map<PlatformModFile, Instant>) args[0]);
+                    batches.add(batch);
+                    batch.forEach(this::markKnown);
+                    return null;
+                }
+                default -> throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        private void markKnown(PlatformModFile file, Instant date) {
+            fileIds.computeIfAbsent(file.getPlatform().getName(), k -> new HashMap<>()).putIfAbsent(file.getId(), date);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package net.neoforged.waifu.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ModCacheTest {
+    private TestDatabase database;
+
+    @BeforeEach
+    void setUp() {
+        database = TestDatabase.create();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Test
+    void servesRepeatedLookupsFromTheCache() {
+        var mod = database.createMod("Example");
+
+        // Changes made behind the back of the database are not seen by cached lookups
+        database.update("update mods set name = 'Renamed' where name = 'Example'");
+        assertEquals(List.of(mod), database.db.getModsByName("Example"));
+        assertEquals("Example", database.db.getModsByName("Example").getFirst().getName());
+
+        assertEquals(List.of(mod), database.db.getModsByName("Renamed"));
+    }
+
+    @Test
+    void linkingEvictsCachedMisses() {
+        var mod = database.createMod("Example");
+        assertNull(database.db.getModByCoordinates("com.example:example"));
+
+        mod.link("com.example:example");
+
+        assertEquals(mod, database.db.getModByCoordinates("com.example:example"));
+        // The cached row of the mod is replaced by the updated one
+        assertEquals("com.example:example", database.db.getModsByName("Example").getFirst().getMavenCoordinate());
+    }
+
+    @Test
+    void relinkingEvictsTheOldCoordinates() {
+        var mod = database.createMod("Example");
+        mod.link("com.example:example");
+        assertEquals(mod, database.db.getModByCoordinates("com.example:example"));
+
+        database.db.getModsByName("Example").getFirst().link("com.example:renamed");
+
+        assertNull(database.db.getModByCoordinates("com.example:example"));
+        assertEquals(mod, database.db.getModByCoordinates("com.example:renamed"));
+    }
+
+    @Test
+    void deletingEvictsTheLookupsOfTheMod() {
+        var mod = database.createMod("Example");
+        mod.link("com.example:example");
+        assertEquals(List.of(mod), database.db.getModsByName("Example"));
+        assertEquals(mod, database.db.getModByCoordinates("com.example:example"));
+
+        mod.delete();
+
+        assertEquals(List.of(), database.db.getModsByName("Example"));
+        assertNull(database.db.getModByCoordinates("com.example:example"));
+    }
+
+    @Test
+    void mergingDuplicatesEvictsTheLookupsOfBothMods() {
+        var kept = database.createMod("Kept");
+        database.createMod("Duplicate").link("com.example:duplicate");
+        var duplicate = database.db.getModByCoordinates("com.example:duplicate");
+        assertEquals(List.of(duplicate), database.db.getModsByName("Duplicate"));
+
+        database.db.mergeDuplicates(List.of(new IndexDatabase.Duplicate<>(duplicate, kept)));
+
+        assertEquals(List.of(), database.db.getModsByName("Duplicate"));
+        // The kept mod takes over the coordinates of the duplicate
+        assertEquals(kept, database.db.getModByCoordinates("com.example:duplicate"));
+        assertEquals("com.example:duplicate", database.db.getModsByName("Kept").getFirst().getMavenCoordinate());
+    }
+}
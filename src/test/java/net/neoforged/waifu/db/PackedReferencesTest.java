@@ -0,0 +1,115 @@
+package net.neoforged.waifu.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static net.neoforged.waifu.db.TestDatabase.classData;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PackedReferencesTest {
+    private static final ClassData.Reference TICK = new ClassData.Reference("net/minecraft/world/level/Level", "tick", "()V");
+    private static final ClassData.Reference USE = new ClassData.Reference("net/minecraft/world/item/Item", "use", "(I)Z");
+    private static final ClassData.Reference LEVEL = new ClassData.Reference("net/minecraft/world/entity/Entity", "level", "Lnet/minecraft/world/level/Level;");
+
+    private static final List<ClassData> CLASSES = List.of(
+            classData("com/example/Blocks", Map.of(TICK, 2), Map.of(LEVEL, 1)),
+            classData("com/example/Items", Map.of(TICK, 4, USE, 1), Map.of(LEVEL, 3))
+    );
+
+    private TestDatabase database;
+
+    @BeforeEach
+    void setUp() {
+        database = TestDatabase.create();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Test
+    void packedReferencesHaveTheSameUsagesAsRows() {
+        var rows = database.createMod("Rows");
+        var packed = database.createMod("Packed");
+
+        store(rows, IndexDatabase.ReferenceGranularity.CLASS, CLASSES);
+        store(packed, IndexDatabase.ReferenceGranularity.PACKED, CLASSES);
+
+        // The packed layout stores the references on the class_defs rows
+        assertEquals(List.of("0"), database.query("select count(*) from class_defs join mods on mods.id = class_defs.mod where mods.name = 'Packed' and class_defs.method_refs is null"));
+        assertEquals(
+                List.of(
+                        "net/minecraft/world/item/Item.use(I)Z 1 1",
+                        "net/minecraft/world/level/Level.tick()V 6 2"
+                ),
+                methodUsages("Rows")
+        );
+        assertEquals(methodUsages("Rows"), methodUsages("Packed"));
+        assertEquals(fieldUsages("Rows"), fieldUsages("Packed"));
+
+        assertEquals(new IndexDatabase.SymbolUsage("net/minecraft/world/level/Level.tick()V", 2, 12), database.db.getUsage(IndexDatabase.SymbolKind.METHOD, "net/minecraft/world/level/Level.tick()V"));
+    }
+
+    @Test
+    void storingWithAnotherLayoutReplacesTheReferences() {
+        var mod = database.createMod("Example");
+
+        store(mod, IndexDatabase.ReferenceGranularity.CLASS, CLASSES);
+        store(mod, IndexDatabase.ReferenceGranularity.PACKED, List.of(classData("com/example/Blocks", Map.of(USE, 2), Map.of())));
+
+        assertEquals(List.of("net/minecraft/world/item/Item.use(I)Z 2 1"), methodUsages("Example"));
+        assertEquals(List.of(), fieldUsages("Example"));
+        assertNull(database.db.getUsage(IndexDatabase.SymbolKind.METHOD, "net/minecraft/world/level/Level.tick()V"));
+        assertEquals(new IndexDatabase.SymbolUsage("net/minecraft/world/item/Item.use(I)Z", 1, 2), database.db.getUsage(IndexDatabase.SymbolKind.METHOD, "net/minecraft/world/item/Item.use(I)Z"));
+
+        store(mod, IndexDatabase.ReferenceGranularity.CLASS, CLASSES);
+        assertEquals(
+                List.of(
+                        "net/minecraft/world/item/Item.use(I)Z 1 1",
+                        "net/minecraft/world/level/Level.tick()V 6 2"
+                ),
+                methodUsages("Example")
+        );
+    }
+
+    private void store(SQLDatabase.SqlMod mod, IndexDatabase.ReferenceGranularity granularity, List<ClassData> classes) {
+        database.db.setReferenceGranularity(granularity);
+        database.db.trackMod(mod, tracker -> {
+            tracker.deleteCurrent();
+            tracker.insertClasses(classes);
+        });
+    }
+
+    /**
+     * {@return the symbol, count and amount of referencing classes of each method used by the current generation of the mod}
+     */
+    private List<String> methodUsages(String mod) {
+        return database.query("""
+select owners.name || '.' || names.constant || descriptors.constant, usages.count, usages.classes from current_method_usages usages
+join mods on mods.id = usages.mod
+join methods on methods.id = usages.reference
+join classes owners on owners.id = methods.cls
+join constants names on names.id = methods.name
+join constants descriptors on descriptors.id = methods.descriptor
+where mods.name = ?
+order by 1""", mod);
+    }
+
+    private List<String> fieldUsages(String mod) {
+        return database.query("""
+select owners.name || '.' || names.constant || ':' || descriptors.name, usages.count, usages.classes from current_field_usages usages
+join mods on mods.id = usages.mod
+join fields on fields.id = usages.reference
+join classes owners on owners.id = fields.cls
+join constants names on names.id = fields.name
+join classes descriptors on descriptors.id = fields.descriptor
+where mods.name = ?
+order by 1""", mod);
+    }
+}
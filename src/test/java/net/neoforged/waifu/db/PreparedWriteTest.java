@@ -0,0 +1,94 @@
+package net.neoforged.waifu.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PreparedWriteTest {
+    @Test
+    void roundTripsAllTheRows() throws IOException {
+        var write = new PreparedWrite(
+                42, true,
+                List.of(
+                        new PreparedWrite.ClassRow("com/example/Mod", "java/lang/Object", new String[] {"java/lang/Runnable", "java/io/Serializable"}, "[]", "[{\"name\":\"x\"}]", "[]", "{\"methods\":[]}"),
+                        new PreparedWrite.ClassRow("com/example/Mod$Inner", null, new String[0], "[]", "[]", "[]", "{}")
+                ),
+                true, "{\"refs\":[]}",
+                List.of(new TagFile("minecraft:block/logs", false, List.of("example:log", "#minecraft:oak_logs"))),
+                List.of(new PreparedWrite.EnumExtensionRow("net/minecraft/world/item/Rarity", "EXAMPLE", "(Ljava/lang/String;)V", "[\"example\"]")),
+                List.of("da39a3ee5e6b4b0d3255bfef95601890afd80709", "a9993e364706816aba3e25717850c26c9cd0d89d"),
+                Instant.ofEpochMilli(1_700_000_000_123L),
+                Arrays.asList("fingerprint", null),
+                new PreparedWrite.MetadataRow(
+                        "1.0.0", "Example Mod", List.of("example", "example_api"), "Someone", null, "com.example:example:1.0.0",
+                        "MIT", "modLoader=\"javafml\"", "{\"modLoader\":\"javafml\"}", "Manifest-Version: 1.0"
+                ),
+                new byte[] {1, 2, 3, 4}
+        );
+
+        var decoded = PreparedWrite.decode(write.encode());
+
+        assertEquals(42, decoded.modId());
+        assertEquals(true, decoded.replace());
+        assertEquals(2, decoded.classes().size());
+        assertClassEquals(write.classes().get(0), decoded.classes().get(0));
+        assertClassEquals(write.classes().get(1), decoded.classes().get(1));
+        assertEquals(true, decoded.packedReferences());
+        assertEquals(write.modReferences(), decoded.modReferences());
+        assertEquals(write.tags(), decoded.tags());
+        assertEquals(write.enumExtensions(), decoded.enumExtensions());
+        assertEquals(write.knownFiles(), decoded.knownFiles());
+        assertEquals(write.indexDate(), decoded.indexDate());
+        assertEquals(write.knownFileFingerprints(), decoded.knownFileFingerprints());
+        assertEquals(write.metadata(), decoded.metadata());
+        assertArrayEquals(write.usageCounts(), decoded.usageCounts());
+
+        assertArrayEquals(write.encode(), decoded.encode());
+    }
+
+    @Test
+    void roundTripsAbsentValues() throws IOException {
+        var write = new PreparedWrite(
+                7, false, List.of(), false, null, List.of(), List.of(),
+                List.of(), null, List.of(), null, new byte[0]
+        );
+
+        var decoded = PreparedWrite.decode(write.encode());
+
+        assertEquals(7, decoded.modId());
+        assertEquals(false, decoded.replace());
+        assertEquals(List.of(), decoded.classes());
+        assertNull(decoded.modReferences());
+        assertNull(decoded.indexDate());
+        assertNull(decoded.metadata());
+        assertArrayEquals(new byte[0], decoded.usageCounts());
+    }
+
+    @Test
+    void truncatedPayloadFailsToDecode() {
+        var encoded = new PreparedWrite(
+                7, false, List.of(), false, null, List.of(), List.of(),
+                List.of("da39a3ee5e6b4b0d3255bfef95601890afd80709"), null, List.of("fingerprint"), null, new byte[] {1, 2, 3}
+        ).encode();
+
+        assertThrows(IOException.class, () -> PreparedWrite.decode(Arrays.copyOf(encoded, encoded.length - 2)));
+    }
+
+    private static void assertClassEquals(PreparedWrite.ClassRow expected, PreparedWrite.ClassRow actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.superClass(), actual.superClass());
+        assertArrayEquals(expected.interfaces(), actual.interfaces());
+        assertEquals(expected.annotations(), actual.annotations());
+        assertEquals(expected.fields(), actual.fields());
+        assertEquals(expected.methods(), actual.methods());
+        assertEquals(expected.refs(), actual.refs());
+    }
+}
@@ -0,0 +1,90 @@
+package net.neoforged.waifu.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SchemaSnapshotTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsTheWrittenHeader() throws IOException {
+        var sequences = new LinkedHashMap<String, Long>();
+        sequences.put("mods_id_seq", 1234L);
+        sequences.put("classes_id_seq", 5_000_000_000L);
+        var snapshot = new SchemaSnapshot("41", sequences, List.of(
+                new SchemaSnapshot.Table("mods", List.of("id", "name", "version"), 2, 0, 10, "abc"),
+                new SchemaSnapshot.Table("class_defs", List.of("mod", "name"), 0, 10, 0, "def")
+        ));
+
+        var file = directory.resolve("snapshot.bin");
+        try (var out = Files.newOutputStream(file)) {
+            snapshot.write(out);
+        }
+
+        assertEquals(snapshot, SchemaSnapshot.read(file));
+    }
+
+    @Test
+    void opensTheDataOfEachTable() throws IOException {
+        var first = "first table".getBytes(StandardCharsets.UTF_8);
+        var second = "second".getBytes(StandardCharsets.UTF_8);
+        var snapshot = new SchemaSnapshot("41", new LinkedHashMap<>(), List.of(
+                new SchemaSnapshot.Table("first", List.of("a"), 1, 0, first.length, ""),
+                new SchemaSnapshot.Table("empty", List.of("a"), 0, first.length, 0, ""),
+                new SchemaSnapshot.Table("second", List.of("b", "c"), 1, first.length, second.length, "")
+        ));
+
+        var file = directory.resolve("snapshot.bin");
+        try (var out = Files.newOutputStream(file)) {
+            snapshot.write(out);
+            out.write(first);
+            out.write(second);
+        }
+
+        var read = SchemaSnapshot.read(file);
+        assertArrayEquals(first, readTable(file, read.tables().get(0)));
+        assertArrayEquals(new byte[0], readTable(file, read.tables().get(1)));
+        assertArrayEquals(second, readTable(file, read.tables().get(2)));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        var file = directory.resolve("not-a-snapshot.bin");
+        Files.writeString(file, "PK\u0003\u0004 definitely a zip");
+        assertThrows(IOException.class, () -> SchemaSnapshot.read(file));
+    }
+
+    @Test
+    void rejectsUnknownFormats() throws IOException {
+        var bos = new ByteArrayOutputStream();
+        new SchemaSnapshot("41", new LinkedHashMap<>(), List.of()).write(bos);
+        var bytes = bos.toByteArray();
+
+        // Bump the format version which follows the magic
+        System.arraycopy(new byte[] {0, 0, 0, 2}, 0, bytes, Integer.BYTES, Integer.BYTES);
+
+        var file = directory.resolve("future.bin");
+        Files.write(file, bytes);
+        var exception = assertThrows(IOException.class, () -> SchemaSnapshot.read(file));
+        assertEquals("Unsupported snapshot format 2, expected 1", exception.getMessage());
+    }
+
+    private static byte[] readTable(Path file, SchemaSnapshot.Table table) throws IOException {
+        try (var in = SchemaSnapshot.open(file, table)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.neoforged.waifu.db;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link SQLDatabase} in a new schema of an embedded Postgres, which is started once and shared by all the tests.
+ */
+final class TestDatabase implements AutoCloseable {
+    private static final AtomicInteger SCHEMAS = new AtomicInteger();
+    private static EmbeddedPostgres postgres;
+
+    final SQLDatabase db;
+    private final String url, schema;
+
+    private TestDatabase(String url, String schema) {
+        this.url = url;
+        this.schema = schema;
+        this.db = new SQLDatabase(url + "?currentSchema=" + schema, "postgres", "postgres", null);
+    }
+
+    static TestDatabase create() {
+        var database = new TestDatabase(serverUrl(), "1.21.1-test" + SCHEMAS.incrementAndGet());
+        database.db.runFlyway();
+        return database;
+    }
+
+    private static synchronized String serverUrl() {
+        if (postgres == null) {
+            try {
+                postgres = EmbeddedPostgres.builder().start();
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            var started = postgres;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    started.close();
+                } catch (IOException ignored) {
+                }
+            }));
+        }
+        return "jdbc:postgresql://localhost:" + postgres.getPort() + "/postgres";
+    }
+
+    SQLDatabase.SqlMod createMod(String name) {
+        update("insert into mods(version, name, mod_ids) values ('1.0.0', ?, array[?])", name, name.toLowerCase(Locale.ROOT));
+        return db.getModsByName(name).getFirst();
+    }
+
+    /**
+     * {@return the rows of the query, with their columns joined by spaces}
+     */
+    List<String> query(String sql, Object... args) {
+        try (var con = DriverManager.getConnection(url + "?currentSchema=" + schema, "postgres", "postgres");
+             var stmt = con.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                stmt.setObject(i + 1, args[i]);
+            }
+            var rs = stmt.executeQuery();
+            var rows = new ArrayList<String>();
+            while (rs.next()) {
+                var columns = new ArrayList<String>();
+                for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+                    columns.add(rs.getString(i));
+                }
+                rows.add(String.join(" ", columns));
+            }
+            return rows;
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    void update(String sql, Object... args) {
+        try (var con = DriverManager.getConnection(url + "?currentSchema=" + schema, "postgres", "postgres");
+             var stmt = con.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                stmt.setObject(i + 1, args[i]);
+            }
+            stmt.execute();
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        db.close();
+        update("drop schema \"" + schema + "\" cascade");
+    }
+
+    /**
+     * {@return a class referencing the given members the given amount of times}
+     */
+    static ClassData classData(String name, Map<ClassData.Reference, Integer> methodRefs, Map<ClassData.Reference, Integer> fieldRefs) {
+        return new ClassData(
+                name, "java/lang/Object", new String[0], new ArrayList<>(),
+                new HashMap<>(Map.of("value", new ClassData.FieldInfo("value", Type.INT_TYPE, 1, new ArrayList<>()))),
+                new HashMap<>(Map.of("run()V", new ClassData.MethodInfo("run", "()V", 1, new ArrayList<>()))),
+                new HashMap<>(methodRefs), new HashMap<>(fieldRefs)
+        );
+    }
+}
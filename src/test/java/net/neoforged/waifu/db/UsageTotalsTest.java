@@ -0,0 +1,136 @@
+package net.neoforged.waifu.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static net.neoforged.waifu.db.TestDatabase.classData;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UsageTotalsTest {
+    private static final String TICK = "net/minecraft/world/level/Level.tick()V";
+    private static final String USE = "net/minecraft/world/item/Item.use(I)Z";
+    private static final String MOD_ANNOTATION = "net/neoforged/fml/common/Mod";
+    private static final String LOGS = "minecraft:block/logs";
+
+    private TestDatabase database;
+
+    @BeforeEach
+    void setUp() {
+        database = TestDatabase.create();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Test
+    void totalsFollowStoresAndDeletes() {
+        var first = database.createMod("First");
+        var second = database.createMod("Second");
+
+        store(first, List.of(
+                annotated(classData("com/example/first/Blocks", Map.of(reference(TICK), 2), Map.of())),
+                classData("com/example/first/Items", Map.of(reference(TICK), 1, reference(USE), 3), Map.of())
+        ), List.of(new TagFile(LOGS, false, List.of("first:oak", "first:birch"))));
+        store(second, List.of(
+                annotated(classData("com/example/second/Main", Map.of(reference(TICK), 5), Map.of()))
+        ), List.of(new TagFile(LOGS, false, List.of("second:pine"))));
+
+        assertEquals(new IndexDatabase.SymbolUsage(TICK, 2, 8), usage(IndexDatabase.SymbolKind.METHOD, TICK));
+        assertEquals(new IndexDatabase.SymbolUsage(USE, 1, 3), usage(IndexDatabase.SymbolKind.METHOD, USE));
+        assertEquals(new IndexDatabase.SymbolUsage(MOD_ANNOTATION, 2, 2), usage(IndexDatabase.SymbolKind.ANNOTATION, MOD_ANNOTATION));
+        assertEquals(new IndexDatabase.SymbolUsage(LOGS, 2, 3), usage(IndexDatabase.SymbolKind.TAG, LOGS));
+        assertTotalsMatchRebuild();
+
+        // Storing a mod again only applies the difference with its previous generation
+        store(first, List.of(
+                classData("com/example/first/Items", Map.of(reference(USE), 1), Map.of())
+        ), List.of());
+
+        assertEquals(new IndexDatabase.SymbolUsage(TICK, 1, 5), usage(IndexDatabase.SymbolKind.METHOD, TICK));
+        assertEquals(new IndexDatabase.SymbolUsage(USE, 1, 1), usage(IndexDatabase.SymbolKind.METHOD, USE));
+        assertEquals(new IndexDatabase.SymbolUsage(MOD_ANNOTATION, 1, 1), usage(IndexDatabase.SymbolKind.ANNOTATION, MOD_ANNOTATION));
+        assertEquals(new IndexDatabase.SymbolUsage(LOGS, 1, 1), usage(IndexDatabase.SymbolKind.TAG, LOGS));
+        assertTotalsMatchRebuild();
+
+        second.delete();
+
+        assertNull(usage(IndexDatabase.SymbolKind.METHOD, TICK));
+        assertNull(usage(IndexDatabase.SymbolKind.ANNOTATION, MOD_ANNOTATION));
+        assertNull(usage(IndexDatabase.SymbolKind.TAG, LOGS));
+        assertEquals(new IndexDatabase.SymbolUsage(USE, 1, 1), usage(IndexDatabase.SymbolKind.METHOD, USE));
+        assertTotalsMatchRebuild();
+    }
+
+    @Test
+    void storingTheSameDataAgainKeepsTheTotals() {
+        var mod = database.createMod("Example");
+        var classes = List.of(classData("com/example/Main", Map.of(reference(TICK), 2, reference(USE), 1), Map.of()));
+
+        store(mod, classes, List.of());
+        var totals = totals();
+        store(mod, classes, List.of());
+
+        assertEquals(totals, totals());
+        assertEquals(new IndexDatabase.SymbolUsage(TICK, 1, 2), usage(IndexDatabase.SymbolKind.METHOD, TICK));
+    }
+
+    @Test
+    void loadersAreNotCounted() {
+        var loader = database.createMod("Loader");
+        database.update("update mods set loader = true where name = 'Loader'");
+        var mod = database.createMod("Example");
+
+        store(loader, List.of(classData("net/neoforged/Loader", Map.of(reference(TICK), 10), Map.of())), List.of());
+        store(mod, List.of(classData("com/example/Main", Map.of(reference(TICK), 1), Map.of())), List.of());
+
+        assertEquals(new IndexDatabase.SymbolUsage(TICK, 1, 1), usage(IndexDatabase.SymbolKind.METHOD, TICK));
+        assertTotalsMatchRebuild();
+    }
+
+    private void store(SQLDatabase.SqlMod mod, List<ClassData> classes, List<TagFile> tags) {
+        database.db.trackMod(mod, tracker -> {
+            tracker.deleteCurrent();
+            tracker.insertClasses(classes);
+            tracker.insertTags(tags);
+        });
+    }
+
+    private IndexDatabase.SymbolUsage usage(IndexDatabase.SymbolKind kind, String symbol) {
+        return database.db.getUsage(kind, symbol);
+    }
+
+    private void assertTotalsMatchRebuild() {
+        var incremental = totals();
+        database.update("select rebuild_usage_totals()");
+        assertEquals(totals(), incremental);
+    }
+
+    private List<String> totals() {
+        var totals = new ArrayList<String>();
+        totals.addAll(database.query("select 'method', reference, mods, count, classes from method_usage_totals order by reference"));
+        totals.addAll(database.query("select 'field', reference, mods, count, classes from field_usage_totals order by reference"));
+        totals.addAll(database.query("select 'annotation', annotation, mods, count from annotation_usage_totals order by annotation"));
+        totals.addAll(database.query("select 'tag', tag, mods, entries from tag_usage_totals order by tag"));
+        return totals;
+    }
+
+    private static ClassData annotated(ClassData data) {
+        data.annotations().add(new ClassData.AnnotationInfo(Type.getObjectType(MOD_ANNOTATION), Map.of()));
+        return data;
+    }
+
+    private static ClassData.Reference reference(String method) {
+        int desc = method.indexOf('(');
+        int dot = method.lastIndexOf('.', desc);
+        return new ClassData.Reference(method.substring(0, dot), method.substring(dot + 1, desc), method.substring(desc));
+    }
+}
@@ -0,0 +1,168 @@
+package net.neoforged.waifu.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysRecordsInOrder() throws IOException {
+        try (var journal = new WriteJournal(directory)) {
+            assertTrue(journal.isEmpty());
+            journal.append(bytes("a"));
+            journal.append(bytes("b"));
+            journal.append(bytes("c"));
+            assertFalse(journal.isEmpty());
+
+            assertEquals(List.of("a", "b", "c"), replayAll(journal));
+            assertTrue(journal.isEmpty());
+            assertEquals(List.of(), replayAll(journal));
+        }
+    }
+
+    @Test
+    void replayedRecordsAreNotReplayedAfterReopening() throws IOException {
+        try (var journal = new WriteJournal(directory)) {
+            journal.append(bytes("a"));
+            journal.append(bytes("b"));
+            journal.append(bytes("c"));
+
+            var replayed = new ArrayList<String>();
+            assertEquals(1, journal.replay(payload -> {
+                replayed.add(string(payload));
+                return replayed.size() < 2;
+            }));
+            // The record the replayer refused is still pending
+            assertEquals(List.of("a", "b"), replayed);
+        }
+
+        try (var journal = new WriteJournal(directory)) {
+            assertFalse(journal.isEmpty());
+            assertEquals(List.of("b", "c"), replayAll(journal));
+        }
+
+        try (var journal = new WriteJournal(directory)) {
+            assertTrue(journal.isEmpty());
+        }
+        assertEquals(List.of(), segments());
+    }
+
+    @Test
+    void recordsAppendedAfterReopeningFollowThePendingOnes() throws IOException {
+        try (var journal = new WriteJournal(directory)) {
+            journal.append(bytes("a"));
+        }
+        try (var journal = new WriteJournal(directory)) {
+            journal.append(bytes("b"));
+            assertEquals(List.of("a", "b"), replayAll(journal));
+        }
+    }
+
+    @Test
+    void corruptedRecordDiscardsTheRestOfTheSegment() throws IOException {
+        try (var journal = new WriteJournal(directory)) {
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+            journal.append(bytes("third"));
+        }
+
+        // Flip a byte of the payload of the second record, which follows the 8 byte header and the payload of the first one
+        try (var channel = FileChannel.open(segments().getFirst(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = 8 + "first".length() + 8;
+            var buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            buffer.put(0, (byte) (buffer.get(0) ^ 0xFF));
+            channel.write(buffer.rewind(), position);
+        }
+
+        try (var journal = new WriteJournal(directory)) {
+            assertEquals(List.of("first"), replayAll(journal));
+            assertTrue(journal.isEmpty());
+        }
+    }
+
+    @Test
+    void rollsOverToANewSegmentWhenFull() throws IOException {
+        var large = new byte[40 * 1024 * 1024];
+        large[large.length - 1] = 1;
+
+        try (var journal = new WriteJournal(directory)) {
+            journal.append(large);
+            journal.append(large);
+            journal.append(bytes("small"));
+            assertEquals(2, segments().size());
+
+            var replayed = new ArrayList<Integer>();
+            journal.replay(payload -> {
+                replayed.add(payload.length);
+                // The first segment is deleted once all its records are replayed
+                return replayed.size() < 2;
+            });
+            assertEquals(List.of(large.length, large.length), replayed);
+            assertEquals(1, segments().size());
+        }
+
+        try (var journal = new WriteJournal(directory)) {
+            var replayed = new ArrayList<byte[]>();
+            journal.replay(replayed::add);
+            assertEquals(2, replayed.size());
+            assertEquals(large.length, replayed.get(0).length);
+            assertEquals(1, replayed.get(0)[large.length - 1]);
+            assertEquals("small", string(replayed.get(1)));
+        }
+        assertEquals(List.of(), segments());
+    }
+
+    @Test
+    void recordsLargerThanASegmentGetTheirOwnSegment() throws IOException {
+        var huge = new byte[65 * 1024 * 1024];
+        try (var journal = new WriteJournal(directory)) {
+            journal.append(bytes("small"));
+            journal.append(huge);
+            assertEquals(2, segments().size());
+            assertTrue(Files.size(segments().getLast()) >= 8 + huge.length);
+        }
+
+        try (var journal = new WriteJournal(directory)) {
+            var replayed = new ArrayList<Integer>();
+            journal.replay(payload -> replayed.add(payload.length));
+            assertEquals(List.of(5, huge.length), replayed);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".journal")).sorted().toList();
+        }
+    }
+
+    private static List<String> replayAll(WriteJournal journal) {
+        var replayed = new ArrayList<String>();
+        journal.replay(payload -> replayed.add(string(payload)));
+        return replayed;
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,125 @@
+package net.neoforged.waifu.util;
+
+import net.neoforged.waifu.db.IndexDatabase;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArrowDatasetWriterTest {
+    // The amount of rows per record batch of the writer
+    private static final int BATCH_SIZE = 65_536;
+
+    @Test
+    void writesReplacementDictionariesForEachBatch() throws IOException {
+        var rows = new ArrayList<Object[]>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            rows.add(new Object[] {i, i % 100 == 0 ? null : "com/example/C" + (i % 3)});
+        }
+        rows.add(new Object[] {-1, "com/example/Other"});
+        rows.add(new Object[] {-2, "com/example/C1"});
+
+        var out = new ByteArrayOutputStream();
+        assertEquals(rows.size(), ArrowDatasetWriter.write(IndexDatabase.ExportDataset.CLASS_DEFS, rows.iterator(), out));
+
+        try (var allocator = new RootAllocator();
+             var reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            var root = reader.getVectorSchemaRoot();
+            var classField = root.getSchema().findField("class");
+            assertNotNull(classField.getDictionary());
+            long dictionaryId = classField.getDictionary().getId();
+
+            int row = 0;
+            var dictionarySizes = new ArrayList<Integer>();
+            while (reader.loadNextBatch()) {
+                var dictionary = (VarCharVector) reader.getDictionaryVectors().get(dictionaryId).getVector();
+                dictionarySizes.add(dictionary.getValueCount());
+
+                var mods = (IntVector) root.getVector("mod");
+                var classes = (IntVector) root.getVector("class");
+                for (int i = 0; i < root.getRowCount(); i++, row++) {
+                    var expected = rows.get(row);
+                    assertEquals(expected[0], mods.get(i));
+                    if (expected[1] == null) {
+                        assertTrue(classes.isNull(i));
+                    } else {
+                        assertEquals(expected[1], new String(dictionary.get(classes.get(i)), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+
+            assertEquals(rows.size(), row);
+            // Each batch only holds the symbols it uses
+            assertEquals(List.of(3, 2), dictionarySizes);
+        }
+    }
+
+    @Test
+    void writesAllColumnTypes() throws IOException {
+        var date = new Timestamp(1_700_000_000_123L);
+        var rows = List.of(
+                new Object[] {1, "Example", "1.0.0", false, "MIT", "Someone", "com.example:example:1.0.0", 42, "AbCdEf", date},
+                new Object[] {2, "Loader", "21.0.0", true, null, null, null, null, null, null}
+        );
+
+        var out = new ByteArrayOutputStream();
+        ArrowDatasetWriter.write(IndexDatabase.ExportDataset.MODS, rows.iterator(), out);
+
+        try (var allocator = new RootAllocator();
+             var reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            var root = reader.getVectorSchemaRoot();
+            assertTrue(reader.loadNextBatch());
+            assertEquals(2, root.getRowCount());
+
+            assertEquals(2, ((IntVector) root.getVector("id")).get(1));
+            assertEquals("Example", new String(((VarCharVector) root.getVector("name")).get(0), StandardCharsets.UTF_8));
+            assertEquals(0, ((BitVector) root.getVector("is_loader")).get(0));
+            assertEquals(1, ((BitVector) root.getVector("is_loader")).get(1));
+            assertEquals(42, ((IntVector) root.getVector("curseforge_project_id")).get(0));
+            assertTrue(root.getVector("curseforge_project_id").isNull(1));
+            assertEquals(date.getTime(), ((TimeStampMilliTZVector) root.getVector("index_date")).get(0));
+            assertTrue(root.getVector("index_date").isNull(1));
+            assertTrue(root.getVector("license").isNull(1));
+
+            assertFalse(reader.loadNextBatch());
+        }
+    }
+
+    @Test
+    void writesAnEmptyBatchForEmptyDatasets() throws IOException {
+        var out = new ByteArrayOutputStream();
+        assertEquals(0, ArrowDatasetWriter.write(IndexDatabase.ExportDataset.METHOD_REFERENCES, List.<Object[]>of().iterator(), out));
+
+        try (var allocator = new RootAllocator();
+             var reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            var root = reader.getVectorSchemaRoot();
+            assertEquals(
+                    List.of("mod", "owner", "name", "descriptor", "count", "classes"),
+                    root.getSchema().getFields().stream().map(Field::getName).toList()
+            );
+
+            assertTrue(reader.loadNextBatch());
+            assertEquals(0, root.getRowCount());
+            // The dictionaries are written even though no batch uses them
+            assertEquals(0, reader.getDictionaryVectors().get(root.getSchema().findField("owner").getDictionary().getId()).getVector().getValueCount());
+            assertFalse(reader.loadNextBatch());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package net.neoforged.waifu.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ContentFingerprintTest {
+    private static final String MANIFEST = """
+            Manifest-Version: 1.0
+            Implementation-Title: example
+            Implementation-Version: 1.0.0
+            Implementation-Timestamp: 2024-01-01T00:00:00Z
+            Build-Date: 2024-01-01
+            """;
+
+    @Test
+    void ignoresTheOrderAndTimesOfEntries() throws IOException {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("com/example/A.class", "a");
+        entries.put("com/example/B.class", "b");
+        entries.put("assets/example/lang/en_us.json", "{}");
+
+        var names = new ArrayList<>(entries.keySet());
+        Collections.reverse(names);
+        var reversed = new LinkedHashMap<String, String>();
+        names.forEach(name -> reversed.put(name, entries.get(name)));
+
+        assertEquals(fingerprint(jar(entries, 0)), fingerprint(jar(reversed, 1_000_000_000L)));
+    }
+
+    @Test
+    void ignoresDirectoryEntries() throws IOException {
+        var entries = Map.of("com/example/A.class", "a");
+        var withDirectories = new LinkedHashMap<String, String>();
+        withDirectories.put("com/", null);
+        withDirectories.put("com/example/", null);
+        withDirectories.put("com/example/A.class", "a");
+
+        assertEquals(fingerprint(jar(entries, 0)), fingerprint(jar(withDirectories, 0)));
+    }
+
+    @Test
+    void ignoresTheBuildDatesOfTheManifest() throws IOException {
+        var rebuilt = """
+                Manifest-Version: 1.0
+                Build-Date: 2025-06-30
+                implementation-version: 1.0.0
+                Implementation-Title: example
+                Implementation-Timestamp: 2025-06-30T12:00:00Z
+                """;
+
+        assertEquals(
+                fingerprint(jar(Map.of(JarFile.MANIFEST_NAME, MANIFEST, "A.class", "a"), 0)),
+                fingerprint(jar(Map.of(JarFile.MANIFEST_NAME, rebuilt, "A.class", "a"), 0))
+        );
+    }
+
+    @Test
+    void detectsChangedManifestAttributes() throws IOException {
+        assertNotEquals(
+                fingerprint(jar(Map.of(JarFile.MANIFEST_NAME, MANIFEST), 0)),
+                fingerprint(jar(Map.of(JarFile.MANIFEST_NAME, MANIFEST.replace("1.0.0", "1.0.1")), 0))
+        );
+    }
+
+    @Test
+    void detectsChangedContent() throws IOException {
+        var fingerprint = fingerprint(jar(Map.of("A.class", "a", "B.class", "b"), 0));
+
+        assertNotEquals(fingerprint, fingerprint(jar(Map.of("A.class", "a", "B.class", "c"), 0)));
+        assertNotEquals(fingerprint, fingerprint(jar(Map.of("A.class", "a", "C.class", "b"), 0)));
+        assertNotEquals(fingerprint, fingerprint(jar(Map.of("A.class", "a"), 0)));
+        // Moving bytes from one entry to the other changes the fingerprint too
+        assertNotEquals(fingerprint, fingerprint(jar(Map.of("A.class", "ab", "B.class", ""), 0)));
+    }
+
+    private static String fingerprint(byte[] jar) throws IOException {
+        return Utils.computeContentFingerprint(new ByteArrayInputStream(jar));
+    }
+
+    /**
+     * @param entries the content of the entries by name, or {@code null} for directories
+     */
+    private static byte[] jar(Map<String, String> entries, long time) throws IOException {
+        var bos = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(bos)) {
+            for (var entry : entries.entrySet()) {
+                var zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTime(time);
+                out.putNextEntry(zipEntry);
+                if (entry.getValue() != null) {
+                    out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+package net.neoforged.waifu.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashSetTest {
+    @Test
+    void addsAndContainsValues() {
+        var set = new LongHashSet(4);
+        assertFalse(set.contains(42));
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void tracksTheEmptyValue() {
+        var set = new LongHashSet(4);
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+
+        set.add(-1);
+        assertEquals(2, set.size());
+        assertTrue(set.contains(-1));
+    }
+
+    @Test
+    void growsPastTheExpectedSize() {
+        var set = new LongHashSet(16);
+        var expected = new HashSet<Long>();
+        var random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong();
+            assertEquals(expected.add(value), set.add(value));
+        }
+
+        assertEquals(expected.size(), set.size());
+        for (var value : expected) {
+            assertTrue(set.contains(value));
+        }
+        for (int i = 0; i < 1000; i++) {
+            long value = random.nextLong();
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+
+    @Test
+    void handlesValuesDifferingOnlyInTheirHighBits() {
+        var set = new LongHashSet(16);
+        for (long i = 1; i <= 10_000; i++) {
+            assertTrue(set.add(i << 40));
+        }
+        assertEquals(10_000, set.size());
+        for (long i = 1; i <= 10_000; i++) {
+            assertTrue(set.contains(i << 40));
+            assertFalse(set.contains((i << 40) + 1));
+        }
+    }
+}